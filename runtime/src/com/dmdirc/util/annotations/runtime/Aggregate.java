@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+/**
+ * Accumulates the count, sum, minimum and maximum of a set of values which may be added and
+ * removed over time.
+ *
+ * <p>
+ * Integral aggregates sum their values as {@code long}s, so sums are exact until they overflow;
+ * other aggregates use compensated summation so that repeatedly adding and removing values does
+ * not cause the sum to drift.
+ *
+ * <p>
+ * Values are counted in an open-addressed hash table of primitives, so adding or removing a
+ * value takes constant time and does not allocate. The minimum and maximum are tracked as values
+ * are added; removing the last occurrence of either means the table is scanned the next time a
+ * snapshot is taken. Instances are not thread safe; callers publish the results of
+ * {@link #snapshot()} to share them.
+ */
+public class Aggregate {
+
+    /** The initial capacity of the table of values. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Whether values are integers, stored directly in keys rather than as double bits. */
+    private final boolean integral;
+
+    /** The distinct values, as longs or the bits of doubles. */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /** The number of occurrences of the value in each slot, or zero if the slot is empty. */
+    private int[] occurrences = new int[INITIAL_CAPACITY];
+
+    /** The number of distinct values. */
+    private int distinct;
+
+    /** The number of values. */
+    private long count;
+
+    /** The sum of all values, for integral aggregates. */
+    private long longSum;
+
+    /** The sum of all values, for other aggregates. */
+    private double sum;
+
+    /** The low-order bits lost from {@link #sum}. */
+    private double compensation;
+
+    /** The key of the smallest value. */
+    private long min;
+
+    /** The key of the largest value. */
+    private long max;
+
+    /** Whether the smallest value has been removed, and {@link #min} must be recalculated. */
+    private boolean minStale;
+
+    /** Whether the largest value has been removed, and {@link #max} must be recalculated. */
+    private boolean maxStale;
+
+    /**
+     * Creates a new aggregate of floating point values.
+     */
+    public Aggregate() {
+        this(false);
+    }
+
+    /**
+     * Creates a new aggregate.
+     *
+     * @param integral True if only integral values will be added, and should be summed exactly;
+     * false if floating point values may be added.
+     */
+    public Aggregate(final boolean integral) {
+        this.integral = integral;
+    }
+
+    /**
+     * Adds a value to the aggregate.
+     *
+     * @param value The value to add.
+     */
+    public void add(final long value) {
+        if (!integral) {
+            add((double) value);
+            return;
+        }
+        addKey(value);
+        longSum += value;
+    }
+
+    /**
+     * Adds a value to the aggregate.
+     *
+     * @param value The value to add.
+     * @throws IllegalStateException If this is an integral aggregate.
+     */
+    public void add(final double value) {
+        checkNotIntegral();
+        addKey(Double.doubleToLongBits(value));
+        addToSum(value);
+    }
+
+    /**
+     * Removes a value that was previously added to the aggregate.
+     *
+     * @param value The value to remove.
+     */
+    public void remove(final long value) {
+        if (!integral) {
+            remove((double) value);
+            return;
+        }
+        if (removeKey(value)) {
+            longSum -= value;
+        }
+    }
+
+    /**
+     * Removes a value that was previously added to the aggregate.
+     *
+     * @param value The value to remove.
+     * @throws IllegalStateException If this is an integral aggregate.
+     */
+    public void remove(final double value) {
+        checkNotIntegral();
+        if (removeKey(Double.doubleToLongBits(value))) {
+            addToSum(-value);
+            if (count == 0) {
+                // Nothing is left to sum, so discard any rounding error accumulated so far.
+                sum = 0;
+                compensation = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates an immutable snapshot of the current state of the aggregate.
+     *
+     * @return A snapshot of the aggregate.
+     */
+    public Snapshot snapshot() {
+        if (count == 0) {
+            return integral ? Snapshot.EMPTY_INTEGRAL : Snapshot.EMPTY;
+        }
+        if (minStale || maxStale) {
+            findExtremes();
+        }
+        return new Snapshot(integral, count, longSum, sum + compensation,
+                toDouble(min), toDouble(max));
+    }
+
+    private void checkNotIntegral() {
+        if (integral) {
+            throw new IllegalStateException("Integral aggregates only accept integral values");
+        }
+    }
+
+    /**
+     * Adds a value to the floating point sum, using Neumaier's variant of Kahan summation.
+     *
+     * @param value The value to add.
+     */
+    private void addToSum(final double value) {
+        final double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += sum - total + value;
+        } else {
+            compensation += value - total + sum;
+        }
+        sum = total;
+    }
+
+    /**
+     * Records an occurrence of a key.
+     *
+     * @param key The key to add.
+     */
+    private void addKey(final long key) {
+        if ((distinct + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        final int slot = find(key);
+        if (occurrences[slot] == 0) {
+            keys[slot] = key;
+            distinct++;
+        }
+        occurrences[slot]++;
+
+        if (count == 0) {
+            min = key;
+            max = key;
+            minStale = false;
+            maxStale = false;
+        } else {
+            if (!minStale && compare(key, min) < 0) {
+                min = key;
+            }
+            if (!maxStale && compare(key, max) > 0) {
+                max = key;
+            }
+        }
+        count++;
+    }
+
+    /**
+     * Removes an occurrence of a key.
+     *
+     * @param key The key to remove.
+     * @return True if the key was present, false otherwise.
+     */
+    private boolean removeKey(final long key) {
+        final int slot = find(key);
+        if (occurrences[slot] == 0) {
+            return false;
+        }
+        if (--occurrences[slot] == 0) {
+            delete(slot);
+            distinct--;
+            minStale |= key == min;
+            maxStale |= key == max;
+        }
+        count--;
+        return true;
+    }
+
+    /**
+     * Finds the slot containing the given key, or the empty slot where it would be inserted.
+     *
+     * @param key The key to find.
+     * @return The index of the slot for the key.
+     */
+    private int find(final long key) {
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (occurrences[slot] != 0 && keys[slot] != key) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot, shifting back any later keys in the same probe sequence so that they can
+     * still be found.
+     *
+     * @param slot The slot to empty.
+     */
+    private void delete(final int slot) {
+        final int mask = keys.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = next + 1 & mask;
+            if (occurrences[next] == 0) {
+                break;
+            }
+            final int home = hash(keys[next]) & mask;
+            if (next > hole ? home <= hole || home > next : home <= hole && home > next) {
+                keys[hole] = keys[next];
+                occurrences[hole] = occurrences[next];
+                hole = next;
+            }
+        }
+        occurrences[hole] = 0;
+    }
+
+    /**
+     * Rehashes all keys into a table of the given capacity.
+     *
+     * @param capacity The new capacity, which must be a power of two.
+     */
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldOccurrences = occurrences;
+        keys = new long[capacity];
+        occurrences = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldOccurrences[i] != 0) {
+                final int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                occurrences[slot] = oldOccurrences[i];
+            }
+        }
+    }
+
+    /**
+     * Recalculates the minimum and maximum keys by scanning the table.
+     */
+    private void findExtremes() {
+        boolean first = true;
+        for (int i = 0; i < keys.length; i++) {
+            if (occurrences[i] != 0) {
+                if (first || compare(keys[i], min) < 0) {
+                    min = keys[i];
+                }
+                if (first || compare(keys[i], max) > 0) {
+                    max = keys[i];
+                }
+                first = false;
+            }
+        }
+        minStale = false;
+        maxStale = false;
+    }
+
+    private int compare(final long first, final long second) {
+        return integral ? Long.compare(first, second)
+                : Double.compare(Double.longBitsToDouble(first), Double.longBitsToDouble(second));
+    }
+
+    private double toDouble(final long key) {
+        return integral ? key : Double.longBitsToDouble(key);
+    }
+
+    private static int hash(final long key) {
+        return (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+    }
+
+    /**
+     * Immutable view of the state of an {@link Aggregate} at a point in time.
+     */
+    public static final class Snapshot {
+
+        /** A snapshot of an aggregate with no values. */
+        public static final Snapshot EMPTY = new Snapshot(false, 0, 0, 0, Double.NaN, Double.NaN);
+
+        /** A snapshot of an integral aggregate with no values. */
+        static final Snapshot EMPTY_INTEGRAL
+                = new Snapshot(true, 0, 0, 0, Double.NaN, Double.NaN);
+
+        private final boolean integral;
+        private final long count;
+        private final long longSum;
+        private final double sum;
+        private final double min;
+        private final double max;
+
+        private Snapshot(final boolean integral, final long count, final long longSum,
+                final double sum, final double min, final double max) {
+            this.integral = integral;
+            this.count = count;
+            this.longSum = longSum;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return integral ? longSum : sum;
+        }
+
+        /**
+         * Gets the sum of the values in the aggregate as a long. For integral aggregates this is
+         * exact, even when the sum can't be represented as a double.
+         *
+         * @return The sum of the values.
+         */
+        public long getLongSum() {
+            return integral ? longSum : (long) sum;
+        }
+
+        /**
+         * Gets the smallest value in the aggregate.
+         *
+         * @return The smallest value, or NaN if there are no values.
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * Gets the largest value in the aggregate.
+         *
+         * @return The largest value, or NaN if there are no values.
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the mean of the values in the aggregate.
+         *
+         * @return The mean value, or NaN if there are no values.
+         */
+        public double getMean() {
+            return count == 0 ? Double.NaN : getSum() / count;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", sum=" + (integral ? String.valueOf(longSum)
+                    : String.valueOf(sum)) + ", min=" + min + ", max=" + max;
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of canonical instances, used to share equal immutable objects.
+ *
+ * <p>
+ * The cache is split into independently locked segments, each of which evicts its least recently
+ * used entry when full. Values are held through soft references, so the garbage collector may
+ * also reclaim instances that are no longer in use elsewhere when memory is short.
+ *
+ * @param <T> The type of object held in the cache.
+ */
+public class CanonicalCache<T> {
+
+    /** The maximum number of segments to split the cache into. */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** The segments of the cache. */
+    private final Segment<T>[] segments;
+
+    /** Mask used to select a segment; the number of segments is always a power of two. */
+    private final int mask;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity The maximum number of entries to retain.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CanonicalCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        final int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>((capacity + count - 1) / count);
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * Gets the canonical instance for the given key.
+     *
+     * @param key The key to look up.
+     * @return The canonical instance, or null if there is none.
+     */
+    public T get(final Object key) {
+        final Segment<T> segment = getSegment(key);
+        synchronized (segment) {
+            final SoftReference<T> reference = segment.get(key);
+            if (reference == null) {
+                return null;
+            }
+            final T value = reference.get();
+            if (value == null) {
+                segment.remove(key);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Makes the given value the canonical instance for the given key, unless another instance
+     * has been interned for it in the meantime.
+     *
+     * @param key The key to store the value under.
+     * @param value The candidate canonical instance.
+     * @return The canonical instance, which is either {@code value} or the existing instance.
+     */
+    public T intern(final Object key, final T value) {
+        final Segment<T> segment = getSegment(key);
+        synchronized (segment) {
+            final SoftReference<T> reference = segment.get(key);
+            final T existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            segment.put(key, new SoftReference<>(value));
+            return value;
+        }
+    }
+
+    /**
+     * Gets the segment responsible for the given key.
+     *
+     * @param key The key to look up.
+     * @return The segment that holds the key.
+     */
+    private Segment<T> getSegment(final Object key) {
+        final int hash = key == null ? 0 : key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * A bounded map of keys to instances, held in access order.
+     *
+     * @param <T> The type of object held in the segment.
+     */
+    private static class Segment<T> extends LinkedHashMap<Object, SoftReference<T>> {
+
+        /** A version number for serializing this class. */
+        private static final long serialVersionUID = 1;
+
+        /** The maximum number of entries to retain. */
+        private final int capacity;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param capacity The maximum number of entries to retain.
+         */
+        Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Object, SoftReference<T>> eldest) {
+            return size() > capacity;
+        }
+
+    }
+
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes made to observable models.
+ *
+ * <p>
+ * Records are appended to a series of fixed-size segment files, each of which is memory mapped.
+ * When a record will not fit in the current segment, the segment is flushed and a new one is
+ * started. Changes are forced to disk once every {@code syncInterval} records, or whenever
+ * {@link #sync()} is called, so that many appends share the cost of a single flush. Flushes
+ * happen outside the lock that orders appends, so a slow flush only holds up the thread that
+ * triggered it.
+ *
+ * <p>
+ * Each record consists of its length, a CRC32 checksum, the ID of the model, the ID of the
+ * property, a type tag and the encoded value. The length and checksum cover everything after the
+ * checksum. A length of zero marks the end of the records in a segment. Records which fail their
+ * checksum, such as those torn by a crash part way through a write, mark the end of the journal:
+ * they are not replayed, and are overwritten by the next record appended.
+ */
+public class ChangeJournal implements Closeable {
+
+    /**
+     * Handler for records read back from a journal.
+     */
+    public interface Handler {
+
+        /**
+         * Called for each record in the journal, in the order they were appended.
+         *
+         * @param modelId The ID of the model that was changed.
+         * @param propertyId The ID of the property that was changed.
+         * @param value The new value of the property.
+         */
+        void record(int modelId, int propertyId, Object value);
+
+    }
+
+    /** Suffix used for segment files. */
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /** Size of the record header: model ID, property ID and type tag. */
+    private static final int HEADER_SIZE = 4 + 2 + 1;
+
+    /** Size of the length and checksum which precede each record. */
+    private static final int PREFIX_SIZE = 4 + 4;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_CHAR = 4;
+    private static final byte TYPE_INT = 5;
+    private static final byte TYPE_LONG = 6;
+    private static final byte TYPE_FLOAT = 7;
+    private static final byte TYPE_DOUBLE = 8;
+    private static final byte TYPE_STRING = 9;
+
+    /** The directory containing the segment files. */
+    private final File directory;
+
+    /** The size of each segment, in bytes. */
+    private final int segmentSize;
+
+    /** The number of records to append between each flush. */
+    private final int syncInterval;
+
+    /** The mapped buffer for the current segment. */
+    private MappedByteBuffer buffer;
+
+    /** The index of the current segment. */
+    private int segment;
+
+    /** The number of records appended since the last flush. */
+    private int unsynced;
+
+    /** The position in the current segment of the record being appended. */
+    private int recordStart;
+
+    /** Checksum used to verify records. */
+    private final CRC32 checksum = new CRC32();
+
+    /** Buffer that records are copied into to be checksummed, grown as required. */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Lock held while flushing a segment or replacing the current one, so that a segment is never
+     * unmapped while it is being flushed.
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * Creates a new journal in the given directory. If the directory already contains segments,
+     * new records will be appended after the existing ones.
+     *
+     * @param directory The directory to store segments in.
+     * @param segmentSize The size of each segment, in bytes.
+     * @param syncInterval The number of records to append between each flush to disk. The
+     * append which reaches the interval waits for the flush to complete, but other threads can
+     * keep appending meanwhile.
+     * @throws IOException If the journal could not be opened.
+     */
+    public ChangeJournal(final File directory, final int segmentSize, final int syncInterval)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncInterval = Math.max(1, syncInterval);
+
+        final File[] segments = getSegments();
+        if (segments.length == 0) {
+            openSegment(0);
+        } else {
+            final String name = segments[segments.length - 1].getName();
+            openSegment(Integer.parseInt(
+                    name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            while (isValidRecord(buffer)) {
+                buffer.position(buffer.position() + PREFIX_SIZE + buffer.getInt(buffer.position()));
+            }
+            if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0) {
+                // A torn record: clear everything after it, so older data left beyond the records
+                // appended from here can never be mistaken for part of the journal.
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a record for a change to a {@code boolean} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final boolean value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_BOOLEAN, 1).put((byte) (value ? 1 : 0));
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code byte} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final byte value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_BYTE, 1).put(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code short} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final short value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_SHORT, 2).putShort(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code char} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final char value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_CHAR, 2).putChar(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code int} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final int value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_INT, 4).putInt(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code long} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final long value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_LONG, 8).putLong(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code float} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final float value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_FLOAT, 4).putFloat(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code double} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final double value) {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            startRecord(modelId, propertyId, TYPE_DOUBLE, 8).putDouble(value);
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Appends a record for a change to a {@code String} property.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param value The new value of the property.
+     */
+    public void append(final int modelId, final int propertyId, final String value) {
+        final byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            if (bytes == null) {
+                startRecord(modelId, propertyId, TYPE_NULL, 0);
+            } else {
+                startRecord(modelId, propertyId, TYPE_STRING, bytes.length).put(bytes);
+            }
+            flush = endRecord();
+        }
+        force(flush);
+    }
+
+    /**
+     * Forces all appended records to be written to disk. Other threads may keep appending while
+     * the records are written.
+     */
+    public void sync() {
+        final MappedByteBuffer flush;
+        synchronized (this) {
+            checkOpen();
+            flush = buffer;
+            unsynced = 0;
+        }
+        force(flush);
+    }
+
+    /**
+     * Reads every record in the journal, in the order they were appended, and passes them to the
+     * given handler.
+     *
+     * @param handler The handler to pass records to.
+     * @throws IOException If the journal could not be read.
+     */
+    public synchronized void replay(final Handler handler) throws IOException {
+        for (File file : getSegments()) {
+            final MappedByteBuffer segmentBuffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                segmentBuffer = raf.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            try {
+                while (isValidRecord(segmentBuffer)) {
+                    final int length = segmentBuffer.getInt();
+                    segmentBuffer.getInt();
+                    final int modelId = segmentBuffer.getInt();
+                    final int propertyId = segmentBuffer.getShort();
+                    final byte type = segmentBuffer.get();
+                    handler.record(modelId, propertyId,
+                            readValue(segmentBuffer, type, length - HEADER_SIZE));
+                }
+                if (segmentBuffer.remaining() >= 4
+                        && segmentBuffer.getInt(segmentBuffer.position()) != 0) {
+                    // A torn record ends the journal; nothing after it can be trusted.
+                    return;
+                }
+            } finally {
+                MappedMemory.unmap(segmentBuffer);
+            }
+        }
+    }
+
+    /**
+     * Flushes the journal and releases its current segment. The journal must not be used
+     * afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (flushLock) {
+            buffer.force();
+            MappedMemory.unmap(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads a single value from the given buffer.
+     *
+     * @param source The buffer to read from.
+     * @param type The type tag of the value.
+     * @param length The encoded length of the value.
+     * @return The decoded value.
+     * @throws IOException If the type tag is not recognised.
+     */
+    private Object readValue(final ByteBuffer source, final byte type, final int length)
+            throws IOException {
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return source.get() != 0;
+            case TYPE_BYTE:
+                return source.get();
+            case TYPE_SHORT:
+                return source.getShort();
+            case TYPE_CHAR:
+                return source.getChar();
+            case TYPE_INT:
+                return source.getInt();
+            case TYPE_LONG:
+                return source.getLong();
+            case TYPE_FLOAT:
+                return source.getFloat();
+            case TYPE_DOUBLE:
+                return source.getDouble();
+            case TYPE_STRING:
+                final byte[] bytes = new byte[length];
+                source.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    /**
+     * Writes the header of a new record, rolling over to a new segment if required.
+     *
+     * @param modelId The ID of the model that was changed.
+     * @param propertyId The ID of the property that was changed.
+     * @param type The type tag of the value.
+     * @param valueLength The encoded length of the value.
+     * @return The buffer to write the value to.
+     */
+    private MappedByteBuffer startRecord(final int modelId, final int propertyId,
+            final byte type, final int valueLength) {
+        checkOpen();
+        final int length = HEADER_SIZE + valueLength;
+        if (PREFIX_SIZE + length + 4 > segmentSize) {
+            throw new IllegalArgumentException("Record of " + length
+                    + " bytes does not fit in a journal segment");
+        }
+        if (buffer.remaining() < PREFIX_SIZE + length + 4) {
+            // Leave room for an explicit end marker, then move on to the next segment.
+            buffer.putInt(0);
+            buffer.force();
+            try {
+                openSegment(segment + 1);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to open journal segment", ex);
+            }
+        }
+        recordStart = buffer.position();
+        buffer.putInt(length).putInt(0).putInt(modelId).putShort((short) propertyId).put(type);
+        return buffer;
+    }
+
+    /**
+     * Completes a record by filling in its checksum.
+     *
+     * @return The segment to flush once the journal's lock has been released, or null if the
+     * sync interval has not been reached.
+     */
+    private MappedByteBuffer endRecord() {
+        buffer.putInt(recordStart + 4, getChecksum(buffer, recordStart + PREFIX_SIZE,
+                buffer.position() - recordStart - PREFIX_SIZE));
+        if (++unsynced >= syncInterval) {
+            unsynced = 0;
+            return buffer;
+        }
+        return null;
+    }
+
+    /**
+     * Forces a segment to disk, unless it has since been replaced by another segment, which
+     * flushes it before it is unmapped. This is called without holding the journal's lock, so
+     * other threads can keep appending while the segment is written.
+     *
+     * @param flush The segment to flush, or null to do nothing.
+     */
+    private void force(final MappedByteBuffer flush) {
+        if (flush == null) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (flush == buffer) {
+                flush.force();
+            }
+        }
+    }
+
+    /**
+     * Checks that the journal has not been closed. Touching an unmapped segment would crash the
+     * VM, so this must be checked before the buffer is used.
+     */
+    private void checkOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Journal has been closed");
+        }
+    }
+
+    /**
+     * Maps the segment with the given index, creating it if necessary.
+     *
+     * @param index The index of the segment to open.
+     * @throws IOException If the segment could not be mapped.
+     */
+    private void openSegment(final int index) throws IOException {
+        final File file = new File(directory, String.format("%08d%s", index, SEGMENT_SUFFIX));
+        final MappedByteBuffer next;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            next = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        synchronized (flushLock) {
+            // Segments being flushed outside the journal's lock mustn't be unmapped under them.
+            final MappedByteBuffer previous = buffer;
+            buffer = next;
+            if (previous != null) {
+                MappedMemory.unmap(previous);
+            }
+        }
+        segment = index;
+        unsynced = 0;
+    }
+
+    /**
+     * Checks whether a complete record with a valid checksum starts at the current position of
+     * the given buffer. The position is not changed.
+     *
+     * @param source The buffer to check.
+     * @return True if the next record is valid; false if it is missing, incomplete or corrupt.
+     */
+    private boolean isValidRecord(final ByteBuffer source) {
+        if (source.remaining() < PREFIX_SIZE) {
+            return false;
+        }
+        final int start = source.position();
+        final int length = source.getInt(start);
+        return length >= HEADER_SIZE && length <= source.remaining() - PREFIX_SIZE
+                && source.getInt(start + 4) == getChecksum(source, start + PREFIX_SIZE, length);
+    }
+
+    /**
+     * Calculates the CRC32 checksum of part of a buffer.
+     *
+     * @param source The buffer containing the data.
+     * @param offset The position of the first byte to include.
+     * @param length The number of bytes to include.
+     * @return The checksum of the bytes.
+     */
+    private int getChecksum(final ByteBuffer source, final int offset, final int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = source.get(offset + i);
+        }
+        checksum.reset();
+        checksum.update(scratch, 0, length);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Gets all segment files in the journal directory, in order.
+     *
+     * @return The segment files.
+     */
+    private File[] getSegments() {
+        final File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+}
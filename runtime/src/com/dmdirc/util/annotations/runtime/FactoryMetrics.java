@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records how many instances a generated factory creates, and how long it takes to create them.
+ *
+ * <p>
+ * Counters are striped across several cells, each on its own cache line, and threads update the
+ * cell chosen by their ID. This keeps recording lock-free and avoids contention between threads
+ * creating instances concurrently; reading the totals sums all of the cells.
+ */
+public class FactoryMetrics implements FactoryMetricsMBean {
+
+    /** The number of stripes to spread updates across. Must be a power of two. */
+    private static final int STRIPES = 16;
+
+    /** The number of array elements between stripes, so that each occupies a cache line. */
+    private static final int PADDING = 8;
+
+    /** The fully-qualified name of the factory. */
+    private final String name;
+
+    /** The counter cells; each stripe holds an invocation count followed by a total duration. */
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Creates a new set of metrics.
+     *
+     * @param name The fully-qualified name of the factory.
+     */
+    public FactoryMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the creation of a single instance.
+     *
+     * @param nanos The time taken to create the instance, in nanoseconds.
+     */
+    public void record(final long nanos) {
+        record(1, nanos);
+    }
+
+    /**
+     * Records the creation of a number of instances.
+     *
+     * @param invocations The number of instances created.
+     * @param nanos The time taken to create all of the instances, in nanoseconds.
+     */
+    public void record(final long invocations, final long nanos) {
+        final long id = Thread.currentThread().getId();
+        final int cell = ((int) (id ^ (id >>> 32)) * 0x9E3779B9 >>> 28 & (STRIPES - 1)) * PADDING;
+        cells.addAndGet(cell, invocations);
+        cells.addAndGet(cell + 1, nanos);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getInvocations() {
+        return sum(0);
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return sum(1);
+    }
+
+    @Override
+    public double getMeanNanos() {
+        final long invocations = getInvocations();
+        return invocations == 0 ? 0 : (double) getTotalNanos() / invocations;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @return The name the metrics were registered under.
+     * @throws JMException If the metrics could not be registered.
+     */
+    public ObjectName register() throws JMException {
+        final ObjectName objectName = new ObjectName("com.dmdirc.annotations:type=Factory,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Sums the given counter across all stripes.
+     *
+     * @param offset The offset of the counter within each stripe.
+     * @return The total value of the counter.
+     */
+    private long sum(final int offset) {
+        long total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            total += cells.get(i * PADDING + offset);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+/**
+ * Management interface exposing the metrics recorded for a generated factory.
+ */
+public interface FactoryMetricsMBean {
+
+    /**
+     * Gets the fully-qualified name of the factory the metrics belong to.
+     *
+     * @return The name of the factory.
+     */
+    String getName();
+
+    /**
+     * Gets the number of instances the factory has created.
+     *
+     * @return The number of instances created.
+     */
+    long getInvocations();
+
+    /**
+     * Gets the total time spent creating instances.
+     *
+     * @return The total creation time, in nanoseconds.
+     */
+    long getTotalNanos();
+
+    /**
+     * Gets the mean time spent creating each instance.
+     *
+     * @return The mean creation time, in nanoseconds, or zero if nothing has been created.
+     */
+    double getMeanNanos();
+
+}
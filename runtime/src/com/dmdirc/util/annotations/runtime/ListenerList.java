@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of listeners which is optimised for frequent iteration and infrequent modification.
+ *
+ * <p>
+ * Listeners are held in an array which is replaced whenever a listener is added or removed.
+ * Iteration works over the array that was current when it started, so listeners may safely add
+ * or remove listeners while being notified. Generated code dispatches by indexing the array
+ * returned by {@link #getListeners()}, which never allocates.
+ *
+ * @param <T> The type of listener held in the list.
+ */
+public class ListenerList<T> implements Iterable<T> {
+
+    /** Array used while the list is empty. */
+    private static final Object[] EMPTY = new Object[0];
+
+    /** Iterator used while the list is empty. */
+    private static final Iterator<Object> EMPTY_ITERATOR = new ArrayIterator<>(EMPTY);
+
+    /** The current listeners, in the order they were added. */
+    private volatile Object[] listeners = EMPTY;
+
+    /**
+     * Adds a listener to the end of the list. A listener may be added more than once, in which
+     * case it will be notified once for each time it was added.
+     *
+     * @param listener The listener to add.
+     */
+    public synchronized void add(final T listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener must not be null");
+        }
+        final Object[] current = listeners;
+        final Object[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes the first occurrence of a listener from the list.
+     *
+     * @param listener The listener to remove.
+     * @return True if the listener was in the list, false otherwise.
+     */
+    public synchronized boolean remove(final Object listener) {
+        final Object[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].equals(listener)) {
+                if (current.length == 1) {
+                    listeners = EMPTY;
+                } else {
+                    final Object[] updated = new Object[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    listeners = updated;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether the list currently contains any listeners. Generated code may use this
+     * to avoid building event arguments that nobody will receive.
+     *
+     * @return True if there are no listeners, false otherwise.
+     */
+    public boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    /**
+     * Gets the number of listeners currently in the list.
+     *
+     * @return The number of listeners.
+     */
+    public int size() {
+        return listeners.length;
+    }
+
+    /**
+     * Gets the listeners currently in the list, in the order they were added. The array is
+     * shared with the list and must not be modified; later changes to the list replace it rather
+     * than modifying it.
+     *
+     * @return The current listeners.
+     */
+    public Object[] getListeners() {
+        return listeners;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<T> iterator() {
+        final Object[] current = listeners;
+        if (current.length == 0) {
+            return (Iterator<T>) EMPTY_ITERATOR;
+        }
+        return new ArrayIterator<>(current);
+    }
+
+    /**
+     * Read-only iterator over a fixed array of listeners.
+     *
+     * @param <T> The type of listener being iterated.
+     */
+    private static class ArrayIterator<T> implements Iterator<T> {
+
+        /** The listeners being iterated. */
+        private final Object[] listeners;
+
+        /** The index of the next listener to return. */
+        private int index;
+
+        /**
+         * Creates a new iterator.
+         *
+         * @param listeners The listeners to iterate.
+         */
+        ArrayIterator(final Object[] listeners) {
+            this.listeners = listeners;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < listeners.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (index >= listeners.length) {
+                throw new NoSuchElementException();
+            }
+            return (T) listeners[index++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Listener lists cannot be modified by iterators");
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Utilities for working with memory-mapped files.
+ *
+ * <p>
+ * Atomic access to mapped memory and explicit memory fences have no public API before Java 9,
+ * so they are provided through method handles bound to {@code sun.misc.Unsafe}. The handles are
+ * constant, so the JIT compiles calls through them down to the underlying intrinsics. They are
+ * looked up when first needed; {@link #checkAtomicAccess()} reports whether they are available.
+ */
+final class MappedMemory {
+
+    private MappedMemory() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Checks that atomic access to mapped memory is supported by this platform.
+     *
+     * @throws UnsupportedOperationException If {@code sun.misc.Unsafe} or its fences are not
+     * available, as on Java 7.
+     */
+    static void checkAtomicAccess() {
+        if (Atomics.FAILURE != null) {
+            throw new UnsupportedOperationException("Atomic access to mapped memory requires "
+                    + "sun.misc.Unsafe with memory fences (Java 8 or later)", Atomics.FAILURE);
+        }
+    }
+
+    /**
+     * Gets the native address of the start of the given buffer.
+     *
+     * @param buffer The buffer to get the address of.
+     * @return The address of the first byte of the buffer.
+     */
+    static long address(final MappedByteBuffer buffer) {
+        try {
+            return (long) Atomics.GET_LONG.invokeExact((Object) buffer, Atomics.ADDRESS_OFFSET);
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Reads a long from the given address with volatile semantics.
+     *
+     * @param address The address to read from, which must be eight byte aligned.
+     * @return The value at the address.
+     */
+    static long getLongVolatile(final long address) {
+        try {
+            return (long) Atomics.GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Writes a long to the given address with volatile semantics.
+     *
+     * @param address The address to write to, which must be eight byte aligned.
+     * @param value The value to write.
+     */
+    static void putLongVolatile(final long address, final long value) {
+        try {
+            Atomics.PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Atomically replaces the long at the given address if it holds the expected value.
+     *
+     * @param address The address to update, which must be eight byte aligned.
+     * @param expected The value expected at the address.
+     * @param value The value to write.
+     * @return True if the value was replaced, false if the address held a different value.
+     */
+    static boolean compareAndSwapLong(final long address, final long expected, final long value) {
+        try {
+            return (boolean) Atomics.COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address,
+                    expected, value);
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Ensures that loads before the fence are not reordered with loads and stores after it.
+     */
+    static void loadFence() {
+        try {
+            Atomics.LOAD_FENCE.invokeExact();
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Ensures that stores before the fence are not reordered with stores after it.
+     */
+    static void storeFence() {
+        try {
+            Atomics.STORE_FENCE.invokeExact();
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    /**
+     * Converts a throwable from a method handle into an unchecked exception. The handles used
+     * here don't declare any checked exceptions, so only unchecked ones are expected.
+     *
+     * @param ex The throwable to convert.
+     * @return The throwable, if it is a runtime exception; otherwise an exception wrapping it.
+     */
+    private static RuntimeException propagate(final Throwable ex) {
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return ex instanceof RuntimeException ? (RuntimeException) ex
+                : new IllegalStateException(ex);
+    }
+
+    /**
+     * Releases the mapping behind the given buffer immediately, rather than waiting for the
+     * buffer to be garbage collected. The buffer must not be used afterwards, as any access would
+     * read unmapped memory.
+     *
+     * <p>
+     * There is no public API for this, so the platform's internal cleaner is used where it is
+     * available. If it isn't, the mapping is left to be released by the garbage collector.
+     *
+     * @param buffer The buffer to unmap.
+     */
+    static void unmap(final MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and later
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                        ByteBuffer.class);
+                final Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                invokeCleaner.invoke(field.get(null), buffer);
+            } catch (NoSuchMethodException ex) {
+                // Java 7 and 8
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Leave the mapping to be released when the buffer is collected.
+        }
+    }
+
+    /**
+     * Holds the method handles used for atomic access, so they are only looked up by users
+     * which need them.
+     */
+    private static final class Atomics {
+
+        /** The reason the handles couldn't be looked up, or null if they are available. */
+        static final Throwable FAILURE;
+
+        /** The offset of the address field within direct buffers. */
+        static final long ADDRESS_OFFSET;
+
+        static final MethodHandle GET_LONG;
+        static final MethodHandle GET_LONG_VOLATILE;
+        static final MethodHandle PUT_LONG_VOLATILE;
+        static final MethodHandle COMPARE_AND_SWAP_LONG;
+        static final MethodHandle LOAD_FENCE;
+        static final MethodHandle STORE_FENCE;
+
+        static {
+            Throwable failure = null;
+            long addressOffset = 0;
+            MethodHandle getLong = null;
+            MethodHandle getLongVolatile = null;
+            MethodHandle putLongVolatile = null;
+            MethodHandle compareAndSwapLong = null;
+            MethodHandle loadFence = null;
+            MethodHandle storeFence = null;
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                final Object unsafe = field.get(null);
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+                getLong = lookup.findVirtual(unsafeClass, "getLong",
+                        MethodType.methodType(long.class, Object.class, long.class))
+                        .bindTo(unsafe);
+                getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                        MethodType.methodType(long.class, Object.class, long.class))
+                        .bindTo(unsafe);
+                putLongVolatile = lookup.findVirtual(unsafeClass, "putLongVolatile",
+                        MethodType.methodType(void.class, Object.class, long.class, long.class))
+                        .bindTo(unsafe);
+                compareAndSwapLong = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                        MethodType.methodType(boolean.class, Object.class, long.class,
+                                long.class, long.class)).bindTo(unsafe);
+                loadFence = lookup.findVirtual(unsafeClass, "loadFence",
+                        MethodType.methodType(void.class)).bindTo(unsafe);
+                storeFence = lookup.findVirtual(unsafeClass, "storeFence",
+                        MethodType.methodType(void.class)).bindTo(unsafe);
+                addressOffset = (long) lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                        MethodType.methodType(long.class, Field.class))
+                        .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+            FAILURE = failure;
+            ADDRESS_OFFSET = addressOffset;
+            GET_LONG = getLong;
+            GET_LONG_VOLATILE = getLongVolatile;
+            PUT_LONG_VOLATILE = putLongVolatile;
+            COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+            LOAD_FENCE = loadFence;
+            STORE_FENCE = storeFence;
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free pool of reusable objects.
+ *
+ * <p>
+ * Pooled objects are held in a fixed array of slots which are claimed and filled using
+ * compare-and-set operations. Each thread starts searching at a different slot, so threads
+ * acquiring and releasing objects concurrently rarely contend for the same slot. Acquiring
+ * searches every slot if needed, so an object released by one thread can be acquired by any
+ * other. Releasing only searches a limited number of slots from the thread's starting point, so
+ * one thread can leave at most {@value #RELEASE_PROBES} objects in the pool (or the pool's
+ * capacity, if smaller) for others to acquire; objects released when those slots are full are
+ * discarded. Hits and misses are counted in striped cells, as in {@link FactoryMetrics}, so
+ * counting doesn't make threads contend either.
+ *
+ * @param <T> The type of object held in the pool.
+ */
+public class ObjectPool<T> {
+
+    /** The maximum number of slots to examine when releasing an object. */
+    public static final int RELEASE_PROBES = 16;
+
+    /** The number of stripes to spread counter updates across. Must be a power of two. */
+    private static final int STRIPES = 16;
+
+    /** The number of array elements between stripes, so that each occupies a cache line. */
+    private static final int PADDING = 8;
+
+    /** The pooled objects, with empty slots holding null. */
+    private final AtomicReferenceArray<T> slots;
+
+    /** Mask used to wrap slot indices; the number of slots is always a power of two. */
+    private final int mask;
+
+    /** The number of slots to examine when releasing an object. */
+    private final int releaseProbes;
+
+    /** The counter cells; each stripe holds a count of hits followed by a count of misses. */
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Creates a new pool.
+     *
+     * @param capacity The maximum number of objects to retain. This is rounded up to the next
+     * power of two.
+     */
+    public ObjectPool(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity
+                ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.releaseProbes = Math.min(size, RELEASE_PROBES);
+    }
+
+    /**
+     * Takes an object from the pool.
+     *
+     * @return A pooled object, or null if the pool was empty.
+     */
+    public T acquire() {
+        final int hash = getThreadHash();
+        for (int i = 0; i <= mask; i++) {
+            final int slot = (hash + i) & mask;
+            final T value = slots.get(slot);
+            if (value != null && slots.compareAndSet(slot, value, null)) {
+                counters.incrementAndGet(getCell(hash));
+                return value;
+            }
+        }
+        counters.incrementAndGet(getCell(hash) + 1);
+        return null;
+    }
+
+    /**
+     * Returns an object to the pool so that it may be reused.
+     *
+     * @param value The object to return. The caller must not use it again.
+     * @return True if the object was pooled, false if the slots probed by this thread were full
+     * and it was discarded.
+     */
+    public boolean release(final T value) {
+        if (value == null) {
+            throw new NullPointerException("Pooled objects must not be null");
+        }
+        final int hash = getThreadHash();
+        for (int i = 0; i < releaseProbes; i++) {
+            final int slot = (hash + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of times an object was successfully taken from the pool.
+     *
+     * @return The number of pool hits.
+     */
+    public long getHits() {
+        return sum(0);
+    }
+
+    /**
+     * Gets the number of times the pool was empty when an object was requested.
+     *
+     * @return The number of pool misses.
+     */
+    public long getMisses() {
+        return sum(1);
+    }
+
+    /**
+     * Gets a hash of the current thread's ID. The low bits select the slot the thread starts
+     * searching from, and the high bits select its counter stripe.
+     *
+     * @return The hash of the current thread.
+     */
+    private static int getThreadHash() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    }
+
+    /**
+     * Gets the index of the first counter cell in the stripe for the given thread hash.
+     *
+     * @param hash The hash of the current thread.
+     * @return The index of the stripe's hit counter.
+     */
+    private static int getCell(final int hash) {
+        return (hash >>> 28 & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * Sums the given counter across all stripes.
+     *
+     * @param offset The offset of the counter within each stripe.
+     * @return The total value of the counter.
+     */
+    private long sum(final int offset) {
+        long total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            total += counters.get(i * PADDING + offset);
+        }
+        return total;
+    }
+
+}
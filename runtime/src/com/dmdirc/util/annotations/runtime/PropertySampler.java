@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Records a rolling window of timestamped samples of a numeric property.
+ *
+ * <p>
+ * Samples are kept in fixed-size primitive ring buffers. The minimum, maximum and mean of the
+ * window are maintained incrementally as samples are recorded, and percentiles are calculated
+ * on demand using a preallocated scratch buffer, so recording and querying never allocate. The
+ * running sum is recalculated from the window each time the ring buffer wraps, so that rounding
+ * errors can't accumulate.
+ */
+public class PropertySampler {
+
+    /** The maximum number of samples to retain. */
+    private final int capacity;
+
+    /** The timestamp of each sample, indexed by sequence number modulo capacity. */
+    private final long[] timestamps;
+
+    /** The value of each sample, indexed by sequence number modulo capacity. */
+    private final double[] values;
+
+    /** Sequence numbers of samples that may become the window minimum, oldest first. */
+    private final long[] minimums;
+
+    /** Sequence numbers of samples that may become the window maximum, oldest first. */
+    private final long[] maximums;
+
+    /** Buffer used to sort values when calculating percentiles. */
+    private final double[] scratch;
+
+    /** The total number of samples ever recorded. */
+    private long recorded;
+
+    /** The sum of the values currently in the window. */
+    private double sum;
+
+    private int minimumsHead;
+    private int minimumsSize;
+    private int maximumsHead;
+    private int maximumsSize;
+
+    /**
+     * Creates a new sampler.
+     *
+     * @param capacity The maximum number of samples to retain.
+     */
+    public PropertySampler(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+        this.minimums = new long[capacity];
+        this.maximums = new long[capacity];
+        this.scratch = new double[capacity];
+    }
+
+    /**
+     * Records a new sample, discarding the oldest sample if the window is full.
+     *
+     * @param timestamp The time the sample was taken.
+     * @param value The value of the sample.
+     */
+    public synchronized void record(final long timestamp, final double value) {
+        final long sequence = recorded++;
+        final int slot = (int) (sequence % capacity);
+        if (sequence >= capacity) {
+            sum -= values[slot];
+        }
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        if (slot == capacity - 1) {
+            // Rounding errors accumulate as samples enter and leave the window, so recalculate
+            // the sum each time the buffer wraps. This keeps recording constant time amortised.
+            sum = 0;
+            for (int i = 0; i < capacity; i++) {
+                sum += values[i];
+            }
+        } else {
+            sum += value;
+        }
+
+        final long oldest = sequence - capacity + 1;
+        if (minimumsSize > 0 && minimums[minimumsHead] < oldest) {
+            minimumsHead = (minimumsHead + 1) % capacity;
+            minimumsSize--;
+        }
+        while (minimumsSize > 0 && valueOf(minimums, minimumsHead, minimumsSize - 1) >= value) {
+            minimumsSize--;
+        }
+        minimums[(minimumsHead + minimumsSize++) % capacity] = sequence;
+
+        if (maximumsSize > 0 && maximums[maximumsHead] < oldest) {
+            maximumsHead = (maximumsHead + 1) % capacity;
+            maximumsSize--;
+        }
+        while (maximumsSize > 0 && valueOf(maximums, maximumsHead, maximumsSize - 1) <= value) {
+            maximumsSize--;
+        }
+        maximums[(maximumsHead + maximumsSize++) % capacity] = sequence;
+    }
+
+    /**
+     * Gets the number of samples currently in the window.
+     *
+     * @return The number of retained samples.
+     */
+    public synchronized int size() {
+        return (int) Math.min(recorded, capacity);
+    }
+
+    /**
+     * Gets the value of the most recent sample.
+     *
+     * @return The latest value, or NaN if no samples have been recorded.
+     */
+    public synchronized double getLatest() {
+        return recorded == 0 ? Double.NaN : values[(int) ((recorded - 1) % capacity)];
+    }
+
+    /**
+     * Gets the smallest value in the window.
+     *
+     * @return The minimum value, or NaN if no samples have been recorded.
+     */
+    public synchronized double getMin() {
+        return minimumsSize == 0 ? Double.NaN : valueOf(minimums, minimumsHead, 0);
+    }
+
+    /**
+     * Gets the largest value in the window.
+     *
+     * @return The maximum value, or NaN if no samples have been recorded.
+     */
+    public synchronized double getMax() {
+        return maximumsSize == 0 ? Double.NaN : valueOf(maximums, maximumsHead, 0);
+    }
+
+    /**
+     * Gets the mean of the values in the window.
+     *
+     * @return The mean value, or NaN if no samples have been recorded.
+     */
+    public synchronized double getMean() {
+        return recorded == 0 ? Double.NaN : sum / size();
+    }
+
+    /**
+     * Gets the value below which the given percentage of samples in the window fall, using the
+     * nearest-rank method.
+     *
+     * @param percentile The percentile to calculate, between 0 and 100.
+     * @return The value at the given percentile, or NaN if no samples have been recorded.
+     */
+    public synchronized double getPercentile(final double percentile) {
+        final int size = size();
+        if (size == 0) {
+            return Double.NaN;
+        }
+        System.arraycopy(values, 0, scratch, 0, size);
+        Arrays.sort(scratch, 0, size);
+        final int rank = (int) Math.ceil(percentile / 100 * size);
+        return scratch[Math.max(0, Math.min(size, rank) - 1)];
+    }
+
+    /**
+     * Copies the samples in the window into the given arrays, oldest first.
+     *
+     * @param timestampsOut The array to copy timestamps into.
+     * @param valuesOut The array to copy values into.
+     * @return The number of samples copied.
+     */
+    public synchronized int copyTo(final long[] timestampsOut, final double[] valuesOut) {
+        final int size = Math.min(size(), Math.min(timestampsOut.length, valuesOut.length));
+        final long first = recorded - size;
+        for (int i = 0; i < size; i++) {
+            final int slot = (int) ((first + i) % capacity);
+            timestampsOut[i] = timestamps[slot];
+            valuesOut[i] = values[slot];
+        }
+        return size;
+    }
+
+    /**
+     * Gets the value of the sample at the given position in a deque of sequence numbers.
+     *
+     * @param deque The deque to read from.
+     * @param head The index of the head of the deque.
+     * @param offset The position in the deque.
+     * @return The value of the sample.
+     */
+    private double valueOf(final long[] deque, final int head, final int offset) {
+        return values[(int) (deque[(head + offset) % capacity] % capacity)];
+    }
+
+}
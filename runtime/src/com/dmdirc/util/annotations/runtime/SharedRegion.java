@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A memory-mapped region of a file, guarded by a sequence lock, which can be used to share
+ * values between processes.
+ *
+ * <p>
+ * The first eight bytes of the file hold a sequence number, in native byte order, which is odd
+ * while a write is in progress. Writers claim the region by atomically making the sequence number
+ * odd, so writers in different processes exclude each other. Readers note the sequence number
+ * before reading and check it is unchanged afterwards, retrying if not, so they never block the
+ * writer and never see a partial update. Offsets passed to the accessors are relative to the end
+ * of the sequence number.
+ *
+ * <p>
+ * Mapped buffers provide no ordering guarantees of their own, and the Java memory model says
+ * nothing about other processes. The sequence number is therefore accessed with atomic
+ * instructions on the mapped address, and explicit load and store fences separate it from the
+ * data. These compile to hardware instructions, so the ordering holds for every process mapping
+ * the file. This requires {@code sun.misc.Unsafe} with fences, which is available from Java 8.
+ *
+ * <p>
+ * A writer which dies part way through a write leaves the sequence number odd, and the region
+ * can't be read or written again until the file is recreated.
+ */
+public class SharedRegion implements Closeable {
+
+    /** The size of the header containing the sequence number. */
+    private static final int HEADER_SIZE = 8;
+
+    /** The mapped buffer for the region. */
+    private final MappedByteBuffer buffer;
+
+    /** The native address of the sequence number. */
+    private final long address;
+
+    /** Lock ensuring only one thread in this process writes at once. */
+    private final Lock writeLock = new ReentrantLock();
+
+    /** Whether the region has been closed and unmapped. */
+    private volatile boolean closed;
+
+    /**
+     * Maps a region of the given file, creating it if necessary.
+     *
+     * @param file The file to map.
+     * @param size The number of bytes of data in the region.
+     * @param writable Whether the region will be written to by this process.
+     * @throws IOException If the file could not be mapped.
+     * @throws UnsupportedOperationException If the platform doesn't support atomic access to
+     * mapped memory.
+     */
+    public SharedRegion(final File file, final int size, final boolean writable)
+            throws IOException {
+        MappedMemory.checkAtomicAccess();
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+            buffer = raf.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE
+                    : FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + size);
+        }
+        address = MappedMemory.address(buffer);
+    }
+
+    /**
+     * Starts a write to the region. This must be followed by a call to {@link #endWrite()}.
+     *
+     * @throws ReadOnlyBufferException If the region was not mapped as writable.
+     */
+    public void beginWrite() {
+        checkOpen();
+        if (buffer.isReadOnly()) {
+            // Atomic writes to a read-only mapping would crash the VM rather than throw.
+            throw new ReadOnlyBufferException();
+        }
+        writeLock.lock();
+        long version = MappedMemory.getLongVolatile(address);
+        while ((version & 1) != 0
+                || !MappedMemory.compareAndSwapLong(address, version, version + 1)) {
+            // Another process is writing.
+            Thread.yield();
+            version = MappedMemory.getLongVolatile(address);
+        }
+        // Prevent stores to the data from becoming visible before the odd sequence number.
+        MappedMemory.storeFence();
+    }
+
+    /**
+     * Completes a write to the region, making the changes visible to readers.
+     */
+    public void endWrite() {
+        // The volatile store is only visible after the stores to the data that preceded it.
+        MappedMemory.putLongVolatile(address, MappedMemory.getLongVolatile(address) + 1);
+        writeLock.unlock();
+    }
+
+    /**
+     * Gets the current sequence number of the region. This changes every time the region is
+     * written to, and can be polled cheaply to detect changes.
+     *
+     * @return The current sequence number.
+     */
+    public long getVersion() {
+        checkOpen();
+        return MappedMemory.getLongVolatile(address);
+    }
+
+    /**
+     * Waits for any in-progress write to finish and starts a read of the region. This should be
+     * followed by a call to {@link #validateRead(long)} once all values have been read.
+     *
+     * @return The sequence number to validate the read against.
+     */
+    public long beginRead() {
+        long version = getVersion();
+        while ((version & 1) != 0) {
+            Thread.yield();
+            version = getVersion();
+        }
+        // Reads of the data can't happen before the volatile read of the sequence number.
+        return version;
+    }
+
+    /**
+     * Checks whether the values read since the corresponding call to {@link #beginRead()} are
+     * consistent.
+     *
+     * @param version The sequence number returned by {@link #beginRead()}.
+     * @return True if the region was not written to during the read, false if it must be retried.
+     */
+    public boolean validateRead(final long version) {
+        // Prevent reads of the data from happening after the read of the sequence number.
+        MappedMemory.loadFence();
+        return getVersion() == version;
+    }
+
+    public void putBoolean(final int offset, final boolean value) {
+        buffer.put(HEADER_SIZE + offset, (byte) (value ? 1 : 0));
+    }
+
+    public void putByte(final int offset, final byte value) {
+        buffer.put(HEADER_SIZE + offset, value);
+    }
+
+    public void putShort(final int offset, final short value) {
+        buffer.putShort(HEADER_SIZE + offset, value);
+    }
+
+    public void putChar(final int offset, final char value) {
+        buffer.putChar(HEADER_SIZE + offset, value);
+    }
+
+    public void putInt(final int offset, final int value) {
+        buffer.putInt(HEADER_SIZE + offset, value);
+    }
+
+    public void putLong(final int offset, final long value) {
+        buffer.putLong(HEADER_SIZE + offset, value);
+    }
+
+    public void putFloat(final int offset, final float value) {
+        buffer.putFloat(HEADER_SIZE + offset, value);
+    }
+
+    public void putDouble(final int offset, final double value) {
+        buffer.putDouble(HEADER_SIZE + offset, value);
+    }
+
+    public boolean getBoolean(final int offset) {
+        return buffer.get(HEADER_SIZE + offset) != 0;
+    }
+
+    public byte getByte(final int offset) {
+        return buffer.get(HEADER_SIZE + offset);
+    }
+
+    public short getShort(final int offset) {
+        return buffer.getShort(HEADER_SIZE + offset);
+    }
+
+    public char getChar(final int offset) {
+        return buffer.getChar(HEADER_SIZE + offset);
+    }
+
+    public int getInt(final int offset) {
+        return buffer.getInt(HEADER_SIZE + offset);
+    }
+
+    public long getLong(final int offset) {
+        return buffer.getLong(HEADER_SIZE + offset);
+    }
+
+    public float getFloat(final int offset) {
+        return buffer.getFloat(HEADER_SIZE + offset);
+    }
+
+    public double getDouble(final int offset) {
+        return buffer.getDouble(HEADER_SIZE + offset);
+    }
+
+    /**
+     * Flushes and unmaps the region. The region must not be used afterwards; in particular, no
+     * other thread may be part way through a read or write.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!buffer.isReadOnly()) {
+            buffer.force();
+        }
+        MappedMemory.unmap(buffer);
+    }
+
+    /**
+     * Checks that the region has not been closed. Touching unmapped memory would crash the VM,
+     * so this is checked whenever a read or write begins.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Region has been closed");
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of instances which is private to each thread, used to reuse objects that are
+ * not thread safe.
+ *
+ * <p>
+ * Each thread has its own small map, which evicts its least recently used entry when full. No
+ * synchronisation is needed as no instance is ever visible to more than one thread.
+ *
+ * @param <T> The type of object held in the cache.
+ */
+public class ThreadCache<T> {
+
+    /** The maximum number of entries to retain for each thread. */
+    private final int capacity;
+
+    /** The cache belonging to each thread. */
+    private final ThreadLocal<Cache<T>> caches = new ThreadLocal<Cache<T>>() {
+        @Override
+        protected Cache<T> initialValue() {
+            return new Cache<>(capacity);
+        }
+    };
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity The maximum number of entries to retain for each thread.
+     */
+    public ThreadCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the current thread's instance for the given key.
+     *
+     * @param key The key to look up.
+     * @return The cached instance, or null if the current thread has none.
+     */
+    public T get(final Object key) {
+        return caches.get().get(key);
+    }
+
+    /**
+     * Caches an instance for the current thread.
+     *
+     * @param key The key to store the instance under.
+     * @param value The instance to cache.
+     * @return The given instance, for convenience.
+     */
+    public T put(final Object key, final T value) {
+        caches.get().put(key, value);
+        return value;
+    }
+
+    /**
+     * Discards all instances cached by the current thread.
+     */
+    public void clear() {
+        caches.remove();
+    }
+
+    /**
+     * A bounded map of keys to instances, held in access order.
+     *
+     * @param <T> The type of object held in the cache.
+     */
+    private static class Cache<T> extends LinkedHashMap<Object, T> {
+
+        /** A version number for serializing this class. */
+        private static final long serialVersionUID = 1;
+
+        /** The maximum number of entries to retain. */
+        private final int capacity;
+
+        /**
+         * Creates a new cache.
+         *
+         * @param capacity The maximum number of entries to retain.
+         */
+        Cache(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Object, T> eldest) {
+            return size() > capacity;
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.factory;
+
+import com.dmdirc.util.annotations.Parameter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a dependency holder which will be generated by the {@link FactoryProcessor} for the
+ * factories that share it.
+ */
+class DependencyHolderModel {
+
+    private final String name;
+    private final Map<String, Parameter> parameters = new LinkedHashMap<>();
+    private boolean accessible;
+    private boolean injected;
+
+    /**
+     * Creates a new description of a dependency holder.
+     *
+     * @param name The fully-qualified name of the holder.
+     */
+    DependencyHolderModel(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Parameter> getParameters() {
+        return new ArrayList<>(parameters.values());
+    }
+
+    public boolean isAccessible() {
+        return accessible;
+    }
+
+    public boolean isInjected() {
+        return injected;
+    }
+
+    /**
+     * Gets the parameter held under the given name.
+     *
+     * @param parameterName The name of the parameter.
+     * @return The parameter, with the type the holder declares it as, or {@code null} if there is
+     * no parameter with that name.
+     */
+    public Parameter getParameter(final String parameterName) {
+        return parameters.get(parameterName);
+    }
+
+    /**
+     * Adds a factory which shares this holder.
+     *
+     * @param factoryParameters The bound parameters of the factory, with the types the factory
+     * declares them as.
+     * @param factoryAccessible Whether the factory is public.
+     * @param factoryInjected Whether the factory's constructor is annotated with @Inject.
+     */
+    public void addFactory(final List<Parameter> factoryParameters,
+            final boolean factoryAccessible, final boolean factoryInjected) {
+        for (Parameter parameter : factoryParameters) {
+            parameters.put(parameter.getName(), parameter);
+        }
+        accessible |= factoryAccessible;
+        injected |= factoryInjected;
+    }
+
+    /**
+     * Gets the simple name of the holder.
+     *
+     * @return The holder's simple name.
+     */
+    public String getSimpleName() {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Gets the name of the package containing the holder.
+     *
+     * @return The holder's package name, or an empty string for the default package.
+     */
+    public String getPackageName() {
+        final int index = name.lastIndexOf('.');
+        return index == -1 ? "" : name.substring(0, index);
+    }
+
+}
@@ -46,6 +46,123 @@ public @interface Factory {
      */
     boolean providers() default false;
 
+    /**
+     * Whether or not to resolve each provider only once. If enabled, each provider is called the
+     * first time the factory needs its value, and the result is reused for all later calls.
+     * Individual parameters can instead be marked with {@link Memoized}. Parameters that are
+     * declared as providers in the constructor are always passed through unresolved.
+     *
+     * @return True to memoize all providers; false to resolve them on every call.
+     */
+    boolean memoizeProviders() default false;
+
+    /**
+     * Whether or not to pool instances for reuse. If enabled, the factory gains a
+     * {@code release} method which returns instances to a bounded, lock-free pool, and factory
+     * methods reinitialise pooled instances using the type's {@link Reset} method instead of
+     * constructing new ones. Pooled factories require the runtime library.
+     *
+     * <p>
+     * Taking an instance from the pool and returning it costs more than allocating a small
+     * object, so pooling only pays off for types which are large or expensive to construct.
+     *
+     * @return True to pool instances; false to always construct new ones.
+     */
+    boolean pooled() default false;
+
+    /**
+     * The maximum number of instances to retain in the pool of a pooled factory. Instances
+     * released by any thread can be reused by any other, but a single releasing thread can only
+     * fill up to 16 of the pool's slots, so larger pools only help when several threads release
+     * instances.
+     *
+     * @return The maximum size of the pool.
+     */
+    int poolSize() default 64;
+
+    /**
+     * Whether or not to share instances created with equal unbound arguments. If enabled, factory
+     * methods return a cached canonical instance when one exists for the given arguments, and
+     * cache newly created instances for later calls. This should only be used for immutable
+     * types, and cannot be combined with pooling. Canonicalizing factories require the runtime
+     * library.
+     *
+     * @return True to share canonical instances; false to always construct new ones.
+     */
+    boolean canonical() default false;
+
+    /**
+     * The maximum number of canonical instances to retain in a canonicalizing factory. Least
+     * recently used instances are evicted first, and instances may also be reclaimed by the
+     * garbage collector when memory is short.
+     *
+     * @return The maximum size of the cache.
+     */
+    int cacheSize() default 256;
+
+    /**
+     * Whether or not to reuse instances within each thread. If enabled, factory methods return
+     * the instance previously created by the calling thread for equal unbound arguments, if there
+     * is one, so types which are cheap to reuse but not thread safe need not be recreated. This
+     * cannot be combined with pooling or canonicalization. Thread-scoped factories require the
+     * runtime library.
+     *
+     * @return True to reuse instances within each thread; false to always construct new ones.
+     */
+    boolean threadScoped() default false;
+
+    /**
+     * The maximum number of instances each thread retains in a thread-scoped factory. Least
+     * recently used instances are evicted first.
+     *
+     * @return The maximum number of instances per thread.
+     */
+    int threadCacheSize() default 8;
+
+    /**
+     * Whether or not to generate batch methods. If enabled, each factory method has a
+     * {@code getXxxBatch} counterpart which takes an array of values for each unbound parameter
+     * and returns a list of instances, resolving bound dependencies once for the whole batch.
+     * Factories without unbound parameters take the number of instances to create instead.
+     * Pooled, canonical and thread-scoped factories create each element through the normal
+     * factory method.
+     *
+     * @return True to generate batch methods; false otherwise.
+     */
+    boolean batch() default false;
+
+    /**
+     * Whether or not to generate asynchronous factory methods. If enabled, each factory method
+     * has a {@code getXxxAsync} counterpart which takes an {@link java.util.concurrent.Executor}
+     * and returns a {@link java.util.concurrent.Future} that completes once the instance has been
+     * created on that executor. Any exception thrown while creating the instance is reported by
+     * the future as the cause of an {@link java.util.concurrent.ExecutionException}.
+     *
+     * @return True to generate asynchronous methods; false otherwise.
+     */
+    boolean async() default false;
+
+    /**
+     * Whether or not to record creation metrics. If enabled, factory methods record the number of
+     * instances created and the time spent creating them, which can be read or registered with
+     * JMX through the factory's static {@code getMetrics} method. Nothing is generated for this
+     * when disabled. Factories with metrics require the runtime library.
+     *
+     * @return True to record metrics; false otherwise.
+     */
+    boolean metrics() default false;
+
+    /**
+     * The simple name of a dependency holder to share with other factories. If specified, a
+     * holder class with this name is generated in the factory's package, with one field for each
+     * bound parameter of every factory naming it, and the factory takes the holder in its
+     * constructor instead of its own copy of each dependency. Factories sharing a holder must
+     * declare bound parameters with the same name as the same type.
+     *
+     * @return The name of the dependency holder, or an empty string to bind fields directly.
+     */
+    String dependencies() default "";
+
     /**
      * Whether or not to specify the generated class as a singleton.
      *
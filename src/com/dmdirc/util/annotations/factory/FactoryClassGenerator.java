@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.factory;
+
+import com.dmdirc.util.annotations.util.ClassFileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates simple factories directly as class files, for the {@link FactoryProcessor}. Only
+ * factories which bind fields and construct new instances are supported; {@link #generate}
+ * returns {@code null} for any other factory, which should then be generated as source instead.
+ */
+class FactoryClassGenerator {
+
+    /** The internal name of the provider interface. */
+    private static final String PROVIDER = "javax/inject/Provider";
+
+    /** The modifiers which may be applied to bytecode factories. */
+    private static final Set<Modifier> CLASS_MODIFIERS = EnumSet.of(Modifier.PUBLIC,
+            Modifier.FINAL);
+
+    /** The modifiers which may be applied to the methods of bytecode factories. */
+    private static final Set<Modifier> METHOD_MODIFIERS = EnumSet.of(Modifier.PUBLIC,
+            Modifier.PROTECTED, Modifier.PRIVATE, Modifier.FINAL, Modifier.SYNCHRONIZED);
+
+    private final Elements elements;
+    private final Types types;
+
+    /**
+     * Creates a new factory class generator.
+     *
+     * @param elements The element utilities of the processing environment.
+     * @param types The type utilities of the processing environment.
+     */
+    FactoryClassGenerator(final Elements elements, final Types types) {
+        this.elements = elements;
+        this.types = types;
+    }
+
+    /**
+     * Generates the class file of a factory, if the factory can be generated as bytecode.
+     *
+     * @param type The type being built by the factory.
+     * @param annotation The annotation configuring the factory.
+     * @param factoryName The fully-qualified name of the factory.
+     * @return The contents of the class file, or {@code null} if the factory must be generated as
+     * source.
+     * @throws IOException If the class file couldn't be written.
+     */
+    public byte[] generate(final TypeElement type, final Factory annotation,
+            final String factoryName) throws IOException {
+        if (!isSupported(type, annotation)) {
+            return null;
+        }
+
+        final List<ExecutableElement> constructors = new ArrayList<>();
+        final Map<String, VariableElement> bound = new LinkedHashMap<>();
+        for (Element child : type.getEnclosedElements()) {
+            if (child.getKind() != ElementKind.CONSTRUCTOR) {
+                continue;
+            }
+            final ExecutableElement constructor = (ExecutableElement) child;
+            if (constructor.getModifiers().contains(Modifier.PRIVATE)
+                    || !constructor.getTypeParameters().isEmpty()) {
+                return null;
+            }
+            for (VariableElement parameter : constructor.getParameters()) {
+                if (hasAnnotations(parameter)) {
+                    return null;
+                }
+                if (parameter.getAnnotation(Unbound.class) == null
+                        && !bound.containsKey(getKey(parameter))) {
+                    bound.put(getKey(parameter), parameter);
+                }
+            }
+            constructors.add(constructor);
+        }
+
+        final String owner = factoryName.replace('.', '/');
+        final String typeName = getInternalName(type);
+        final ClassFileWriter writer = new ClassFileWriter(getAccess(annotation.modifiers()),
+                owner, "java/lang/Object");
+        if (annotation.singleton()) {
+            writer.addAnnotation("Ljavax/inject/Singleton;");
+        }
+
+        // Fields and the constructor which assigns them
+        final StringBuilder descriptor = new StringBuilder("(");
+        final StringBuilder signature = new StringBuilder("(");
+        for (VariableElement parameter : bound.values()) {
+            final String fieldDescriptor = getFieldDescriptor(annotation, parameter);
+            final String fieldSignature = getFieldSignature(annotation, parameter);
+            if (fieldDescriptor == null || fieldSignature == null) {
+                return null;
+            }
+            writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL,
+                    parameter.getSimpleName().toString(), fieldDescriptor,
+                    fieldDescriptor.equals(fieldSignature) ? null : fieldSignature);
+            descriptor.append(fieldDescriptor);
+            signature.append(fieldSignature);
+        }
+        descriptor.append(")V");
+        signature.append(")V");
+
+        final ClassFileWriter.MethodWriter constructor = writer.addMethod(
+                ClassFileWriter.ACC_PUBLIC, "<init>", descriptor.toString(),
+                getSignature(descriptor, signature), Collections.<String>emptyList());
+        if (annotation.inject()) {
+            constructor.addAnnotation("Ljavax/inject/Inject;");
+        }
+        constructor.load(0, "L" + owner + ";")
+                .invokeSpecial("java/lang/Object", "<init>", "()V");
+        int slot = 1;
+        for (VariableElement parameter : bound.values()) {
+            final String fieldDescriptor = getFieldDescriptor(annotation, parameter);
+            constructor.load(0, "L" + owner + ";")
+                    .load(slot, fieldDescriptor)
+                    .putField(owner, parameter.getSimpleName().toString(), fieldDescriptor);
+            slot += ClassFileWriter.getSize(fieldDescriptor);
+        }
+        constructor.returnVoid().end();
+
+        // One factory method for each constructor
+        final Set<String> methodDescriptors = new HashSet<>();
+        final int methodAccess = getAccess(annotation.methodModifiers());
+        for (ExecutableElement target : constructors) {
+            final StringBuilder methodDescriptor = new StringBuilder("(");
+            final StringBuilder methodSignature = new StringBuilder("(");
+            final StringBuilder targetDescriptor = new StringBuilder("(");
+            for (VariableElement parameter : target.getParameters()) {
+                final String parameterDescriptor = getDescriptor(parameter.asType());
+                final String parameterSignature = getSignature(parameter.asType());
+                if (parameterDescriptor == null || parameterSignature == null) {
+                    return null;
+                }
+                targetDescriptor.append(parameterDescriptor);
+                if (!bound.containsKey(getKey(parameter))) {
+                    methodDescriptor.append(parameterDescriptor);
+                    methodSignature.append(parameterSignature);
+                }
+            }
+            methodDescriptor.append(")L").append(typeName).append(';');
+            methodSignature.append(")L").append(typeName).append(';');
+            targetDescriptor.append(")V");
+            if (!methodDescriptors.add(methodDescriptor.toString())) {
+                return null;
+            }
+
+            final List<String> exceptions = new ArrayList<>();
+            for (TypeMirror thrown : target.getThrownTypes()) {
+                if (thrown.getKind() != TypeKind.DECLARED) {
+                    return null;
+                }
+                exceptions.add(getInternalName((TypeElement) ((DeclaredType) thrown).asElement()));
+            }
+
+            final ClassFileWriter.MethodWriter method = writer.addMethod(methodAccess,
+                    "get" + type.getSimpleName(), methodDescriptor.toString(),
+                    getSignature(methodDescriptor, methodSignature), exceptions);
+            method.newInstance(typeName);
+            slot = 1;
+            for (VariableElement parameter : target.getParameters()) {
+                final VariableElement field = bound.get(getKey(parameter));
+                if (field == null) {
+                    final String parameterDescriptor = getDescriptor(parameter.asType());
+                    method.load(slot, parameterDescriptor);
+                    slot += ClassFileWriter.getSize(parameterDescriptor);
+                } else {
+                    method.load(0, "L" + owner + ";")
+                            .getField(owner, field.getSimpleName().toString(),
+                                    getFieldDescriptor(annotation, field));
+                    if (isWrappedProvider(annotation, field)) {
+                        final String fieldType = getDescriptor(field.asType());
+                        method.invokeInterface(PROVIDER, "get", "()Ljava/lang/Object;")
+                                .checkCast(fieldType.charAt(0) == '['
+                                        ? fieldType
+                                        : fieldType.substring(1, fieldType.length() - 1));
+                    }
+                }
+            }
+            method.invokeSpecial(typeName, "<init>", targetDescriptor.toString())
+                    .returnReference()
+                    .end();
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Determines whether the configuration of a factory and its type allow it to be generated as
+     * bytecode. This does not check the constructors of the type.
+     *
+     * @param type The type being built by the factory.
+     * @param annotation The annotation configuring the factory.
+     * @return True if the factory may be generated as bytecode, false otherwise.
+     */
+    private boolean isSupported(final TypeElement type, final Factory annotation) {
+        return !annotation.pooled()
+                && !annotation.canonical()
+                && !annotation.threadScoped()
+                && !annotation.batch()
+                && !annotation.async()
+                && !annotation.metrics()
+                && !annotation.memoizeProviders()
+                && annotation.dependencies().isEmpty()
+                && type.getTypeParameters().isEmpty()
+                && !type.getModifiers().contains(Modifier.ABSTRACT)
+                && CLASS_MODIFIERS.containsAll(Arrays.asList(annotation.modifiers()))
+                && METHOD_MODIFIERS.containsAll(Arrays.asList(annotation.methodModifiers()));
+    }
+
+    /**
+     * Determines whether a parameter has annotations which would need to be copied to the
+     * factory, or which change how the factory treats it.
+     *
+     * @param parameter The parameter to check.
+     * @return True if the parameter has annotations other than {@link Unbound}.
+     */
+    private boolean hasAnnotations(final VariableElement parameter) {
+        for (AnnotationMirror mirror : parameter.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().toString()
+                    .equals("com.dmdirc.util.annotations.factory.Unbound")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the key used to match bound parameters between constructors, which mirrors the
+     * equality of {@link com.dmdirc.util.annotations.Parameter}s.
+     *
+     * @param parameter The parameter to get a key for.
+     * @return The key for the parameter.
+     */
+    private String getKey(final VariableElement parameter) {
+        return parameter.asType() + " " + parameter.getSimpleName();
+    }
+
+    /**
+     * Determines whether the given bound parameter will be wrapped in a provider by the factory.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The parameter to check.
+     * @return True if the factory will hold a provider for the parameter, false otherwise.
+     */
+    private boolean isWrappedProvider(final Factory annotation, final VariableElement parameter) {
+        return annotation.providers()
+                && !parameter.asType().toString().startsWith("javax.inject.Provider");
+    }
+
+    /**
+     * Gets the descriptor of the field holding a bound parameter.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The bound parameter.
+     * @return The descriptor of the field, or {@code null} if it is not supported.
+     */
+    private String getFieldDescriptor(final Factory annotation, final VariableElement parameter) {
+        return isWrappedProvider(annotation, parameter)
+                ? "L" + PROVIDER + ";" : getDescriptor(parameter.asType());
+    }
+
+    /**
+     * Gets the generic signature of the field holding a bound parameter.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The bound parameter.
+     * @return The signature of the field, or {@code null} if it is not supported.
+     */
+    private String getFieldSignature(final Factory annotation, final VariableElement parameter) {
+        final String signature = getSignature(parameter.asType());
+        if (!isWrappedProvider(annotation, parameter)) {
+            return signature;
+        } else if (signature == null || parameter.asType().getKind().isPrimitive()) {
+            return null;
+        } else {
+            return "L" + PROVIDER + "<" + signature + ">;";
+        }
+    }
+
+    /**
+     * Gets the signature to record for a method, which is only needed if it differs from the
+     * method's descriptor.
+     *
+     * @param descriptor The descriptor of the method.
+     * @param signature The generic signature of the method.
+     * @return The signature, or {@code null} if it is not needed.
+     */
+    private String getSignature(final CharSequence descriptor, final CharSequence signature) {
+        return descriptor.toString().equals(signature.toString()) ? null : signature.toString();
+    }
+
+    /**
+     * Gets the descriptor of the erasure of a type.
+     *
+     * @param type The type to describe.
+     * @return The descriptor of the type, or {@code null} if it is not supported.
+     */
+    private String getDescriptor(final TypeMirror type) {
+        final TypeMirror erasure = types.erasure(type);
+        if (erasure.getKind() == TypeKind.ARRAY) {
+            final String component = getDescriptor(((ArrayType) erasure).getComponentType());
+            return component == null ? null : "[" + component;
+        } else if (erasure.getKind() == TypeKind.DECLARED) {
+            return "L" + getInternalName((TypeElement) ((DeclaredType) erasure).asElement()) + ";";
+        } else {
+            return getPrimitiveDescriptor(erasure.getKind());
+        }
+    }
+
+    /**
+     * Gets the generic signature of a type.
+     *
+     * @param type The type to describe.
+     * @return The signature of the type, or {@code null} if it is not supported.
+     */
+    private String getSignature(final TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                final String component = getSignature(((ArrayType) type).getComponentType());
+                return component == null ? null : "[" + component;
+            case DECLARED:
+                final DeclaredType declared = (DeclaredType) type;
+                if (declared.getEnclosingType().getKind() != TypeKind.NONE) {
+                    // Members of parameterized types would need their owner's arguments too
+                    return null;
+                }
+                final StringBuilder builder = new StringBuilder("L")
+                        .append(getInternalName((TypeElement) declared.asElement()));
+                if (!declared.getTypeArguments().isEmpty()) {
+                    builder.append('<');
+                    for (TypeMirror argument : declared.getTypeArguments()) {
+                        final String signature = getSignature(argument);
+                        if (signature == null) {
+                            return null;
+                        }
+                        builder.append(signature);
+                    }
+                    builder.append('>');
+                }
+                return builder.append(';').toString();
+            case WILDCARD:
+                final WildcardType wildcard = (WildcardType) type;
+                if (wildcard.getExtendsBound() != null) {
+                    final String bound = getSignature(wildcard.getExtendsBound());
+                    return bound == null ? null : "+" + bound;
+                } else if (wildcard.getSuperBound() != null) {
+                    final String bound = getSignature(wildcard.getSuperBound());
+                    return bound == null ? null : "-" + bound;
+                } else {
+                    return "*";
+                }
+            default:
+                return getPrimitiveDescriptor(type.getKind());
+        }
+    }
+
+    /**
+     * Gets the descriptor of a primitive type.
+     *
+     * @param kind The kind of the type.
+     * @return The descriptor of the type, or {@code null} if it is not a primitive type.
+     */
+    private String getPrimitiveDescriptor(final TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return "Z";
+            case BYTE:
+                return "B";
+            case CHAR:
+                return "C";
+            case SHORT:
+                return "S";
+            case INT:
+                return "I";
+            case LONG:
+                return "J";
+            case FLOAT:
+                return "F";
+            case DOUBLE:
+                return "D";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the internal name of a type, as used in class files.
+     *
+     * @param type The type to be named.
+     * @return The internal name of the type.
+     */
+    private String getInternalName(final TypeElement type) {
+        return elements.getBinaryName(type).toString().replace('.', '/');
+    }
+
+    /**
+     * Gets the access flags corresponding to the given modifiers.
+     *
+     * @param modifiers The modifiers to convert.
+     * @return The equivalent access flags.
+     */
+    private int getAccess(final Modifier... modifiers) {
+        int access = 0;
+        for (Modifier modifier : modifiers) {
+            switch (modifier) {
+                case PUBLIC:
+                    access |= ClassFileWriter.ACC_PUBLIC;
+                    break;
+                case PROTECTED:
+                    access |= ClassFileWriter.ACC_PROTECTED;
+                    break;
+                case PRIVATE:
+                    access |= ClassFileWriter.ACC_PRIVATE;
+                    break;
+                case FINAL:
+                    access |= ClassFileWriter.ACC_FINAL;
+                    break;
+                case SYNCHRONIZED:
+                    access |= ClassFileWriter.ACC_SYNCHRONIZED;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return access;
+    }
+
+}
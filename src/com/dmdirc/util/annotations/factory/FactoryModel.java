@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2006-2015 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.util.annotations.factory;
+
+import com.dmdirc.util.annotations.Parameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Describes a factory which has been generated by the {@link FactoryProcessor}.
+ *
+ * <p>
+ * Models can be encoded as a single line of text, so that models of factories generated by
+ * earlier compilations can be read back when only some of the annotated types are recompiled.
+ */
+class FactoryModel {
+
+    private final String typeName;
+    private final String factoryName;
+    private final List<Parameter> parameters;
+    private final boolean accessible;
+    private final boolean defaultConstructible;
+    private final String holderName;
+    private final List<Parameter> holderParameters;
+    private final boolean injected;
+
+    /**
+     * Creates a new description of a generated factory.
+     *
+     * @param typeName The fully-qualified name of the type built by the factory.
+     * @param factoryName The fully-qualified name of the factory.
+     * @param parameters The parameters of the factory's constructor, with the types the factory
+     * declares them as.
+     * @param accessible Whether both the type and the factory are public.
+     * @param defaultConstructible Whether the factory has a method without any parameters.
+     * @param holderName The fully-qualified name of the factory's dependency holder, or
+     * {@code null} if it doesn't use one.
+     * @param holderParameters The bound parameters the factory reads from its dependency holder,
+     * with the types the factory declares them as.
+     * @param injected Whether the factory's constructor is annotated with @Inject.
+     */
+    FactoryModel(final String typeName, final String factoryName,
+            final List<Parameter> parameters, final boolean accessible,
+            final boolean defaultConstructible, final String holderName,
+            final List<Parameter> holderParameters, final boolean injected) {
+        this.typeName = typeName;
+        this.factoryName = factoryName;
+        this.parameters = parameters;
+        this.accessible = accessible;
+        this.defaultConstructible = defaultConstructible;
+        this.holderName = holderName;
+        this.holderParameters = holderParameters;
+        this.injected = injected;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public String getFactoryName() {
+        return factoryName;
+    }
+
+    public List<Parameter> getParameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    public boolean isAccessible() {
+        return accessible;
+    }
+
+    public boolean isDefaultConstructible() {
+        return defaultConstructible;
+    }
+
+    public String getHolderName() {
+        return holderName;
+    }
+
+    public List<Parameter> getHolderParameters() {
+        return Collections.unmodifiableList(holderParameters);
+    }
+
+    public boolean isInjected() {
+        return injected;
+    }
+
+    /**
+     * Gets the simple name of the type built by the factory.
+     *
+     * @return The type's simple name.
+     */
+    public String getSimpleTypeName() {
+        return typeName.substring(typeName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Gets the simple name of the factory.
+     *
+     * @return The factory's simple name.
+     */
+    public String getSimpleFactoryName() {
+        return factoryName.substring(factoryName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Gets the name of the package containing the factory.
+     *
+     * @return The factory's package name, or an empty string for the default package.
+     */
+    public String getPackageName() {
+        final int index = factoryName.lastIndexOf('.');
+        return index == -1 ? "" : factoryName.substring(0, index);
+    }
+
+    /**
+     * Encodes this model as a single line of tab-separated fields.
+     *
+     * @return The encoded model, without a line terminator.
+     */
+    public String toIndexLine() {
+        final List<String> fields = new ArrayList<>(Arrays.asList(typeName, factoryName,
+                String.valueOf(accessible), String.valueOf(defaultConstructible),
+                holderName == null ? "" : holderName, String.valueOf(injected)));
+        addParameterFields(fields, parameters);
+        addParameterFields(fields, holderParameters);
+
+        final StringBuilder builder = new StringBuilder();
+        for (String field : fields) {
+            if (builder.length() > 0) {
+                builder.append('\t');
+            }
+            builder.append(field.replace("\\", "\\\\").replace("\t", "\\t")
+                    .replace("\n", "\\n").replace("\r", "\\r"));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes a model from a line created by {@link #toIndexLine()}.
+     *
+     * @param line The encoded model.
+     * @return The decoded model.
+     * @throws IllegalArgumentException If the line is not a valid encoded model.
+     */
+    public static FactoryModel fromIndexLine(final String line) {
+        final List<String> fields = new ArrayList<>();
+        for (String field : line.split("\t", -1)) {
+            fields.add(unescape(field));
+        }
+        try {
+            final Iterator<String> iterator = fields.iterator();
+            final String typeName = iterator.next();
+            final String factoryName = iterator.next();
+            final boolean accessible = Boolean.parseBoolean(iterator.next());
+            final boolean defaultConstructible = Boolean.parseBoolean(iterator.next());
+            final String holderName = iterator.next();
+            final boolean injected = Boolean.parseBoolean(iterator.next());
+            final List<Parameter> parameters = readParameterFields(iterator);
+            final List<Parameter> holderParameters = readParameterFields(iterator);
+            if (iterator.hasNext()) {
+                throw new IllegalArgumentException("Unexpected fields in factory model: " + line);
+            }
+            return new FactoryModel(typeName, factoryName, parameters, accessible,
+                    defaultConstructible, holderName.isEmpty() ? null : holderName,
+                    holderParameters, injected);
+        } catch (NoSuchElementException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid factory model: " + line, ex);
+        }
+    }
+
+    private static void addParameterFields(final List<String> fields,
+            final List<Parameter> parameters) {
+        fields.add(String.valueOf(parameters.size()));
+        for (Parameter parameter : parameters) {
+            fields.add(parameter.getType());
+            fields.add(parameter.getName());
+            fields.add(parameter.getAnnotations());
+        }
+    }
+
+    private static List<Parameter> readParameterFields(final Iterator<String> fields) {
+        final int count = Integer.parseInt(fields.next());
+        final List<Parameter> parameters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            parameters.add(new Parameter(fields.next(), fields.next(), fields.next()));
+        }
+        return parameters;
+    }
+
+    private static String unescape(final String field) {
+        final StringBuilder builder = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                builder.append(c);
+                continue;
+            }
+            final char next = field.charAt(++i);
+            switch (next) {
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                default:
+                    builder.append(next);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+}
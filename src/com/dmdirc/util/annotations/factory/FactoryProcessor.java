@@ -22,18 +22,36 @@
 package com.dmdirc.util.annotations.factory;
 
 import com.dmdirc.util.annotations.Constructor;
+import com.dmdirc.util.annotations.Method;
 import com.dmdirc.util.annotations.Parameter;
+import com.dmdirc.util.annotations.util.GenerationCache;
+import com.dmdirc.util.annotations.util.LineEnding;
+import com.dmdirc.util.annotations.util.NativeImageMetadata;
+import com.dmdirc.util.annotations.util.ProcessorStats;
+import com.dmdirc.util.annotations.util.SourceFileBatch;
 import com.dmdirc.util.annotations.util.SourceFileWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
@@ -47,16 +65,67 @@ import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
 
 /**
  * Processor for the {@link Factory} annotation.
  */
 @SupportedAnnotationTypes({
     "com.dmdirc.util.annotations.factory.Factory",
+    "com.dmdirc.util.annotations.factory.Memoized",
+    "com.dmdirc.util.annotations.factory.Reset",
     "com.dmdirc.util.annotations.factory.Unbound",})
+@SupportedOptions({
+    FactoryProcessor.REGISTRY_OPTION,
+    FactoryProcessor.COMPONENT_OPTION,
+    FactoryProcessor.BYTECODE_OPTION,
+    NativeImageMetadata.OPTION,
+    GenerationCache.OPTION,
+    LineEnding.OPTION,
+    ProcessorStats.OPTION,
+    ProcessorStats.REPORT_OPTION,})
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 public class FactoryProcessor extends AbstractProcessor {
 
+    /** Option giving the fully-qualified name of a factory registry class to generate. */
+    public static final String REGISTRY_OPTION = "com.dmdirc.annotations.factoryRegistry";
+
+    /** Option giving the fully-qualified name of a component class to generate. */
+    public static final String COMPONENT_OPTION = "com.dmdirc.annotations.factoryComponent";
+
+    /**
+     * Option which, if set to {@code true}, writes simple factories directly as class files
+     * instead of as source files.
+     */
+    public static final String BYTECODE_OPTION = "com.dmdirc.annotations.factoryBytecode";
+
+    /** The resource listing the factories included in the registry. */
+    public static final String REGISTRY_INDEX = "META-INF/dmdirc/factories";
+
+    /**
+     * The resource describing every factory generated into the class output, which is read back
+     * so that incremental compilations can regenerate the holders, registry and component.
+     */
+    private static final String MODEL_INDEX = "META-INF/dmdirc/factory-models";
+
+    /** The runtime class used to pool instances. */
+    private static final String OBJECT_POOL = "com.dmdirc.util.annotations.runtime.ObjectPool";
+
+    /** The runtime class used to record creation metrics. */
+    private static final String FACTORY_METRICS
+            = "com.dmdirc.util.annotations.runtime.FactoryMetrics";
+
+    /** The runtime class used to hold thread-scoped instances. */
+    private static final String THREAD_CACHE = "com.dmdirc.util.annotations.runtime.ThreadCache";
+
+    /** The runtime class used to hold canonical instances. */
+    private static final String CANONICAL_CACHE
+            = "com.dmdirc.util.annotations.runtime.CanonicalCache";
+
+    /** The name of the field and parameter used by factories to refer to a dependency holder. */
+    private static final String HOLDER_FIELD = "dependencies";
+
     /**
      * The fully-qualified names of any elements which are annotated with @Factory but haven't yet
      * been processed. These may persist across several rounds of generation depending on their
@@ -64,16 +133,94 @@ public class FactoryProcessor extends AbstractProcessor {
      */
     private final List<String> pendingElementNames = new LinkedList<>();
 
+    /** Factories generated so far, to be included in the holders, registry and component. */
+    private final List<FactoryModel> generatedFactories = new ArrayList<>();
+
+    /** The fully-qualified names of all types processed by this compilation. */
+    private final Set<String> processedTypes = new HashSet<>();
+
+    /** The fully-qualified name of the registry to generate, or {@code null} if disabled. */
+    private String registryName;
+
+    /** The fully-qualified name of the component to generate, or {@code null} if disabled. */
+    private String componentName;
+
+    /** Dependency holders to be generated, keyed on their fully-qualified names. */
+    private final Map<String, DependencyHolderModel> dependencyHolders = new LinkedHashMap<>();
+
+    /** Whether or not the registry, component and dependency holders have been written. */
+    private boolean summariesWritten;
+
+    /** Native-image metadata for the generated types, or {@code null} if disabled. */
+    private NativeImageMetadata nativeImageMetadata;
+
+    /** Cache of the signatures of types whose factories were generated, or {@code null}. */
+    private GenerationCache generationCache;
+
+    /** The line ending to use in generated sources. */
+    private LineEnding lineEnding;
+
+    /** Generator used to write simple factories as class files, or {@code null} if disabled. */
+    private FactoryClassGenerator classGenerator;
+
+    /** Statistics about the work done by this processor, or {@code null} if disabled. */
+    private ProcessorStats stats;
+
+    @Override
+    public synchronized void init(final ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        registryName = processingEnv.getOptions().get(REGISTRY_OPTION);
+        componentName = processingEnv.getOptions().get(COMPONENT_OPTION);
+        if (Boolean.parseBoolean(processingEnv.getOptions().get(BYTECODE_OPTION))) {
+            classGenerator = new FactoryClassGenerator(processingEnv.getElementUtils(),
+                    processingEnv.getTypeUtils());
+        }
+        final String lineEndingOption = processingEnv.getOptions().get(LineEnding.OPTION);
+        lineEnding = LineEnding.fromOption(lineEndingOption);
+        if (lineEnding == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unknown line ending: " + lineEndingOption);
+            lineEnding = LineEnding.CRLF;
+        }
+        final String nativeImage = processingEnv.getOptions().get(NativeImageMetadata.OPTION);
+        if (nativeImage != null) {
+            nativeImageMetadata = new NativeImageMetadata(nativeImage, "factory");
+        }
+        final String cacheDirectory = processingEnv.getOptions().get(GenerationCache.OPTION);
+        if (cacheDirectory != null) {
+            try {
+                generationCache = new GenerationCache(cacheDirectory, getClass(),
+                        processingEnv.getOptions());
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Unable to read generation cache: " + ex.getMessage());
+            }
+        }
+        if (Boolean.parseBoolean(processingEnv.getOptions().get(ProcessorStats.OPTION))) {
+            stats = new ProcessorStats(getClass(), Boolean.parseBoolean(
+                    processingEnv.getOptions().get(ProcessorStats.REPORT_OPTION)));
+        }
+    }
+
     @Override
     public boolean process(final Set<? extends TypeElement> set, final RoundEnvironment roundEnv) {
+        if (stats != null) {
+            stats.startRound();
+        }
         pendingElementNames.addAll(getFactoryClassNames(roundEnv));
+        final SourceFileBatch sources = new SourceFileBatch(processingEnv.getFiler(),
+                processingEnv.getMessager(), lineEnding, stats);
         final Iterator<String> iterator = pendingElementNames.iterator();
+        if (stats != null) {
+            stats.addScanned(pendingElementNames.size());
+        }
         while (iterator.hasNext()) {
             // Because we're possibly caching these names across rounds we need to look up each
             // element from the environment instead of caching.
             final String name = iterator.next();
             final Element type = processingEnv.getElementUtils().getTypeElement(name);
-            Factory annotation = type.getAnnotation(Factory.class);
+            final Factory annotation = type.getAnnotation(Factory.class);
+            processedTypes.add(name);
 
             if (annotation == null) {
                 continue;
@@ -94,10 +241,15 @@ public class FactoryProcessor extends AbstractProcessor {
             }
 
             final PackageElement packageElement = (PackageElement) enclosingElement;
+            final long start = stats == null ? 0 : stats.startType();
 
             final List<Parameter> boundParameters = new ArrayList<>();
             final List<Constructor> constructors = new ArrayList<>();
+            final List<ExecutableElement> constructorElements = new ArrayList<>();
+            final Set<Parameter> memoized = new HashSet<>();
+            final List<Method> resetMethods = new ArrayList<>();
             boolean errorFree = true;
+            boolean valid = true;
 
             for (Element child : type.getEnclosedElements()) {
                 if (child.getKind() == ElementKind.CONSTRUCTOR) {
@@ -121,185 +273,1311 @@ public class FactoryProcessor extends AbstractProcessor {
                             if (!boundParameters.contains(param)) {
                                 boundParameters.add(param);
                             }
+
+                            if (isWrappedProvider(annotation, param)
+                                    && (annotation.memoizeProviders()
+                                    || element.getAnnotation(Memoized.class) != null)) {
+                                memoized.add(param);
+                            }
+                        }
+
+                        if (element.getAnnotation(Memoized.class) != null
+                                && !isWrappedProvider(annotation, param)) {
+                            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                    "Memoized only applies to bound parameters that the factory "
+                                    + "wraps in providers", element);
                         }
 
                         params.add(param);
                     }
 
                     constructors.add(new Constructor(params, getTypeNames(ctor.getThrownTypes())));
+                    constructorElements.add(ctor);
+                } else if (child.getKind() == ElementKind.METHOD
+                        && child.getAnnotation(Reset.class) != null) {
+                    final ExecutableElement method = (ExecutableElement) child;
+                    if (method.getModifiers().contains(Modifier.STATIC)
+                            || method.getModifiers().contains(Modifier.PRIVATE)) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                "Reset methods must not be static or private", method);
+                        valid = false;
+                        continue;
+                    }
+
+                    final List<Parameter> params = new ArrayList<>();
+                    for (VariableElement element : method.getParameters()) {
+                        params.add(new Parameter(element.asType().toString(),
+                                element.getSimpleName().toString()));
+                    }
+                    resetMethods.add(new Method(method.getSimpleName().toString(),
+                            method.getReturnType().toString(), params,
+                            getTypeNames(method.getThrownTypes())));
+                }
+            }
+
+            if (annotation.pooled() && annotation.canonical()) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Factories cannot be both pooled and canonical", type);
+                valid = false;
+            }
+
+            if (annotation.threadScoped() && (annotation.pooled() || annotation.canonical())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Thread-scoped factories cannot be pooled or canonical", type);
+                valid = false;
+            }
+
+            if (annotation.pooled() && resetMethods.isEmpty()) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Pooled factories require a method annotated with @Reset", type);
+                valid = false;
+            } else if (annotation.pooled()) {
+                for (int i = 0; i < constructors.size(); i++) {
+                    final List<Parameter> unbound
+                            = new ArrayList<>(constructors.get(i).getParameters());
+                    unbound.removeAll(boundParameters);
+                    if (getResetMethod(resetMethods, unbound) == null) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                "No @Reset method takes this constructor's unbound parameters, "
+                                + "so instances it creates won't be pooled",
+                                constructorElements.get(i));
+                    }
                 }
             }
 
-            if (errorFree) {
-                writeFactory(
-                        packageElement.getQualifiedName().toString(),
-                        annotation.name().isEmpty()
+            if (!annotation.dependencies().isEmpty()) {
+                valid &= checkDependencyHolder(
+                        getHolderName(packageElement.getQualifiedName().toString(), annotation),
+                        annotation, boundParameters, typeElement);
+            }
+
+            if (!valid) {
+                iterator.remove();
+            } else if (errorFree) {
+                final String packageName = packageElement.getQualifiedName().toString();
+                final String factoryName = annotation.name().isEmpty()
                         ? typeElement.getSimpleName() + "Factory"
-                        : annotation.name(),
-                        typeElement.getSimpleName().toString(),
-                        annotation,
-                        boundParameters,
-                        constructors,
-                        type);
+                        : annotation.name();
+                final String typeName = typeElement.getSimpleName().toString();
+                final String qualifiedFactoryName = packageName
+                        + (packageName.isEmpty() ? "" : ".") + factoryName;
+                if ((generationCache == null || !generationCache.isCurrent(
+                        processingEnv.getFiler(), type, qualifiedFactoryName))
+                        && !writeFactoryClass(typeElement, annotation, qualifiedFactoryName)) {
+                    sources.add(qualifiedFactoryName, "factory", new SourceFileBatch.Source() {
+                        @Override
+                        public void render(final SourceFileWriter writer) throws IOException {
+                            writeFactory(
+                                    writer,
+                                    packageName,
+                                    factoryName,
+                                    typeName,
+                                    annotation,
+                                    boundParameters,
+                                    constructors,
+                                    memoized,
+                                    resetMethods);
+                        }
+                    }, type);
+                }
+                addFactoryModel(typeElement, packageName, factoryName, annotation,
+                        boundParameters, constructors);
+                if (nativeImageMetadata != null) {
+                    nativeImageMetadata.addType(qualifiedFactoryName);
+                }
                 iterator.remove();
             }
+
+            if (stats != null) {
+                stats.endType(name, start);
+            }
+        }
+        if (stats != null) {
+            stats.addDeferred(pendingElementNames.size());
+        }
+        sources.write();
+
+        if (!summariesWritten && !roundEnv.processingOver() && pendingElementNames.isEmpty()
+                && (!generatedFactories.isEmpty() || !dependencyHolders.isEmpty())
+                && roundEnv.getElementsAnnotatedWith(Factory.class).isEmpty()) {
+            // No factories were generated this round, so everything the holders, registry and
+            // component need to know about is now available.
+            mergeModelIndex();
+            for (DependencyHolderModel holder : dependencyHolders.values()) {
+                checkDependencyHolderMembers(holder);
+                writeDependencyHolder(holder);
+                if (nativeImageMetadata != null) {
+                    nativeImageMetadata.addType(holder.getName());
+                }
+            }
+            Collections.sort(generatedFactories, new Comparator<FactoryModel>() {
+                @Override
+                public int compare(final FactoryModel first, final FactoryModel second) {
+                    return first.getTypeName().compareTo(second.getTypeName());
+                }
+            });
+            if (registryName != null && !generatedFactories.isEmpty()) {
+                final List<FactoryModel> factories = getRegistryFactories(registryName);
+                writeRegistry(registryName, factories);
+                writeRegistryIndex(registryName, factories);
+                if (nativeImageMetadata != null) {
+                    nativeImageMetadata.addResource(REGISTRY_INDEX);
+                }
+            }
+            if (componentName != null && !generatedFactories.isEmpty()) {
+                writeComponent(componentName);
+                if (nativeImageMetadata != null) {
+                    nativeImageMetadata.addType(componentName);
+                }
+            }
+            writeModelIndex();
+            summariesWritten = true;
+        }
+
+        if (roundEnv.processingOver() && nativeImageMetadata != null) {
+            try {
+                nativeImageMetadata.write(processingEnv.getFiler());
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to write native-image metadata: " + ex.getMessage());
+            }
+        }
+
+        if (roundEnv.processingOver() && generationCache != null) {
+            generationCache.write(processingEnv.getMessager());
+        }
+
+        if (stats != null) {
+            stats.endRound();
+            if (roundEnv.processingOver()) {
+                stats.write(processingEnv.getFiler(), processingEnv.getMessager());
+            }
         }
 
         return false;
     }
 
     /**
-     * Gets the fully-qualified names of all classes in the given environment that are annotated
-     * with our @Factory annotation.
+     * Records a factory which has been generated, so that it can be included in its dependency
+     * holder, the registry and the component.
      *
-     * @param roundEnv The environment to read elements from
-     * @return A set of all class names that are annotated
+     * @param typeElement The type built by the factory.
+     * @param packageName The package the factory was generated in.
+     * @param factoryName The simple name of the factory.
+     * @param annotation The annotation configuring the factory.
+     * @param boundParameters The parameters bound by the factory.
+     * @param constructors The constructors of the type.
      */
-    private Set<String> getFactoryClassNames(final RoundEnvironment roundEnv) {
-        final Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(Factory.class);
-        final Set<String> names = new HashSet<>(elements.size());
-        for (Element element : elements) {
-            final Element enclosingElement = element.getEnclosingElement();
-            if (enclosingElement instanceof PackageElement) {
-                final PackageElement packageElement = (PackageElement) enclosingElement;
-                final String packageName = packageElement.getQualifiedName().toString();
-                names.add(packageName + '.' + element.getSimpleName().toString());
-            } else {
-                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
-                        "Factory annotation must be applied to outer-classes", enclosingElement);
+    private void addFactoryModel(final TypeElement typeElement, final String packageName,
+            final String factoryName, final Factory annotation,
+            final List<Parameter> boundParameters, final List<Constructor> constructors) {
+        if (registryName == null && componentName == null
+                && annotation.dependencies().isEmpty()) {
+            return;
+        }
+
+        if (summariesWritten) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Factory was generated after the factory registry or component had been "
+                    + "written", typeElement);
+            return;
+        }
+
+        boolean defaultConstructible = false;
+        for (Constructor constructor : constructors) {
+            defaultConstructible |= boundParameters.containsAll(constructor.getParameters());
+        }
+
+        final String holderName = annotation.dependencies().isEmpty()
+                ? null : getHolderName(packageName, annotation);
+        final List<Parameter> declaredParameters
+                = getDeclaredParameters(annotation, boundParameters);
+        final FactoryModel model = new FactoryModel(
+                typeElement.getQualifiedName().toString(),
+                packageName + (packageName.isEmpty() ? "" : ".") + factoryName,
+                holderName == null ? declaredParameters
+                : Collections.singletonList(new Parameter(holderName, HOLDER_FIELD)),
+                typeElement.getModifiers().contains(Modifier.PUBLIC)
+                && Arrays.asList(annotation.modifiers()).contains(Modifier.PUBLIC),
+                defaultConstructible,
+                holderName,
+                holderName == null ? Collections.<Parameter>emptyList() : declaredParameters,
+                annotation.inject());
+        generatedFactories.add(model);
+        if (holderName != null) {
+            addDependencyHolderFactory(model);
+        }
+    }
+
+    /**
+     * Adds models of factories generated by earlier compilations to those generated by this one,
+     * so that the holders, registry, component and native-image metadata still include them when
+     * only some annotated types are recompiled. Factories whose types were processed by this
+     * compilation, or which no longer exist or are no longer annotated, are skipped.
+     */
+    private void mergeModelIndex() {
+        final List<String> lines = new ArrayList<>();
+        try {
+            final FileObject index = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", MODEL_INDEX);
+            try (BufferedReader reader = new BufferedReader(index.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException ex) {
+            // No earlier compilation has written an index, so there is nothing to merge.
+            return;
+        }
+
+        for (String line : lines) {
+            final FactoryModel model;
+            try {
+                model = FactoryModel.fromIndexLine(line);
+            } catch (IllegalArgumentException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Ignoring invalid entry in " + MODEL_INDEX + ": " + ex.getMessage());
+                continue;
+            }
+
+            final TypeElement type = getTypeElement(model);
+            if (processedTypes.contains(model.getTypeName()) || type == null
+                    || type.getAnnotation(Factory.class) == null) {
+                continue;
+            }
+
+            if (model.getHolderName() == null || checkHolderParameters(model.getHolderName(),
+                    model.getHolderParameters(), type)) {
+                generatedFactories.add(model);
+                if (model.getHolderName() != null) {
+                    addDependencyHolderFactory(model);
+                }
+                if (nativeImageMetadata != null) {
+                    nativeImageMetadata.addType(model.getFactoryName());
+                }
             }
         }
-        return names;
     }
 
     /**
-     * Writes all of the given parameters as method parameters.
+     * Writes out the model index, describing every factory known to this compilation.
+     */
+    private void writeModelIndex() {
+        if (registryName == null && componentName == null && dependencyHolders.isEmpty()
+                && nativeImageMetadata == null) {
+            return;
+        }
+
+        try (Writer writer = processingEnv.getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", MODEL_INDEX).openWriter()) {
+            for (FactoryModel factory : generatedFactories) {
+                writer.write(factory.toIndexLine() + "\n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write factory model index: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets the given bound parameters with the types a factory declares them as.
      *
-     * @param annotation The annotation configuring the factory. {@code null} to use defaults.
-     * @param writer The writer to write to.
-     * @param parameters The parameters to be written.
-     * @throws IOException If the operation failed.
+     * @param annotation The annotation configuring the factory.
+     * @param boundParameters The parameters bound by the factory.
+     * @return The parameters, with providers wrapped as configured.
      */
-    private void writeMethodParameters(
-            final Factory annotation,
-            final SourceFileWriter writer,
-            final List<Parameter> parameters) throws IOException {
-        for (Parameter param : parameters) {
-            writer.writeMethodParameter(
-                    param.getAnnotations(),
-                    maybeWrapProvider(annotation, param),
-                    param.getName(),
-                    Modifier.FINAL);
+    private List<Parameter> getDeclaredParameters(final Factory annotation,
+            final List<Parameter> boundParameters) {
+        final List<Parameter> parameters = new ArrayList<>(boundParameters.size());
+        for (Parameter param : boundParameters) {
+            parameters.add(new Parameter(maybeWrapProvider(annotation, param), param.getName(),
+                    param.getAnnotations()));
         }
+        return parameters;
     }
 
     /**
-     * Gets all the annotations (except the ones declared by this library) of the given element as a
-     * string.
+     * Gets the fully-qualified name of the dependency holder used by a factory.
      *
-     * @param element The element to retrieve annotations for.
-     * @return A space-separated string of all annotations and their values.
+     * @param packageName The package the factory is generated in.
+     * @param annotation The annotation configuring the factory.
+     * @return The name of the holder.
      */
-    private String getAnnotations(final Element element) {
-        final StringBuilder builder = new StringBuilder();
+    private String getHolderName(final String packageName, final Factory annotation) {
+        return packageName + (packageName.isEmpty() ? "" : ".") + annotation.dependencies();
+    }
 
-        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
-            if (mirror.getAnnotationType().toString().startsWith("com.dmdirc.util.annotations")) {
-                continue;
-            }
+    /**
+     * Checks that a factory can share the given dependency holder, reporting an error if the
+     * holder has already been written or declares a field with the same name but a different type.
+     *
+     * @param holderName The fully-qualified name of the holder.
+     * @param annotation The annotation configuring the factory.
+     * @param boundParameters The parameters bound by the factory.
+     * @param typeElement The type built by the factory.
+     * @return True if the factory can share the holder; false otherwise.
+     */
+    private boolean checkDependencyHolder(final String holderName, final Factory annotation,
+            final List<Parameter> boundParameters, final TypeElement typeElement) {
+        if (summariesWritten) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Factory was generated after the dependency holder " + holderName
+                    + " had been written", typeElement);
+            return false;
+        }
 
-            if (builder.length() > 0) {
-                builder.append(' ');
+        return checkHolderParameters(holderName,
+                getDeclaredParameters(annotation, boundParameters), typeElement);
+    }
+
+    /**
+     * Checks that a factory's parameters don't conflict with the fields a dependency holder
+     * already has, reporting an error for each field with the same name but a different type.
+     *
+     * @param holderName The fully-qualified name of the holder.
+     * @param parameters The parameters the factory reads from the holder.
+     * @param typeElement The type built by the factory.
+     * @return True if the factory can share the holder; false otherwise.
+     */
+    private boolean checkHolderParameters(final String holderName,
+            final List<Parameter> parameters, final TypeElement typeElement) {
+        final DependencyHolderModel holder = dependencyHolders.get(holderName);
+        if (holder == null) {
+            return true;
+        }
+
+        boolean valid = true;
+        for (Parameter param : parameters) {
+            final Parameter existing = holder.getParameter(param.getName());
+            if (existing != null && !existing.equals(param)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Dependency holder " + holderName + " already has a field named "
+                        + param.getName() + " of type " + existing.getType(), typeElement);
+                valid = false;
             }
+        }
+        return valid;
+    }
 
-            builder.append(mirror);
+    /**
+     * Records a factory which shares a dependency holder, so that the holder has a field for each
+     * of its bound parameters.
+     *
+     * @param factory The factory sharing the holder.
+     */
+    private void addDependencyHolderFactory(final FactoryModel factory) {
+        if (!dependencyHolders.containsKey(factory.getHolderName())) {
+            dependencyHolders.put(factory.getHolderName(),
+                    new DependencyHolderModel(factory.getHolderName()));
         }
+        dependencyHolders.get(factory.getHolderName()).addFactory(
+                factory.getHolderParameters(), factory.isAccessible(), factory.isInjected());
+    }
 
-        return builder.toString();
+    /**
+     * Checks that every factory in the package which shares a dependency holder is known to this
+     * compilation, either because it was processed or because it was read back from the model
+     * index. Any other factory would be missing its fields from the regenerated holder, so an
+     * error is reported for it.
+     *
+     * @param holder The holder to be checked.
+     */
+    private void checkDependencyHolderMembers(final DependencyHolderModel holder) {
+        final Set<String> members = new HashSet<>(processedTypes);
+        for (FactoryModel factory : generatedFactories) {
+            members.add(factory.getTypeName());
+        }
+
+        final PackageElement packageElement = processingEnv.getElementUtils()
+                .getPackageElement(holder.getPackageName());
+        for (Element element : packageElement.getEnclosedElements()) {
+            final Factory annotation = element.getAnnotation(Factory.class);
+            if (annotation != null && !annotation.dependencies().isEmpty()
+                    && holder.getName().equals(getHolderName(holder.getPackageName(), annotation))
+                    && !members.contains(((TypeElement) element).getQualifiedName().toString())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Factory shares the dependency holder " + holder.getName()
+                        + ", but was neither compiled with it nor found in " + MODEL_INDEX
+                        + "; rebuild every factory that shares the holder", element);
+            }
+        }
     }
 
     /**
-     * Writes out a factory class as a source file.
+     * Writes out a dependency holder, which has a final field for each dependency shared by the
+     * factories that use it.
      *
-     * @param packageName The package to put the factory in.
-     * @param factoryName The simple name of the factory.
-     * @param typeName The simple name of the class being built.
-     * @param annotation The annotation configuring the factory.
-     * @param boundParameters The parameters bound by the factory (required by the constructor).
-     * @param constructors A list of constructors.
-     * @param elements The element(s) responsible for the file being written.
+     * @param holder The holder to be written.
      */
-    private void writeFactory(final String packageName, final String factoryName,
-            final String typeName, final Factory annotation, final List<Parameter> boundParameters,
-            final List<Constructor> constructors, final Element... elements) {
+    private void writeDependencyHolder(final DependencyHolderModel holder) {
+        final long start = System.nanoTime();
+        final List<Parameter> parameters = holder.getParameters();
         try (SourceFileWriter writer = new SourceFileWriter(processingEnv.getFiler(),
-                packageName + (packageName.isEmpty() ? "" : ".") + factoryName, elements)) {
-            final String methodName = "get" + typeName;
-
-            writer.writePackageDeclaration(packageName)
-                    .writeAnnotationIf("@javax.inject.Singleton", annotation.singleton())
-                    .writeClassDeclaration(factoryName, getClass(), annotation.modifiers());
+                lineEnding, holder.getName())) {
+            writer.writePackageDeclaration(holder.getPackageName());
+            if (holder.isAccessible()) {
+                writer.writeClassDeclaration(holder.getSimpleName(), getClass(),
+                        Modifier.PUBLIC, Modifier.FINAL);
+            } else {
+                writer.writeClassDeclaration(holder.getSimpleName(), getClass(), Modifier.FINAL);
+            }
 
-            // All the fields we need
-            for (Parameter boundParam : boundParameters) {
-                writer.writeField(
-                        maybeWrapProvider(annotation, boundParam),
-                        boundParam.getName(),
-                        Modifier.PRIVATE, Modifier.FINAL);
+            for (Parameter param : parameters) {
+                writer.writeField(param.getType(), param.getName(), Modifier.FINAL);
             }
 
-            // Constructor declaration
-            writer.writeAnnotationIf("@javax.inject.Inject", annotation.inject())
-                    .writeConstructorDeclarationStart(factoryName, Modifier.PUBLIC);
-            writeMethodParameters(annotation, writer, boundParameters);
+            writer.writeAnnotationIf("@javax.inject.Inject", holder.isInjected())
+                    .writeConstructorDeclarationStart(holder.getSimpleName(), Modifier.PUBLIC);
+            writeMethodParameters(null, writer, parameters);
             writer.writeMethodDeclarationEnd();
-
-            // Assign the values to fields
-            for (Parameter boundParam : boundParameters) {
-                writer.writeFieldAssignment(boundParam.getName(), boundParam.getName());
+            for (Parameter param : parameters) {
+                writer.writeFieldAssignment(param.getName(), param.getName());
             }
+            writer.writeBlockEnd();
 
-            // End of constructor
             writer.writeBlockEnd();
+            if (stats != null) {
+                stats.addSource(holder.getName(), start, writer);
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write dependency holder file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes out a component class, which constructs every generated factory in dependency order.
+     * Bound parameters satisfied by another factory (or, for factories with a method that takes
+     * no arguments, by the type it builds) are wired automatically; all other bound parameters
+     * become parameters of the component's constructor.
+     *
+     * @param componentName The fully-qualified name of the component class.
+     */
+    private void writeComponent(final String componentName) {
+        final long start = System.nanoTime();
+        final int index = componentName.lastIndexOf('.');
+        final String packageName = index == -1 ? "" : componentName.substring(0, index);
+        final String className = componentName.substring(index + 1);
+
+        // Work out which factories can be wired, and what each one provides.
+        final Map<String, FactoryModel> factoryBindings = new HashMap<>();
+        final Map<String, FactoryModel> typeBindings = new HashMap<>();
+        final Map<FactoryModel, String> fieldNames = new LinkedHashMap<>();
+        final Set<String> usedNames = new HashSet<>();
+        for (FactoryModel factory : generatedFactories) {
+            if (factory.isAccessible() || factory.getPackageName().equals(packageName)) {
+                factoryBindings.put(factory.getFactoryName(), factory);
+                typeBindings.put(factory.getTypeName(), factory);
+                fieldNames.put(factory, getUniqueName(usedNames,
+                        factory.getSimpleFactoryName().substring(0, 1).toLowerCase()
+                        + factory.getSimpleFactoryName().substring(1)));
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Factory " + factory.getFactoryName() + " is not public, so cannot be "
+                        + "included in the factory component");
+            }
+        }
+
+        // Resolve each factory's dependencies, collecting external ones as we go.
+        final Map<FactoryModel, List<FactoryModel>> dependencies = new HashMap<>();
+        final Map<FactoryModel, String[]> arguments = new HashMap<>();
+        final Map<String, Parameter> externals = new LinkedHashMap<>();
+        boolean valid = true;
+        for (FactoryModel factory : fieldNames.keySet()) {
+            final List<FactoryModel> factoryDependencies = new ArrayList<>();
+            final String[] factoryArguments = new String[factory.getParameters().size()];
+            for (int i = 0; i < factoryArguments.length; i++) {
+                final Parameter param = factory.getParameters().get(i);
+                final boolean provider = param.getType().startsWith("javax.inject.Provider<");
+                final String type = provider
+                        ? param.getType().substring(22, param.getType().length() - 1)
+                        : param.getType();
+                final FactoryModel dependency = factoryBindings.containsKey(type)
+                        ? factoryBindings.get(type) : typeBindings.get(type);
+
+                if (dependency == null || !param.getAnnotations().isEmpty()) {
+                    final String key = param.getAnnotations() + " " + param.getType();
+                    if (!externals.containsKey(key)) {
+                        externals.put(key, new Parameter(param.getType(),
+                                getUniqueName(usedNames, param.getName()),
+                                param.getAnnotations()));
+                    }
+                    factoryArguments[i] = externals.get(key).getName();
+                    continue;
+                }
 
-            // Write each factory method out in turn
-            for (Constructor constructor : constructors) {
-                final List<Parameter> params = constructor.getParameters();
-                final List<Parameter> unbound = new ArrayList<>(params);
-                unbound.removeAll(boundParameters);
-
-                final String[] parameters = new String[params.size()];
-                for (int i = 0; i < parameters.length; i++) {
-                    if (annotation.providers()
-                            && !params.get(i).getType().startsWith("javax.inject.Provider")
-                            && boundParameters.contains(params.get(i))
-                            && params.get(i).getAnnotations().isEmpty()) {
-                        parameters[i] = params.get(i).getName() + ".get()";
-                    } else {
-                        parameters[i] = params.get(i).getName();
+                String value = fieldNames.get(dependency);
+                if (typeBindings.get(type) == dependency) {
+                    if (!dependency.isDefaultConstructible()) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                "Missing binding for " + type + " required by "
+                                + factory.getFactoryName() + ": its factory has no method "
+                                + "without arguments", getTypeElement(factory));
+                        valid = false;
+                        continue;
                     }
+                    value += ".get" + dependency.getSimpleTypeName() + "()";
                 }
 
-                final String[] throwsArray = constructor.getThrownTypes()
-                        .toArray(new String[constructor.getThrownTypes().size()]);
+                factoryDependencies.add(dependency);
+                factoryArguments[i] = provider
+                        ? "new javax.inject.Provider<" + type + ">() { @Override public " + type
+                        + " get() { return " + className + ".this." + value + "; } }"
+                        : "this." + value;
+            }
+            dependencies.put(factory, factoryDependencies);
+            arguments.put(factory, factoryArguments);
+        }
 
-                writer.writeMethodDeclarationStart(typeName, methodName, annotation.methodModifiers());
-                writeMethodParameters(null, writer, unbound);
-                writer.writeMethodDeclarationEnd(throwsArray)
-                        .writeReturnStart()
-                        .writeNewInstance(typeName, parameters)
-                        .writeStatementEnd()
-                        .writeBlockEnd();
+        final List<FactoryModel> order = new ArrayList<>();
+        final Set<FactoryModel> visited = new HashSet<>();
+        final List<FactoryModel> path = new ArrayList<>();
+        for (FactoryModel factory : fieldNames.keySet()) {
+            valid &= sortDependencies(factory, dependencies, visited, path, order);
+        }
+
+        if (!valid) {
+            return;
+        }
+
+        try (SourceFileWriter writer = new SourceFileWriter(processingEnv.getFiler(),
+                lineEnding, componentName)) {
+            writer.writePackageDeclaration(packageName)
+                    .writeClassDeclaration(className, getClass(), Modifier.PUBLIC);
+
+            for (FactoryModel factory : order) {
+                writer.writeField(factory.getFactoryName(), fieldNames.get(factory),
+                        Modifier.PRIVATE, Modifier.FINAL);
+            }
+
+            writer.writeConstructorDeclarationStart(className, Modifier.PUBLIC);
+            for (Parameter external : externals.values()) {
+                writer.writeMethodParameter(external.getAnnotations(), external.getType(),
+                        external.getName(), Modifier.FINAL);
+            }
+            writer.writeMethodDeclarationEnd();
+            for (FactoryModel factory : order) {
+                writer.writeFieldAssignment(fieldNames.get(factory), "new "
+                        + factory.getFactoryName() + "("
+                        + join(Arrays.asList(arguments.get(factory))) + ")");
+            }
+            writer.writeBlockEnd();
+
+            for (FactoryModel factory : order) {
+                writer.writeMethodDeclarationStart(factory.getFactoryName(),
+                        "get" + factory.getSimpleFactoryName(), Modifier.PUBLIC);
+                writer.writeMethodDeclarationEnd();
+                writer.writeReturnStart().write(fieldNames.get(factory)).writeStatementEnd();
+                writer.writeBlockEnd();
             }
 
-            // Done!
             writer.writeBlockEnd();
+            if (stats != null) {
+                stats.addSource(componentName, start, writer);
+            }
         } catch (IOException ex) {
             processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
-                    "Unable to write factory file: " + ex.getMessage());
+                    "Unable to write factory component file: " + ex.getMessage());
         }
     }
 
+    /**
+     * Adds a factory and its dependencies to a list in dependency order, using a depth-first
+     * search. Any dependency cycles are reported as errors.
+     *
+     * @param factory The factory to add.
+     * @param dependencies The dependencies of each factory.
+     * @param visited The factories which have already been added or are being visited.
+     * @param path The factories currently being visited, outermost first.
+     * @param order The list to add factories to.
+     * @return True if no cycles were found, false otherwise.
+     */
+    private boolean sortDependencies(final FactoryModel factory,
+            final Map<FactoryModel, List<FactoryModel>> dependencies,
+            final Set<FactoryModel> visited, final List<FactoryModel> path,
+            final List<FactoryModel> order) {
+        if (path.contains(factory)) {
+            final StringBuilder cycle = new StringBuilder();
+            for (FactoryModel member : path.subList(path.indexOf(factory), path.size())) {
+                cycle.append(member.getFactoryName()).append(" -> ");
+            }
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Dependency cycle between factories: " + cycle + factory.getFactoryName(),
+                    getTypeElement(factory));
+            return false;
+        }
+
+        if (!visited.add(factory)) {
+            return true;
+        }
+
+        path.add(factory);
+        boolean valid = true;
+        for (FactoryModel dependency : dependencies.get(factory)) {
+            valid &= sortDependencies(dependency, dependencies, visited, path, order);
+        }
+        path.remove(path.size() - 1);
+        order.add(factory);
+        return valid;
+    }
+
+    /**
+     * Gets a name based on the given one which has not been used before, and records it as used.
+     *
+     * @param usedNames The names which have already been used.
+     * @param name The preferred name.
+     * @return The preferred name, or the preferred name with a numeric suffix if already used.
+     */
+    private String getUniqueName(final Set<String> usedNames, final String name) {
+        String candidate = name;
+        for (int i = 2; !usedNames.add(candidate); i++) {
+            candidate = name + i;
+        }
+        return candidate;
+    }
+
+    /**
+     * Gets the element for the type built by the given factory, for use in error messages.
+     *
+     * @param factory The factory to look up.
+     * @return The type element, or {@code null} if it could not be found.
+     */
+    private TypeElement getTypeElement(final FactoryModel factory) {
+        return processingEnv.getElementUtils().getTypeElement(factory.getTypeName());
+    }
+
+    /**
+     * Gets the factories which can be included in the registry, warning about any which can't be
+     * reached from the registry's package.
+     *
+     * @param registryName The fully-qualified name of the registry class.
+     * @return The factories to include in the registry and its index.
+     */
+    private List<FactoryModel> getRegistryFactories(final String registryName) {
+        final int index = registryName.lastIndexOf('.');
+        final String packageName = index == -1 ? "" : registryName.substring(0, index);
+        final List<FactoryModel> factories = new ArrayList<>();
+        for (FactoryModel factory : generatedFactories) {
+            if (factory.isAccessible() || factory.getPackageName().equals(packageName)) {
+                factories.add(factory);
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Factory " + factory.getFactoryName() + " is not public, so cannot be "
+                        + "included in the factory registry");
+            }
+        }
+        return factories;
+    }
+
+    /**
+     * Writes out the factory registry, which maps each type to its factory and can construct
+     * factories without reflection.
+     *
+     * @param registryName The fully-qualified name of the registry class.
+     * @param factories The factories to include in the registry.
+     */
+    private void writeRegistry(final String registryName, final List<FactoryModel> factories) {
+        final long start = System.nanoTime();
+        final int index = registryName.lastIndexOf('.');
+        final String packageName = index == -1 ? "" : registryName.substring(0, index);
+        final String className = registryName.substring(index + 1);
+
+        try (SourceFileWriter writer = new SourceFileWriter(processingEnv.getFiler(),
+                lineEnding, registryName)) {
+            writer.writePackageDeclaration(packageName)
+                    .writeClassDeclaration(className, getClass(), Modifier.PUBLIC, Modifier.FINAL);
+
+            writer.writeConstructorDeclarationStart(className, Modifier.PRIVATE);
+            writer.writeMethodDeclarationEnd();
+            writer.writeBlockEnd();
+
+            final String mapType = "java.util.Map<java.lang.Class<?>, java.lang.Class<?>>";
+            writer.writeMethodDeclarationStart(mapType, "getFactoryTypes",
+                    Modifier.PUBLIC, Modifier.STATIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeDeclarationAndAssignment(mapType, "factories",
+                    "new java.util.LinkedHashMap<>(" + factories.size() * 2 + ")",
+                    Modifier.FINAL);
+            for (FactoryModel factory : factories) {
+                writer.writeStatement("factories.put(" + factory.getTypeName() + ".class, "
+                        + factory.getFactoryName() + ".class)");
+            }
+            writer.writeReturnStart().write("java.util.Collections.unmodifiableMap(factories)")
+                    .writeStatementEnd();
+            writer.writeBlockEnd();
+
+            writer.writeAnnotation("@SuppressWarnings(\"unchecked\")");
+            writer.writeMethodDeclarationStart("java.lang.Object", "createFactory",
+                    Modifier.PUBLIC, Modifier.STATIC);
+            writer.writeMethodParameter("", "java.lang.Class<?>", "type", Modifier.FINAL);
+            writer.writeMethodParameter("", "Resolver", "resolver", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            for (FactoryModel factory : factories) {
+                final String[] arguments = new String[factory.getParameters().size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    final Parameter param = factory.getParameters().get(i);
+                    arguments[i] = "(" + param.getType() + ") resolver.resolve("
+                            + getStringLiteral(param.getType()) + ", "
+                            + getStringLiteral(param.getAnnotations()) + ")";
+                }
+                writer.writeIfStart("type == " + factory.getTypeName() + ".class");
+                writer.writeReturnStart()
+                        .writeNewInstance(factory.getFactoryName(), arguments)
+                        .writeStatementEnd();
+                writer.writeIfEnd();
+            }
+            writer.writeStatement("throw new IllegalArgumentException(\"No factory registered "
+                    + "for \" + type.getName())");
+            writer.writeBlockEnd();
+
+            writer.writeInterfaceDeclaration("Resolver", getClass(), Modifier.PUBLIC);
+            writer.writeMethodDeclarationStart("java.lang.Object", "resolve");
+            writer.writeMethodParameter("", "java.lang.String", "type");
+            writer.writeMethodParameter("", "java.lang.String", "qualifier");
+            writer.writeInterfaceMethodDeclarationEnd();
+            writer.writeInterfaceBlockEnd();
+
+            writer.writeBlockEnd();
+            if (stats != null) {
+                stats.addSource(registryName, start, writer);
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write factory registry file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes out an index of generated factories, listing the registry and each type and factory
+     * pair, so that tools can find them without scanning the classpath.
+     *
+     * @param registryName The fully-qualified name of the registry class.
+     * @param factories The factories included in the registry.
+     */
+    private void writeRegistryIndex(final String registryName,
+            final List<FactoryModel> factories) {
+        try (Writer writer = processingEnv.getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", REGISTRY_INDEX).openWriter()) {
+            writer.write("# registry=" + registryName + "\n");
+            for (FactoryModel factory : factories) {
+                writer.write(factory.getTypeName() + "=" + factory.getFactoryName() + "\n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write factory index file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets a Java string literal representing the given value.
+     *
+     * @param value The value to be represented.
+     * @return A quoted and escaped string literal.
+     */
+    private String getStringLiteral(final String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Gets the fully-qualified names of all classes in the given environment that are annotated
+     * with our @Factory annotation.
+     *
+     * @param roundEnv The environment to read elements from
+     * @return A set of all class names that are annotated
+     */
+    private Set<String> getFactoryClassNames(final RoundEnvironment roundEnv) {
+        final Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(Factory.class);
+        final Set<String> names = new HashSet<>(elements.size());
+        for (Element element : elements) {
+            final Element enclosingElement = element.getEnclosingElement();
+            if (enclosingElement instanceof PackageElement) {
+                final PackageElement packageElement = (PackageElement) enclosingElement;
+                final String packageName = packageElement.getQualifiedName().toString();
+                names.add(packageName + '.' + element.getSimpleName().toString());
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Factory annotation must be applied to outer-classes", enclosingElement);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes all of the given parameters as method parameters.
+     *
+     * @param annotation The annotation configuring the factory. {@code null} to use defaults.
+     * @param writer The writer to write to.
+     * @param parameters The parameters to be written.
+     * @throws IOException If the operation failed.
+     */
+    private void writeMethodParameters(
+            final Factory annotation,
+            final SourceFileWriter writer,
+            final List<Parameter> parameters) throws IOException {
+        for (Parameter param : parameters) {
+            writer.writeMethodParameter(
+                    param.getAnnotations(),
+                    maybeWrapProvider(annotation, param),
+                    param.getName(),
+                    Modifier.FINAL);
+        }
+    }
+
+    /**
+     * Gets all the annotations (except the ones declared by this library) of the given element as a
+     * string.
+     *
+     * @param element The element to retrieve annotations for.
+     * @return A space-separated string of all annotations and their values.
+     */
+    private String getAnnotations(final Element element) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().toString().startsWith("com.dmdirc.util.annotations")) {
+                continue;
+            }
+
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+
+            builder.append(mirror);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes out a factory directly as a class file, if bytecode generation is enabled and the
+     * factory is simple enough to be generated that way. If the class file can't be generated or
+     * opened the factory is written as a source file instead. Once the class file has been opened
+     * the filer won't accept a source file with the same name, so a failure to write it is
+     * reported as an error on the type.
+     *
+     * @param type The type being built by the factory.
+     * @param annotation The annotation configuring the factory.
+     * @param factoryName The fully-qualified name of the factory.
+     * @return True if the factory was handled, false if it should be written as a source file.
+     */
+    private boolean writeFactoryClass(final TypeElement type, final Factory annotation,
+            final String factoryName) {
+        if (classGenerator == null) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        final byte[] contents;
+        final OutputStream output;
+        try {
+            contents = classGenerator.generate(type, annotation, factoryName);
+            if (contents == null) {
+                return false;
+            }
+            output = processingEnv.getFiler().createClassFile(factoryName, type)
+                    .openOutputStream();
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to generate factory class file, writing source instead: "
+                    + ex.getMessage(), type);
+            return false;
+        }
+
+        try (OutputStream stream = output) {
+            stream.write(contents);
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write factory class file: " + ex.getMessage(), type);
+            return true;
+        }
+        if (stats != null) {
+            stats.addClassFile(factoryName, start, contents.length);
+        }
+        return true;
+    }
+
+    /**
+     * Writes out a factory class as a source file.
+     *
+     * @param writer The writer to write to.
+     * @param packageName The package to put the factory in.
+     * @param factoryName The simple name of the factory.
+     * @param typeName The simple name of the class being built.
+     * @param annotation The annotation configuring the factory.
+     * @param boundParameters The parameters bound by the factory (required by the constructor).
+     * @param constructors A list of constructors.
+     * @param memoized The bound parameters whose providers should only be resolved once.
+     * @param resetMethods The methods which can reinitialise pooled instances.
+     * @throws IOException If the operation failed.
+     */
+    private void writeFactory(final SourceFileWriter writer, final String packageName,
+            final String factoryName, final String typeName, final Factory annotation,
+            final List<Parameter> boundParameters, final List<Constructor> constructors,
+            final Set<Parameter> memoized, final List<Method> resetMethods) throws IOException {
+        final String methodName = "get" + typeName;
+
+        writer.writePackageDeclaration(packageName)
+                .writeAnnotationIf("@javax.inject.Singleton", annotation.singleton())
+                .writeClassDeclaration(factoryName, getClass(), annotation.modifiers());
+
+        if (annotation.metrics()) {
+            writer.writeDeclarationAndAssignment(FACTORY_METRICS, "METRICS",
+                    "new " + FACTORY_METRICS + "(\"" + packageName
+                    + (packageName.isEmpty() ? "" : ".") + factoryName + "\")",
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+        }
+
+        // All the fields we need
+        final String holderName = annotation.dependencies().isEmpty()
+                ? null : getHolderName(packageName, annotation);
+        if (holderName == null) {
+            for (Parameter boundParam : boundParameters) {
+                writer.writeField(
+                        maybeWrapProvider(annotation, boundParam),
+                        boundParam.getName(),
+                        Modifier.PRIVATE, Modifier.FINAL);
+            }
+        } else {
+            writer.writeField(holderName, HOLDER_FIELD, Modifier.PRIVATE, Modifier.FINAL);
+        }
+
+        // Cached values for memoized providers
+        for (Parameter boundParam : boundParameters) {
+            if (memoized.contains(boundParam)) {
+                writer.writeField(boundParam.getType(), getMemoizedFieldName(boundParam),
+                        Modifier.PRIVATE, Modifier.VOLATILE);
+            }
+        }
+
+        if (annotation.pooled()) {
+            writer.writeField(OBJECT_POOL + "<" + typeName + ">", "pool",
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+
+        if (annotation.canonical()) {
+            writer.writeField(CANONICAL_CACHE + "<" + typeName + ">", "cache",
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+
+        if (annotation.threadScoped()) {
+            writer.writeField(THREAD_CACHE + "<" + typeName + ">", "threadCache",
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+
+        // Constructor declaration
+        writer.writeAnnotationIf("@javax.inject.Inject", annotation.inject())
+                .writeConstructorDeclarationStart(factoryName, Modifier.PUBLIC);
+        if (holderName == null) {
+            writeMethodParameters(annotation, writer, boundParameters);
+        } else {
+            writer.writeMethodParameter("", holderName, HOLDER_FIELD, Modifier.FINAL);
+        }
+        writer.writeMethodDeclarationEnd();
+
+        // Assign the values to fields
+        if (holderName == null) {
+            for (Parameter boundParam : boundParameters) {
+                writer.writeFieldAssignment(boundParam.getName(), boundParam.getName());
+            }
+        } else {
+            writer.writeFieldAssignment(HOLDER_FIELD, HOLDER_FIELD);
+        }
+
+        if (annotation.pooled()) {
+            writer.writeFieldAssignment("pool",
+                    "new " + OBJECT_POOL + "<>(" + annotation.poolSize() + ")");
+        }
+
+        if (annotation.canonical()) {
+            writer.writeFieldAssignment("cache",
+                    "new " + CANONICAL_CACHE + "<>(" + annotation.cacheSize() + ")");
+        }
+
+        if (annotation.threadScoped()) {
+            writer.writeFieldAssignment("threadCache",
+                    "new " + THREAD_CACHE + "<>(" + annotation.threadCacheSize() + ")");
+        }
+
+        // End of constructor
+        writer.writeBlockEnd();
+
+        for (Parameter boundParam : boundParameters) {
+            if (memoized.contains(boundParam)) {
+                writeMemoizedResolver(writer, annotation, boundParam);
+            }
+        }
+
+        // Write each factory method out in turn
+        for (Constructor constructor : constructors) {
+            final List<Parameter> params = constructor.getParameters();
+            final List<Parameter> unbound = new ArrayList<>(params);
+            unbound.removeAll(boundParameters);
+
+            final String[] parameters = new String[params.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = getArgument(annotation, boundParameters, memoized,
+                        params.get(i));
+            }
+
+            final Method reset = annotation.pooled() ? getResetMethod(resetMethods, unbound) : null;
+            final Set<String> thrownTypes = new LinkedHashSet<>(constructor.getThrownTypes());
+            if (reset != null) {
+                thrownTypes.addAll(reset.getThrownTypes());
+            }
+            final String[] throwsArray = thrownTypes.toArray(new String[thrownTypes.size()]);
+
+            writer.writeMethodDeclarationStart(typeName, methodName, annotation.methodModifiers());
+            writeMethodParameters(null, writer, unbound);
+            writer.writeMethodDeclarationEnd(throwsArray);
+            if (annotation.metrics()) {
+                writeMetricsStart(writer);
+            }
+            if (reset != null) {
+                writePooledInstance(writer, typeName, reset, unbound);
+            }
+            if (annotation.canonical() || annotation.threadScoped()) {
+                final String cache = annotation.canonical() ? "cache" : "threadCache";
+                writeCachedInstance(writer, typeName, cache,
+                        getCacheKey(constructors, constructor, unbound));
+                writer.writeReturnStart()
+                        .write(cache + (annotation.canonical() ? ".intern(key, " : ".put(key, "))
+                        .writeNewInstance(typeName, parameters)
+                        .write(")");
+            } else {
+                writer.writeReturnStart()
+                        .writeNewInstance(typeName, parameters);
+            }
+            writer.writeStatementEnd();
+            if (annotation.metrics()) {
+                writeMetricsEnd(writer, "1");
+            }
+            writer.writeBlockEnd();
+
+            if (annotation.batch()) {
+                writeBatchMethod(writer, annotation, typeName, methodName, params, unbound,
+                        boundParameters, memoized, throwsArray);
+            }
+
+            if (annotation.async()) {
+                writeAsyncMethod(writer, annotation, typeName, methodName, unbound);
+            }
+        }
+
+        if (annotation.pooled()) {
+            writePoolMethods(writer, annotation, typeName);
+        }
+
+        if (annotation.metrics()) {
+            writer.writeMethodDeclarationStart(FACTORY_METRICS, "getMetrics",
+                    Modifier.PUBLIC, Modifier.STATIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write("METRICS").writeStatementEnd();
+            writer.writeBlockEnd();
+        }
+
+        // Done!
+        writer.writeBlockEnd();
+    }
+
+    /**
+     * Gets the expression used to pass a constructor parameter from within a factory method.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param boundParameters The parameters bound by the factory.
+     * @param memoized The bound parameters whose providers should only be resolved once.
+     * @param parameter The constructor parameter to be passed.
+     * @return An expression evaluating to the value of the parameter.
+     */
+    private String getArgument(final Factory annotation, final List<Parameter> boundParameters,
+            final Set<Parameter> memoized, final Parameter parameter) {
+        if (memoized.contains(parameter)) {
+            return getMemoizedResolverName(parameter) + "()";
+        } else if (boundParameters.contains(parameter)) {
+            return getFieldName(annotation, parameter)
+                    + (isWrappedProvider(annotation, parameter) ? ".get()" : "");
+        } else {
+            return parameter.getName();
+        }
+    }
+
+    /**
+     * Gets the expression used to read the field holding a bound parameter, which may be in the
+     * factory's dependency holder.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The bound parameter to be read.
+     * @return An expression evaluating to the value of the field.
+     */
+    private String getFieldName(final Factory annotation, final Parameter parameter) {
+        return annotation.dependencies().isEmpty()
+                ? parameter.getName() : HOLDER_FIELD + "." + parameter.getName();
+    }
+
+    /**
+     * Writes a batch factory method, which creates a list of instances from arrays of unbound
+     * arguments. Bound fields are read, and providers resolved, once per batch.
+     * Bound fields are copied into locals named after the constructor's parameters, so the
+     * method's own variables are prefixed with {@code $} to keep them from clashing.
+     *
+     * @param writer The writer to write to.
+     * @param annotation The annotation configuring the factory.
+     * @param typeName The simple name of the class being built.
+     * @param methodName The name of the corresponding single-instance factory method.
+     * @param params The parameters of the constructor.
+     * @param unbound The unbound parameters of the constructor.
+     * @param boundParameters The parameters bound by the factory.
+     * @param memoized The bound parameters whose providers should only be resolved once.
+     * @param throwsArray The exceptions thrown by the single-instance factory method.
+     * @throws IOException If the operation failed.
+     */
+    private void writeBatchMethod(final SourceFileWriter writer, final Factory annotation,
+            final String typeName, final String methodName, final List<Parameter> params,
+            final List<Parameter> unbound, final List<Parameter> boundParameters,
+            final Set<Parameter> memoized, final String[] throwsArray) throws IOException {
+        final boolean delegate = annotation.pooled() || annotation.canonical()
+                || annotation.threadScoped();
+        final String count = unbound.isEmpty() ? "$count" : unbound.get(0).getName() + ".length";
+
+        writer.writeMethodDeclarationStart("java.util.List<" + typeName + ">",
+                methodName + "Batch", annotation.methodModifiers());
+        if (unbound.isEmpty()) {
+            writer.writeMethodParameter("", "int", "$count", Modifier.FINAL);
+        }
+        for (Parameter param : unbound) {
+            writer.writeMethodParameter("", param.getType() + "[]", param.getName(),
+                    Modifier.FINAL);
+        }
+        writer.writeMethodDeclarationEnd(throwsArray);
+
+        for (Parameter param : unbound.subList(Math.min(1, unbound.size()), unbound.size())) {
+            writer.writeIfStart(param.getName() + ".length != " + count);
+            writer.writeStatement("throw new IllegalArgumentException(\"Batch arguments must all "
+                    + "have the same length\")");
+            writer.writeIfEnd();
+        }
+
+        if (annotation.metrics() && !delegate) {
+            writeMetricsStart(writer);
+        }
+
+        if (!delegate) {
+            for (Parameter param : params) {
+                if (boundParameters.contains(param)) {
+                    final String argument = getArgument(annotation, boundParameters, memoized,
+                            param);
+                    writer.writeDeclarationAndAssignment(param.getType(), param.getName(),
+                            memoized.contains(param) ? argument : "this." + argument,
+                            Modifier.FINAL);
+                }
+            }
+        }
+
+        writer.writeDeclarationAndAssignment("java.util.List<" + typeName + ">", "$batch",
+                "new java.util.ArrayList<>(" + count + ")", Modifier.FINAL);
+        writer.writeCountingForLoopStart("$batchIndex", count);
+        final List<String> arguments = new ArrayList<>();
+        for (Parameter param : delegate ? unbound : params) {
+            arguments.add(unbound.contains(param)
+                    ? param.getName() + "[$batchIndex]" : param.getName());
+        }
+        writer.writeMethodCallStart("$batch.add");
+        if (delegate) {
+            writer.writeMethodCallParameter(methodName + "(" + join(arguments) + ")");
+        } else {
+            writer.writeMethodCallParameter("new " + typeName + "(" + join(arguments) + ")");
+        }
+        writer.writeMethodCallEnd();
+        writer.writeForLoopEnd();
+        writer.writeReturnStart().write("$batch").writeStatementEnd();
+        if (annotation.metrics() && !delegate) {
+            writeMetricsEnd(writer, count);
+        }
+        writer.writeBlockEnd();
+    }
+
+    /**
+     * Writes an asynchronous factory method, which creates an instance on a caller-supplied
+     * executor by delegating to the corresponding single-instance factory method.
+     *
+     * @param writer The writer to write to.
+     * @param annotation The annotation configuring the factory.
+     * @param typeName The simple name of the class being built.
+     * @param methodName The name of the corresponding single-instance factory method.
+     * @param unbound The unbound parameters of the constructor.
+     * @throws IOException If the operation failed.
+     */
+    private void writeAsyncMethod(final SourceFileWriter writer, final Factory annotation,
+            final String typeName, final String methodName, final List<Parameter> unbound)
+            throws IOException {
+        final List<String> arguments = new ArrayList<>();
+        for (Parameter param : unbound) {
+            arguments.add(param.getName());
+        }
+
+        writer.writeMethodDeclarationStart("java.util.concurrent.Future<" + typeName + ">",
+                methodName + "Async", annotation.methodModifiers());
+        writer.writeMethodParameter("", "java.util.concurrent.Executor", "executor",
+                Modifier.FINAL);
+        writeMethodParameters(null, writer, unbound);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment(
+                "java.util.concurrent.FutureTask<" + typeName + ">", "task",
+                "new java.util.concurrent.FutureTask<>(new java.util.concurrent.Callable<"
+                + typeName + ">() { @Override public " + typeName + " call() throws Exception { "
+                + "return " + methodName + "(" + join(arguments) + "); } })",
+                Modifier.FINAL);
+        writer.writeStatement("executor.execute(task)");
+        writer.writeReturnStart().write("task").writeStatementEnd();
+        writer.writeBlockEnd();
+    }
+
+    /**
+     * Writes the start of a timed section of a factory method. This should be followed by the
+     * body of the method and then a call to {@link #writeMetricsEnd}.
+     *
+     * @param writer The writer to write to.
+     * @throws IOException If the operation failed.
+     */
+    private void writeMetricsStart(final SourceFileWriter writer) throws IOException {
+        writer.writeDeclarationAndAssignment("long", "$metricsStart", "System.nanoTime()",
+                Modifier.FINAL);
+        writer.writeTryStart();
+    }
+
+    /**
+     * Writes the end of a timed section of a factory method, which records the elapsed time
+     * however the method exits.
+     *
+     * @param writer The writer to write to.
+     * @param invocations Expression giving the number of instances created.
+     * @throws IOException If the operation failed.
+     */
+    private void writeMetricsEnd(final SourceFileWriter writer, final String invocations)
+            throws IOException {
+        writer.writeFinallyStart();
+        writer.writeStatement("METRICS.record(" + invocations
+                + ", System.nanoTime() - $metricsStart)");
+        writer.writeTryEnd();
+    }
+
+    /**
+     * Joins the given expressions into a comma-separated argument list.
+     *
+     * @param arguments The expressions to join.
+     * @return The joined expressions.
+     */
+    private String join(final List<String> arguments) {
+        final StringBuilder builder = new StringBuilder();
+        for (String argument : arguments) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(argument);
+        }
+        return builder.toString();
+    }
+
     /**
      * Writes the given type in a Provider&lt;&gt;, if the factory is configured to use them, if the
      * type is not already a provider, and if the parameter has no annotations.
@@ -309,16 +1587,210 @@ public class FactoryProcessor extends AbstractProcessor {
      * @return The possibly-wrapped type.
      */
     private String maybeWrapProvider(final Factory annotation, final Parameter parameter) {
-        if (annotation != null
-                && annotation.providers()
-                && !parameter.getType().startsWith("javax.inject.Provider")
-                && parameter.getAnnotations().isEmpty()) {
+        if (isWrappedProvider(annotation, parameter)) {
             return "javax.inject.Provider<" + parameter.getType() + ">";
         } else {
             return parameter.getType();
         }
     }
 
+    /**
+     * Determines whether the given parameter will be wrapped in a Provider&lt;&gt; by the factory.
+     *
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The parameter to check.
+     * @return True if the factory will hold a provider for the parameter, false otherwise.
+     */
+    private boolean isWrappedProvider(final Factory annotation, final Parameter parameter) {
+        return annotation != null
+                && annotation.providers()
+                && !parameter.getType().startsWith("javax.inject.Provider")
+                && parameter.getAnnotations().isEmpty();
+    }
+
+    /**
+     * Writes a method which resolves a memoized provider the first time it is called, and returns
+     * the cached value thereafter. The value is published through a volatile field, so concurrent
+     * callers resolve the provider at most once.
+     *
+     * @param writer The writer to write to.
+     * @param annotation The annotation configuring the factory.
+     * @param parameter The bound parameter whose provider is memoized.
+     * @throws IOException If the operation failed.
+     */
+    private void writeMemoizedResolver(final SourceFileWriter writer, final Factory annotation,
+            final Parameter parameter) throws IOException {
+        final String field = getMemoizedFieldName(parameter);
+        writer.writeMethodDeclarationStart(parameter.getType(),
+                getMemoizedResolverName(parameter), Modifier.PRIVATE);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment(parameter.getType(), "result", field);
+        writer.writeIfStart("result == null");
+        writer.writeSynchronizedStart("this");
+        writer.writeAssignment("result", field);
+        writer.writeIfStart("result == null");
+        writer.writeAssignment("result", getFieldName(annotation, parameter) + ".get()");
+        writer.writeAssignment(field, "result");
+        writer.writeIfEnd();
+        writer.writeSynchronizedEnd();
+        writer.writeIfEnd();
+        writer.writeReturnStart().write("result").writeStatementEnd();
+        writer.writeBlockEnd();
+    }
+
+    /**
+     * Gets the name of the field used to cache the value of a memoized provider.
+     *
+     * @param parameter The bound parameter whose provider is memoized.
+     * @return The name of the cache field.
+     */
+    private String getMemoizedFieldName(final Parameter parameter) {
+        return parameter.getName() + "Instance";
+    }
+
+    /**
+     * Gets the name of the method used to resolve a memoized provider.
+     *
+     * @param parameter The bound parameter whose provider is memoized.
+     * @return The name of the resolver method.
+     */
+    private String getMemoizedResolverName(final Parameter parameter) {
+        return "resolve" + parameter.getName().substring(0, 1).toUpperCase()
+                + parameter.getName().substring(1);
+    }
+
+    /**
+     * Finds the reset method which can stand in for a constructor with the given unbound
+     * parameters.
+     *
+     * @param resetMethods The reset methods declared by the type.
+     * @param unbound The unbound parameters of the constructor.
+     * @return The matching reset method, or {@code null} if the constructor cannot be pooled.
+     */
+    private Method getResetMethod(final List<Method> resetMethods, final List<Parameter> unbound) {
+        for (Method method : resetMethods) {
+            if (method.getParameters().size() != unbound.size()) {
+                continue;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < unbound.size(); i++) {
+                if (!method.getParameters().get(i).getType().equals(unbound.get(i).getType())) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if (matches) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the start of a pooled factory method, which returns a reinitialised instance from the
+     * pool if one is available. Callers should follow this with code to create a new instance.
+     *
+     * @param writer The writer to write to.
+     * @param typeName The simple name of the class being built.
+     * @param reset The method used to reinitialise pooled instances.
+     * @param unbound The unbound parameters of the factory method.
+     * @throws IOException If the operation failed.
+     */
+    private void writePooledInstance(final SourceFileWriter writer, final String typeName,
+            final Method reset, final List<Parameter> unbound) throws IOException {
+        writer.writeDeclarationAndAssignment(typeName, "instance", "pool.acquire()",
+                Modifier.FINAL);
+        writer.writeIfStart("instance != null");
+        writer.writeMethodCallStart("instance." + reset.getName());
+        for (Parameter param : unbound) {
+            writer.writeMethodCallParameter(param.getName());
+        }
+        writer.writeMethodCallEnd();
+        writer.writeReturnStart().write("instance").writeStatementEnd();
+        writer.writeIfEnd();
+    }
+
+    /**
+     * Writes the start of a canonicalizing or thread-scoped factory method, which returns the
+     * cached instance if one exists. Callers should follow this with code to cache a new instance
+     * under the {@code key} variable.
+     *
+     * @param writer The writer to write to.
+     * @param typeName The simple name of the class being built.
+     * @param cache The name of the field holding the cache.
+     * @param key The expression used to build the cache key.
+     * @throws IOException If the operation failed.
+     */
+    private void writeCachedInstance(final SourceFileWriter writer, final String typeName,
+            final String cache, final String key) throws IOException {
+        writer.writeDeclarationAndAssignment("java.lang.Object", "key", key, Modifier.FINAL);
+        writer.writeDeclarationAndAssignment(typeName, "instance", cache + ".get(key)",
+                Modifier.FINAL);
+        writer.writeIfStart("instance != null");
+        writer.writeReturnStart().write("instance").writeStatementEnd();
+        writer.writeIfEnd();
+    }
+
+    /**
+     * Gets an expression which builds the cache key for a call to a factory method.
+     * If the factory has several methods, the key includes the index of the constructor so that
+     * equal arguments passed to different methods do not collide.
+     *
+     * @param constructors All constructors of the type.
+     * @param constructor The constructor used by the factory method.
+     * @param unbound The unbound parameters of the factory method.
+     * @return An expression evaluating to the key.
+     */
+    private String getCacheKey(final List<Constructor> constructors,
+            final Constructor constructor, final List<Parameter> unbound) {
+        final List<String> parts = new ArrayList<>();
+        if (constructors.size() > 1) {
+            parts.add(String.valueOf(constructors.indexOf(constructor)));
+        }
+        for (Parameter param : unbound) {
+            parts.add(param.getName());
+        }
+
+        if (parts.isEmpty()) {
+            return "java.util.Collections.emptyList()";
+        } else if (parts.size() == 1) {
+            return parts.get(0);
+        }
+
+        return "java.util.Arrays.<java.lang.Object>asList(" + join(parts) + ")";
+    }
+
+    /**
+     * Writes the methods used to return instances to a pooled factory and to monitor the pool.
+     *
+     * @param writer The writer to write to.
+     * @param annotation The annotation configuring the factory.
+     * @param typeName The simple name of the class being built.
+     * @throws IOException If the operation failed.
+     */
+    private void writePoolMethods(final SourceFileWriter writer, final Factory annotation,
+            final String typeName) throws IOException {
+        writer.writeMethodDeclarationStart("void", "release", annotation.methodModifiers());
+        writer.writeMethodParameter("", typeName, "instance", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeMethodCallStart("pool.release")
+                .writeMethodCallParameter("instance")
+                .writeMethodCallEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("long", "getPoolHits", annotation.methodModifiers());
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("pool.getHits()").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("long", "getPoolMisses", annotation.methodModifiers());
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("pool.getMisses()").writeStatementEnd();
+        writer.writeBlockEnd();
+    }
+
     /**
      * Gets a list of fully-qualified type names corresponding to the given mirrors.
      *
@@ -52,4 +52,58 @@ public @interface ObservableModel {
      */
     boolean oldValue() default true;
 
+    /**
+     * Whether or not to maintain an immutable snapshot of the model's properties. If enabled, the
+     * generated class exposes a {@code Snapshot} containing the value of every getter, which is
+     * replaced after each wrapped setter (or at the end of a batch) and published through a
+     * volatile reference, allowing other threads to read a consistent view without locking.
+     *
+     * @return True to generate and publish snapshots, false otherwise.
+     */
+    boolean snapshot() default false;
+
+    /**
+     * Whether or not the model should only be modified by a single owner thread. If enabled, the
+     * generated class records the thread that created it as its owner; wrapped setters called on
+     * any other thread are queued and applied, along with their notifications, when the owner
+     * calls {@code applyPendingChanges}. An executor for the owner's event loop may be supplied
+     * to have this scheduled automatically.
+     *
+     * @return True to confine changes to the owner thread, false otherwise.
+     */
+    boolean singleWriter() default false;
+
+    /**
+     * Whether or not to record changes in a runtime {@code ChangeJournal}. If enabled, the
+     * generated class can be attached to a journal, and wrapped setters for primitive and string
+     * properties append a record of each new value. A {@code JournalReplayer} is also generated
+     * to restore models from the journal.
+     *
+     * @return True to support journalling changes, false otherwise.
+     */
+    boolean journal() default false;
+
+    /**
+     * Whether or not to support sharing primitive properties through a runtime
+     * {@code SharedRegion}. If enabled, the generated class can be attached to a region, and
+     * wrapped setters for primitive properties write each new value to it under the region's
+     * sequence lock. A {@code SharedView} is also generated for reading consistent values from
+     * another process.
+     *
+     * @return True to support shared memory, false otherwise.
+     */
+    boolean sharedMemory() default false;
+
+    /**
+     * Whether or not to generate a columnar table class for the model. The table stores each
+     * wrapped property in its own array indexed by row and tracks which rows have changed.
+     * Listeners can be registered for a property across the whole table, or for a single row,
+     * and are passed the changed row. A {@code Row} view exposes the model's getters and setters
+     * for one row: {@code newCursor()} creates a view which {@code moveTo(row)} repositions, so
+     * bulk scans can reuse a single view, while {@code getRow(row)} creates a new one each call.
+     *
+     * @return True to generate a table class, false otherwise.
+     */
+    boolean table() default false;
+
 }
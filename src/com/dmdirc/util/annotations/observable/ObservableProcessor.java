@@ -25,14 +25,29 @@ package com.dmdirc.util.annotations.observable;
 import com.dmdirc.util.annotations.Constructor;
 import com.dmdirc.util.annotations.Method;
 import com.dmdirc.util.annotations.Parameter;
+import com.dmdirc.util.annotations.util.GenerationCache;
+import com.dmdirc.util.annotations.util.LineEnding;
+import com.dmdirc.util.annotations.util.NativeImageMetadata;
+import com.dmdirc.util.annotations.util.ProcessorStats;
+import com.dmdirc.util.annotations.util.SourceFileBatch;
 import com.dmdirc.util.annotations.util.SourceFileWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
@@ -45,33 +60,150 @@ import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
 
-@SupportedAnnotationTypes({"com.dmdirc.util.annotations.observable.ObservableModel",})
+@SupportedAnnotationTypes({
+    "com.dmdirc.util.annotations.observable.ObservableModel",
+    "com.dmdirc.util.annotations.observable.Indexed",
+    "com.dmdirc.util.annotations.observable.Aggregated",
+    "com.dmdirc.util.annotations.observable.GroupBy",
+    "com.dmdirc.util.annotations.observable.Sampled",})
+@SupportedOptions({
+    NativeImageMetadata.OPTION,
+    GenerationCache.OPTION,
+    LineEnding.OPTION,
+    ProcessorStats.OPTION,
+    ProcessorStats.REPORT_OPTION,})
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 public class ObservableProcessor extends AbstractProcessor {
 
+    /**
+     * The package containing the runtime support classes used by generated code. These are
+     * referenced by name so the processor does not depend on the runtime library.
+     */
+    private static final String RUNTIME_PACKAGE = "com.dmdirc.util.annotations.runtime.";
+
+    /**
+     * Resource listing the types generated for each model, so that native-image metadata written
+     * by an incremental compilation still registers models that weren't recompiled. Each line
+     * holds a model's name followed by the names of the types generated for it.
+     */
+    static final String TYPE_INDEX = "META-INF/dmdirc/observable-types";
+
+    /** The runtime class used to hold listeners. */
+    private static final String LISTENER_LIST = RUNTIME_PACKAGE + "ListenerList";
+
+    /**
+     * Map of primitive types to their boxed equivalents.
+     */
+    private static final Map<String, String> BOXED_TYPES = new HashMap<>();
+
+    static {
+        BOXED_TYPES.put("boolean", "java.lang.Boolean");
+        BOXED_TYPES.put("byte", "java.lang.Byte");
+        BOXED_TYPES.put("short", "java.lang.Short");
+        BOXED_TYPES.put("char", "java.lang.Character");
+        BOXED_TYPES.put("int", "java.lang.Integer");
+        BOXED_TYPES.put("long", "java.lang.Long");
+        BOXED_TYPES.put("float", "java.lang.Float");
+        BOXED_TYPES.put("double", "java.lang.Double");
+    }
+
+    /** Native-image metadata for the generated types, or {@code null} if disabled. */
+    private NativeImageMetadata nativeImageMetadata;
+
+    /** The types generated for each model processed by this compilation, keyed by model. */
+    private final Map<String, List<String>> generatedTypes = new TreeMap<>();
+
+    /** The names of every model annotated type processed by this compilation. */
+    private final Set<String> processedTypes = new HashSet<>();
+
+    /** Cache of the signatures of models whose classes were generated, or {@code null}. */
+    private GenerationCache generationCache;
+
+    /** The line ending to use in generated sources. */
+    private LineEnding lineEnding;
+
+    /** Statistics about the work done by this processor, or {@code null} if disabled. */
+    private ProcessorStats stats;
+
+    @Override
+    public synchronized void init(final ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        final String lineEndingOption = processingEnv.getOptions().get(LineEnding.OPTION);
+        lineEnding = LineEnding.fromOption(lineEndingOption);
+        if (lineEnding == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unknown line ending: " + lineEndingOption);
+            lineEnding = LineEnding.CRLF;
+        }
+        final String nativeImage = processingEnv.getOptions().get(NativeImageMetadata.OPTION);
+        if (nativeImage != null) {
+            nativeImageMetadata = new NativeImageMetadata(nativeImage, "observable");
+        }
+        final String cacheDirectory = processingEnv.getOptions().get(GenerationCache.OPTION);
+        if (cacheDirectory != null) {
+            try {
+                generationCache = new GenerationCache(cacheDirectory, getClass(),
+                        processingEnv.getOptions());
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Unable to read generation cache: " + ex.getMessage());
+            }
+        }
+        if (Boolean.parseBoolean(processingEnv.getOptions().get(ProcessorStats.OPTION))) {
+            stats = new ProcessorStats(getClass(), Boolean.parseBoolean(
+                    processingEnv.getOptions().get(ProcessorStats.REPORT_OPTION)));
+        }
+    }
+
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (stats != null) {
+            stats.startRound();
+        }
         if (!roundEnv.processingOver()) {
+            final SourceFileBatch sources = new SourceFileBatch(processingEnv.getFiler(),
+                    processingEnv.getMessager(), lineEnding, stats);
             for (Element type : roundEnv.getElementsAnnotatedWith(ObservableModel.class)) {
-                ObservableModel annotation = type.getAnnotation(ObservableModel.class);
+                final ObservableModel annotation = type.getAnnotation(ObservableModel.class);
                 if (annotation == null) {
                     continue;
                 }
+                final long start = stats == null ? 0 : stats.startType();
+                if (stats != null) {
+                    stats.addScanned(1);
+                }
                 final TypeElement typeElement = (TypeElement) type;
+                processedTypes.add(typeElement.getQualifiedName().toString());
                 final String packageName = ((QualifiedNameable) typeElement.getEnclosingElement()).getQualifiedName().toString();
                 final String observableClassName = annotation.name().isEmpty() ? "Observable" + typeElement.getSimpleName() : annotation.name();
                 final String className = type.toString();
 
                 final List<Constructor> constructors = new ArrayList<>();
                 final List<Method> methods = new ArrayList<>();
+                final List<Method> getters = new ArrayList<>();
+                final List<Method> indexed = new ArrayList<>();
+                final List<Method> aggregated = new ArrayList<>();
+                Method groupBy = null;
+                final Map<Method, Integer> sampled = new LinkedHashMap<>();
+                boolean valid = true;
 
                 for (Element child : type.getEnclosedElements()) {
                     final List<Parameter> params = new ArrayList<>();
+                    boolean wrapped = false;
                     if (child.getKind() == ElementKind.METHOD) {
                         for (String prefix : annotation.methodPrefixes()) {
                             if (child.getSimpleName().toString().startsWith(prefix)) {
+                                wrapped = true;
                                 ExecutableElement method = (ExecutableElement) child;
+                                if (annotation.singleWriter()
+                                        && method.getReturnType().getKind() != TypeKind.VOID) {
+                                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                            "Single writer models may only wrap void methods", method);
+                                    valid = false;
+                                }
                                 for (VariableElement element : method.getParameters()) {
                                     final Parameter param = new Parameter(
                                             element.asType().toString(),
@@ -79,14 +211,57 @@ public class ObservableProcessor extends AbstractProcessor {
                                             "");
                                     params.add(param);
                                 }
-                                methods.add(new Method(child.getSimpleName().toString(),
+                                final Method setter = new Method(child.getSimpleName().toString(),
                                         method.getReturnType().getKind() == TypeKind.VOID
                                         ? "void" : method.getReturnType().getClass().toString(),
                                         params, getTypeNames(method.getThrownTypes()),
-                                        method.getModifiers()));
+                                        method.getModifiers());
+                                methods.add(setter);
+                                if (method.getAnnotation(Indexed.class) != null) {
+                                    indexed.add(setter);
+                                }
+                                if (method.getAnnotation(Aggregated.class) != null) {
+                                    if (!isAggregatable(setter)) {
+                                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                "Only numeric or boolean properties can be aggregated", method);
+                                        valid = false;
+                                    }
+                                    aggregated.add(setter);
+                                }
+                                if (method.getAnnotation(GroupBy.class) != null) {
+                                    if (groupBy != null) {
+                                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                "Models may only be grouped by one property", method);
+                                        valid = false;
+                                    } else if (aggregated.contains(setter)) {
+                                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                "Models can't be grouped by an aggregated property", method);
+                                        valid = false;
+                                    }
+                                    groupBy = setter;
+                                }
+                                final Sampled sampling = method.getAnnotation(Sampled.class);
+                                if (sampling != null) {
+                                    if (!isAggregatable(setter)) {
+                                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                "Only numeric or boolean properties can be sampled", method);
+                                        valid = false;
+                                    }
+                                    sampled.put(setter, sampling.capacity());
+                                }
                             }
                         }
                     }
+                    if (!wrapped && child.getAnnotation(Indexed.class) != null) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                "Indexed only applies to methods that the model wraps", child);
+                    }
+                    if (child.getKind() == ElementKind.METHOD && isGetter((ExecutableElement) child)) {
+                        final ExecutableElement method = (ExecutableElement) child;
+                        getters.add(new Method(child.getSimpleName().toString(),
+                                method.getReturnType().toString(), params,
+                                getTypeNames(method.getThrownTypes()), method.getModifiers()));
+                    }
                     if (child.getKind() == ElementKind.CONSTRUCTOR) {
                         ExecutableElement ctor = (ExecutableElement) child;
                         for (VariableElement element : ctor.getParameters()) {
@@ -99,48 +274,279 @@ public class ObservableProcessor extends AbstractProcessor {
                         constructors.add(new Constructor(params, getTypeNames(ctor.getThrownTypes())));
                     }
                 }
-                writeObserveableModel(annotation, packageName, observableClassName, className, constructors, methods, type);
+                if (annotation.snapshot()) {
+                    final List<Method> snapshotGetters = getSnapshotGetters(getters);
+                    for (Method getter : getters) {
+                        if (!snapshotGetters.contains(getter)) {
+                            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                    getter.getName() + " is not included in snapshots, as is"
+                                    + getter.getName().substring(3) + " reads the same property",
+                                    type);
+                        }
+                    }
+                }
+                if (annotation.journal()) {
+                    final Map<Integer, String> journalIds = new HashMap<>();
+                    for (Method method : methods) {
+                        if (isJournalled(method)) {
+                            final String constant = getJournalConstant(method);
+                            final String existing = journalIds.put(getJournalId(method), constant);
+                            if (existing != null && !existing.equals(constant)) {
+                                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                        "Journal property IDs of " + existing + " and " + constant
+                                        + " collide; rename one of the properties", type);
+                                valid = false;
+                            }
+                        }
+                    }
+                }
+                if (!valid) {
+                    // Generating the model would only add errors on top of those reported.
+                    if (stats != null) {
+                        stats.endType(className, start);
+                    }
+                    continue;
+                }
+                final List<Method> aggregateDependencies = new ArrayList<>(aggregated);
+                if (groupBy != null && !aggregated.isEmpty()) {
+                    aggregateDependencies.add(groupBy);
+                }
+                final String qualifiedName = packageName + (packageName.isEmpty() ? "" : ".") + observableClassName;
+                final List<String> generatedNames = new ArrayList<>();
+                generatedNames.add(qualifiedName);
+                if (!indexed.isEmpty()) {
+                    generatedNames.add(qualifiedName + "Index");
+                }
+                if (!aggregated.isEmpty()) {
+                    generatedNames.add(qualifiedName + "Aggregates");
+                }
+                if (annotation.table() && !methods.isEmpty()) {
+                    generatedNames.add(qualifiedName + "Table");
+                }
+                generatedTypes.put(typeElement.getQualifiedName().toString(), generatedNames);
+                if (generationCache != null && generationCache.isCurrent(processingEnv.getFiler(),
+                        type, generatedNames.toArray(new String[generatedNames.size()]))) {
+                    if (stats != null) {
+                        stats.endType(className, start);
+                    }
+                    continue;
+                }
+
+                sources.add(qualifiedName, "observablemodel", new SourceFileBatch.Source() {
+                    @Override
+                    public void render(final SourceFileWriter writer) throws IOException {
+                        writeObserveableModel(writer, annotation, packageName, observableClassName, className, constructors, methods, getters, indexed, aggregateDependencies, sampled);
+                    }
+                }, type);
+                if (!indexed.isEmpty()) {
+                    sources.add(qualifiedName + "Index", "index", new SourceFileBatch.Source() {
+                        @Override
+                        public void render(final SourceFileWriter writer) throws IOException {
+                            writeIndex(writer, packageName, observableClassName, indexed, getters);
+                        }
+                    }, type);
+                }
+                if (!aggregated.isEmpty()) {
+                    final Method grouping = groupBy;
+                    sources.add(qualifiedName + "Aggregates", "aggregates", new SourceFileBatch.Source() {
+                        @Override
+                        public void render(final SourceFileWriter writer) throws IOException {
+                            writeAggregates(writer, packageName, observableClassName, aggregated, grouping, getters);
+                        }
+                    }, type);
+                }
+                if (annotation.table() && !methods.isEmpty()) {
+                    sources.add(qualifiedName + "Table", "table", new SourceFileBatch.Source() {
+                        @Override
+                        public void render(final SourceFileWriter writer) throws IOException {
+                            writeTable(writer, packageName, observableClassName, methods, getters);
+                        }
+                    }, type);
+                }
+                if (stats != null) {
+                    stats.endType(className, start);
+                }
+            }
+            sources.write();
+        } else {
+            if (nativeImageMetadata != null) {
+                mergeTypeIndex();
+                writeTypeIndex();
+                for (List<String> names : generatedTypes.values()) {
+                    for (String generatedName : names) {
+                        nativeImageMetadata.addType(generatedName);
+                    }
+                }
+                try {
+                    nativeImageMetadata.write(processingEnv.getFiler());
+                } catch (IOException ex) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Unable to write native-image metadata: " + ex.getMessage());
+                }
+            }
+            if (generationCache != null) {
+                generationCache.write(processingEnv.getMessager());
+            }
+        }
+        if (stats != null) {
+            stats.endRound();
+            if (roundEnv.processingOver()) {
+                stats.write(processingEnv.getFiler(), processingEnv.getMessager());
             }
         }
         return false;
     }
 
-    private void writeObserveableModel(final ObservableModel annotation,
-            final String packageName, final String className,
-            final String parentClassName, final List<Constructor> constructors,
-            final List<Method> methods, final Element... elements) {
-        try (SourceFileWriter writer = new SourceFileWriter(processingEnv.getFiler(),
-                packageName + (packageName.isEmpty() ? "" : ".") + className, elements)) {
-            writer.writePackageDeclaration(packageName);
-            writer.writeClassDeclarationStart(className, getClass());
-            writer.writeClassExtendsDeclaration(parentClassName);
-            writer.writeClassDeclarationEnd();
-            writeListenerFields(writer, methods);
-            writeConstructors(writer, constructors, methods, className);
-            writeWrappedSetters(writer, methods, annotation.oldValue());
-            for (Method method : methods) {
-                writeListenerManagement(writer, method);
-                writeFireListenerMethod(writer, method, annotation.oldValue());
+    /**
+     * Adds the types generated for models by earlier compilations to those generated by this one.
+     * Models processed by this compilation, or which no longer exist or are no longer annotated,
+     * are skipped.
+     */
+    private void mergeTypeIndex() {
+        final List<String> lines = new ArrayList<>();
+        try {
+            final FileObject index = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", TYPE_INDEX);
+            try (BufferedReader reader = new BufferedReader(index.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException ex) {
+            // No earlier compilation has written an index, so there is nothing to merge.
+            return;
+        }
+
+        for (String line : lines) {
+            final String[] names = line.trim().split(" ");
+            if (names[0].isEmpty() || processedTypes.contains(names[0])) {
+                continue;
+            }
+            final TypeElement type = processingEnv.getElementUtils().getTypeElement(names[0]);
+            if (type != null && type.getAnnotation(ObservableModel.class) != null) {
+                generatedTypes.put(names[0],
+                        Arrays.asList(names).subList(1, names.length));
+            }
+        }
+    }
+
+    /**
+     * Writes out the type index, listing the types generated for every model known to this
+     * compilation.
+     */
+    private void writeTypeIndex() {
+        try (Writer writer = processingEnv.getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", TYPE_INDEX).openWriter()) {
+            for (Map.Entry<String, List<String>> entry : generatedTypes.entrySet()) {
+                writer.write(entry.getKey());
+                for (String generatedName : entry.getValue()) {
+                    writer.write(" " + generatedName);
+                }
+                writer.write("\n");
             }
-            writeInterfaces(writer, methods, annotation.oldValue());
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write observable type index: " + ex.getMessage());
+        }
+    }
+
+    private void writeObserveableModel(final SourceFileWriter writer,
+            final ObservableModel annotation, final String packageName, final String className,
+            final String parentClassName, final List<Constructor> constructors,
+            final List<Method> methods, final List<Method> getters, final List<Method> indexed,
+            final List<Method> aggregated, final Map<Method, Integer> sampled)
+            throws IOException {
+        writer.writePackageDeclaration(packageName);
+        writer.writeClassDeclarationStart(className, getClass());
+        writer.writeClassExtendsDeclaration(parentClassName);
+        writer.writeClassDeclarationEnd();
+        if (annotation.journal()) {
+            writeJournalConstants(writer, methods);
+        }
+        if (annotation.sharedMemory()) {
+            writeSharedConstants(writer, methods);
+        }
+        writeListenerFields(writer, methods);
+        if (!indexed.isEmpty()) {
+            writer.writeField(LISTENER_LIST + "<" + className + "Index>", "indexes",
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+        if (!aggregated.isEmpty()) {
+            writer.writeField(LISTENER_LIST + "<" + className + "Aggregates>", "aggregates",
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+        for (Method method : sampled.keySet()) {
+            writer.writeField(RUNTIME_PACKAGE + "PropertySampler",
+                    getSamplerFieldName(method), Modifier.PRIVATE, Modifier.FINAL);
+        }
+        if (annotation.snapshot()) {
+            writeSnapshotFields(writer);
+        }
+        if (annotation.singleWriter()) {
+            writeSingleWriterFields(writer);
+        }
+        if (annotation.journal()) {
+            writeJournalFields(writer);
+        }
+        if (annotation.sharedMemory()) {
+            writer.writeField(RUNTIME_PACKAGE + "SharedRegion", "sharedRegion",
+                    Modifier.PRIVATE, Modifier.VOLATILE);
+        }
+        writeConstructors(writer, annotation, constructors, methods, indexed, aggregated,
+                sampled, className);
+        writeWrappedSetters(writer, annotation, methods, getters, indexed, aggregated,
+                sampled, className);
+        for (Method method : methods) {
+            writeListenerManagement(writer, method);
+        }
+        if (annotation.snapshot()) {
+            writeSnapshotMethods(writer, getSnapshotGetters(getters));
+            writeSnapshotClass(writer, getSnapshotGetters(getters));
+        }
+        if (annotation.singleWriter()) {
+            writeSingleWriterMethods(writer, className);
+        }
+        if (!indexed.isEmpty()) {
+            writeRegistrationMethod(writer, className + "Index", "indexes", "add");
+            writeRegistrationMethod(writer, className + "Index", "indexes", "remove");
+        }
+        if (!aggregated.isEmpty()) {
+            writeRegistrationMethod(writer, className + "Aggregates", "aggregates", "add");
+            writeRegistrationMethod(writer, className + "Aggregates", "aggregates", "remove");
+        }
+        for (Method method : sampled.keySet()) {
+            writer.writeMethodDeclarationStart(RUNTIME_PACKAGE + "PropertySampler",
+                    "get" + method.getName().substring(3) + "Sampler", Modifier.PUBLIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write(getSamplerFieldName(method)).writeStatementEnd();
             writer.writeBlockEnd();
-        } catch (Exception ex) {
-            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write observablemodel file: " + ex.getMessage());
         }
+        if (annotation.journal()) {
+            writeJournalMethods(writer, annotation, methods);
+            writeJournalReplayer(writer, className);
+        }
+        if (annotation.sharedMemory()) {
+            writeShareMethod(writer, methods, getters);
+            writeSharedView(writer, methods, getters);
+        }
+        writeInterfaces(writer, methods, annotation.oldValue());
+        writer.writeBlockEnd();
     }
 
     private void writeListenerFields(final SourceFileWriter writer,
             final List<Method> methods) throws IOException {
         for (Method method : methods) {
-            writer.writeField("java.util.List<" + method.getName().substring(3) + "Listener>",
+            writer.writeField(LISTENER_LIST + "<" + method.getName().substring(3) + "Listener>",
                     method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Listeners",
                     Modifier.PRIVATE, Modifier.FINAL);
         }
     }
 
     private void writeConstructors(final SourceFileWriter writer,
-            final List<Constructor> constructors, final List<Method> methods,
-            final String className) throws IOException {
+            final ObservableModel annotation, final List<Constructor> constructors,
+            final List<Method> methods, final List<Method> indexed, final List<Method> aggregated,
+            final Map<Method, Integer> sampled, final String className) throws IOException {
         for (Constructor constructor : constructors) {
             writer.writeConstructorDeclarationStart(className);
             for (Parameter param : constructor.getParameters()) {
@@ -154,24 +560,64 @@ public class ObservableProcessor extends AbstractProcessor {
             writer.writeMethodCallEnd();
             for (Method method : methods) {
                 writer.writeFieldAssignment(method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Listeners",
-                        "new java.util.ArrayList<>()");
+                        "new " + LISTENER_LIST + "<>()");
+            }
+            if (!indexed.isEmpty()) {
+                writer.writeFieldAssignment("indexes",
+                        "new " + LISTENER_LIST + "<>()");
+            }
+            if (!aggregated.isEmpty()) {
+                writer.writeFieldAssignment("aggregates",
+                        "new " + LISTENER_LIST + "<>()");
+            }
+            for (Map.Entry<Method, Integer> entry : sampled.entrySet()) {
+                writer.writeFieldAssignment(getSamplerFieldName(entry.getKey()), "new "
+                        + RUNTIME_PACKAGE + "PropertySampler(" + entry.getValue() + ")");
+            }
+            if (annotation.snapshot()) {
+                writer.writeMethodCallStart("publishSnapshot").writeMethodCallEnd();
+            }
+            if (annotation.singleWriter()) {
+                writer.writeFieldAssignment("ownerThread", "Thread.currentThread()");
+                writer.writeFieldAssignment("pendingChanges",
+                        "new java.util.concurrent.ConcurrentLinkedQueue<>()");
+                writer.writeFieldAssignment("drainScheduled",
+                        "new java.util.concurrent.atomic.AtomicBoolean()");
             }
             writer.writeBlockEnd();
         }
     }
 
     private void writeWrappedSetters(final SourceFileWriter writer,
-            final List<Method> methods, final boolean oldValue) throws IOException {
+            final ObservableModel annotation, final List<Method> methods,
+            final List<Method> getters, final List<Method> indexed,
+            final List<Method> aggregated, final Map<Method, Integer> sampled,
+            final String className) throws IOException {
+        final boolean oldValue = annotation.oldValue();
         for (Method method : methods) {
             writer.writeMethodDeclarationStart(method.getReturnType(), method.getName(), method.getModifiers().toArray(new Modifier[]{}));
             for (Parameter param : method.getParameters()) {
                 writer.writeMethodParameter(param.getAnnotations(), param.getType(), param.getName(), Modifier.FINAL);
             }
             writer.writeMethodDeclarationEnd();
+            if (annotation.singleWriter()) {
+                final StringBuilder arguments = new StringBuilder();
+                for (Parameter param : method.getParameters()) {
+                    if (arguments.length() > 0) {
+                        arguments.append(", ");
+                    }
+                    arguments.append(param.getName());
+                }
+                writer.writeIfStart("Thread.currentThread() != ownerThread");
+                writer.writeStatement("enqueueChange(new Runnable() { @Override public void run() { "
+                        + className + ".this." + method.getName() + "(" + arguments + "); } })");
+                writer.writeStatement("return");
+                writer.writeIfEnd();
+            }
             if (oldValue) {
             writer.writeDeclarationAndAssignment(method.getParameters().get(0).getType(),
                     "oldValue",
-                    "get" + method.getName().substring(3) + "()",
+                    getGetterName(method, getters) + "()",
                         Modifier.FINAL);
             }
             writer.writeSuperMethodStart(method.getName());
@@ -181,14 +627,48 @@ public class ObservableProcessor extends AbstractProcessor {
             writer.writeMethodCallEnd();
             writer.writeDeclarationAndAssignment(method.getParameters().get(0).getType(),
                     "newValue",
-                    "get" + method.getName().substring(3) + "()",
+                    getGetterName(method, getters) + "()",
                     Modifier.FINAL);
-            writer.writeMethodCallStart("fire" + method.getName().substring(3) + "Listener");
-            if (oldValue) {
-                writer.writeMethodCallParameter("oldValue");
+            if (annotation.sharedMemory() && isShared(method)) {
+                writer.writeDeclarationAndAssignment(RUNTIME_PACKAGE + "SharedRegion",
+                        "region", "sharedRegion", Modifier.FINAL);
+                writer.writeIfStart("region != null");
+                writer.writeStatement("region.beginWrite()");
+                writer.writeTryStart();
+                writer.writeStatement(getSharedAccessor(method, "put") + "("
+                        + getSharedConstant(method) + ", newValue)");
+                writer.writeFinallyStart();
+                writer.writeStatement("region.endWrite()");
+                writer.writeTryEnd();
+                writer.writeIfEnd();
             }
-            writer.writeMethodCallParameter("newValue");
-            writer.writeMethodCallEnd();
+            if (indexed.contains(method)) {
+                writeDependentNotification(writer, method, className + "Index", "indexes");
+            }
+            if (aggregated.contains(method)) {
+                writeDependentNotification(writer, method, className + "Aggregates", "aggregates");
+            }
+            if (sampled.containsKey(method)) {
+                writer.writeStatement(getSamplerFieldName(method) + ".record("
+                        + "System.currentTimeMillis(), " + getAggregateValue(method, "newValue") + ")");
+            }
+            if (annotation.journal() && isJournalled(method)) {
+                writer.writeDeclarationAndAssignment(RUNTIME_PACKAGE + "ChangeJournal",
+                        "currentJournal", "journal", Modifier.FINAL);
+                writer.writeIfStart("currentJournal != null");
+                writer.writeMethodCallStart("currentJournal.append")
+                        .writeMethodCallParameter("journalId")
+                        .writeMethodCallParameter(getJournalConstant(method))
+                        .writeMethodCallParameter("newValue")
+                        .writeMethodCallEnd();
+                writer.writeIfEnd();
+            }
+            if (annotation.snapshot()) {
+                writer.writeMethodCallStart("publishSnapshot").writeMethodCallEnd();
+            }
+            writeDispatch(writer, method.getName().substring(3) + "Listener",
+                    getListenerFieldName(method), getListenerMethodName(method) + "("
+                    + (oldValue ? "oldValue, " : "") + "newValue)");
             writer.writeBlockEnd();
         }
     }
@@ -212,48 +692,1268 @@ public class ObservableProcessor extends AbstractProcessor {
         writer.writeBlockEnd();
     }
 
-    private void writeFireListenerMethod(final SourceFileWriter writer, final Method method, final boolean oldValue) throws IOException {
-        writer.writeMethodDeclarationStart("void", "fire" + method.getName().substring(3) + "Listener", Modifier.PRIVATE);
-        if (oldValue) {
-            writer.writeMethodParameter("",
-                    method.getParameters().get(0).getType(),
-                    "oldValue", Modifier.FINAL);
+    /**
+     * Writes a loop notifying each listener in a {@code ListenerList}. The list's current array
+     * is indexed directly, so dispatching doesn't allocate an iterator.
+     *
+     * @param writer The writer to write to.
+     * @param listenerType The type of listener held in the list.
+     * @param fieldName The name of the field holding the list.
+     * @param call The method call to make on each listener.
+     * @throws IOException If the operation failed.
+     */
+    private void writeDispatch(final SourceFileWriter writer, final String listenerType,
+            final String fieldName, final String call) throws IOException {
+        writeDispatch(writer, listenerType, fieldName, "current"
+                + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1), call);
+    }
+
+    /**
+     * Writes a loop notifying each listener in a {@code ListenerList}, copying the list's
+     * current array into a local with the given name.
+     *
+     * @param writer The writer to write to.
+     * @param listenerType The type of listener held in the list.
+     * @param list An expression giving the list.
+     * @param current The name of the local to hold the list's current array.
+     * @param call The method call to make on each listener.
+     * @throws IOException If the operation failed.
+     */
+    private void writeDispatch(final SourceFileWriter writer, final String listenerType,
+            final String list, final String current, final String call) throws IOException {
+        writer.writeDeclarationAndAssignment("Object[]", current, list + ".getListeners()",
+                Modifier.FINAL);
+        writer.writeCountingForLoopStart("listenerIndex", current + ".length");
+        writer.writeStatement("((" + listenerType + ") " + current + "[listenerIndex])." + call);
+        writer.writeForLoopEnd();
+    }
+
+    private void writeSnapshotFields(final SourceFileWriter writer) throws IOException {
+        writer.writeField("Snapshot", "snapshot", Modifier.PRIVATE, Modifier.VOLATILE);
+        // Guards the batch depth, and serialises publication so a snapshot read before a
+        // concurrent write can't replace one read after it.
+        writer.writeDeclarationAndAssignment("Object", "snapshotLock", "new Object()",
+                Modifier.PRIVATE, Modifier.FINAL);
+        writer.writeField("int", "snapshotBatchDepth", Modifier.PRIVATE);
+    }
+
+    private void writeSnapshotMethods(final SourceFileWriter writer,
+            final List<Method> getters) throws IOException {
+        writer.writeMethodDeclarationStart("Snapshot", "getSnapshot", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("snapshot").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "beginSnapshotBatch", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeSynchronizedStart("snapshotLock");
+        writer.writeStatement("snapshotBatchDepth++");
+        writer.writeSynchronizedEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "commitSnapshotBatch", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeSynchronizedStart("snapshotLock");
+        writer.writeIfStart("snapshotBatchDepth == 0");
+        writer.writeStatement("throw new IllegalStateException(\"No snapshot batch in progress\")");
+        writer.writeIfEnd();
+        writer.writeStatement("snapshotBatchDepth--");
+        writer.writeMethodCallStart("publishSnapshot").writeMethodCallEnd();
+        writer.writeSynchronizedEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "publishSnapshot", Modifier.PRIVATE);
+        writer.writeMethodDeclarationEnd();
+        final StringBuilder values = new StringBuilder();
+        for (Method getter : getters) {
+            if (values.length() > 0) {
+                values.append(", ");
+            }
+            values.append(getter.getName()).append("()");
         }
-        writer.writeMethodParameter("",
-                method.getParameters().get(0).getType(),
-                "newValue", Modifier.FINAL);
-        writer.writeMethodDeclarationEnd();
-        writer.writeNewForLoopStart(method.getName().substring(3) + "Listener",
-                "listener",
-                method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Listeners",
-                "");
-        writer.writeMethodCallStart("listener." + method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Changed");
-        if (oldValue) {
-            writer.writeMethodCallParameter("oldValue");
+        writer.writeSynchronizedStart("snapshotLock");
+        writer.writeIfStart("snapshotBatchDepth == 0");
+        writer.writeAssignment("snapshot", "new Snapshot(" + values + ")");
+        writer.writeIfEnd();
+        writer.writeSynchronizedEnd();
+        writer.writeBlockEnd();
+    }
+
+    private void writeSnapshotClass(final SourceFileWriter writer,
+            final List<Method> getters) throws IOException {
+        writer.writeClassDeclaration("Snapshot", getClass(),
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        for (Method getter : getters) {
+            writer.writeField(getter.getReturnType(), getPropertyName(getter),
+                    Modifier.PRIVATE, Modifier.FINAL);
         }
-        writer.writeMethodCallParameter("newValue");
-        writer.writeMethodCallEnd();
+
+        writer.writeConstructorDeclarationStart("Snapshot");
+        for (Method getter : getters) {
+            writer.writeMethodParameter("", getter.getReturnType(), getPropertyName(getter),
+                    Modifier.FINAL);
+        }
+        writer.writeMethodDeclarationEnd();
+        for (Method getter : getters) {
+            writer.writeFieldAssignment(getPropertyName(getter), getPropertyName(getter));
+        }
+        writer.writeBlockEnd();
+
+        for (Method getter : getters) {
+            writer.writeMethodDeclarationStart(getter.getReturnType(), getter.getName(),
+                    Modifier.PUBLIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write(getPropertyName(getter)).writeStatementEnd();
+            writer.writeBlockEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeSingleWriterFields(final SourceFileWriter writer) throws IOException {
+        writer.writeField("Thread", "ownerThread", Modifier.PRIVATE, Modifier.VOLATILE);
+        writer.writeField("java.util.concurrent.Executor", "ownerExecutor",
+                Modifier.PRIVATE, Modifier.VOLATILE);
+        writer.writeField("java.util.Queue<Runnable>", "pendingChanges",
+                Modifier.PRIVATE, Modifier.FINAL);
+        writer.writeField("java.util.concurrent.atomic.AtomicBoolean", "drainScheduled",
+                Modifier.PRIVATE, Modifier.FINAL);
+    }
+
+    private void writeSingleWriterMethods(final SourceFileWriter writer,
+            final String className) throws IOException {
+        writer.writeMethodDeclarationStart("void", "setOwner", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "Thread", "thread", Modifier.FINAL);
+        writer.writeMethodParameter("", "java.util.concurrent.Executor", "executor", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("ownerThread", "java.util.Objects.requireNonNull(thread)");
+        writer.writeFieldAssignment("ownerExecutor", "executor");
+        writer.writeIfStart("executor != null && !pendingChanges.isEmpty()");
+        writer.writeStatement("scheduleDrain(executor)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("boolean", "isOwnerThread", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("Thread.currentThread() == ownerThread").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "applyPendingChanges", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("!isOwnerThread()");
+        writer.writeStatement("throw new IllegalStateException(\"Pending changes must be applied on the owner thread\")");
+        writer.writeIfEnd();
+        writer.writeStatement("drainScheduled.set(false)");
+        writer.writeDeclarationAndAssignment("Runnable", "change", "pendingChanges.poll()");
+        writer.writeWhileLoopStart("change != null");
+        writer.writeStatement("change.run()");
+        writer.writeAssignment("change", "pendingChanges.poll()");
         writer.writeForLoopEnd();
         writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "enqueueChange", Modifier.PRIVATE);
+        writer.writeMethodParameter("", "Runnable", "change", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("pendingChanges.add(change)");
+        writer.writeDeclarationAndAssignment("java.util.concurrent.Executor", "executor",
+                "ownerExecutor", Modifier.FINAL);
+        writer.writeIfStart("executor != null");
+        writer.writeStatement("scheduleDrain(executor)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "scheduleDrain", Modifier.PRIVATE);
+        writer.writeMethodParameter("", "java.util.concurrent.Executor", "executor", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("drainScheduled.compareAndSet(false, true)");
+        writer.writeStatement("executor.execute(new Runnable() { @Override public void run() { "
+                + className + ".this.applyPendingChanges(); } })");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
     }
 
-    private void writeInterfaces(final SourceFileWriter writer,
-            final List<Method> methods, final boolean oldValue) throws IOException {
+    private void writeJournalConstants(final SourceFileWriter writer,
+            final List<Method> methods) throws IOException {
+        final Set<String> written = new HashSet<>();
         for (Method method : methods) {
-            writeInterface(writer, method, oldValue);
+            if (isJournalled(method) && written.add(getJournalConstant(method))) {
+                writer.writeDeclarationAndAssignment("int", getJournalConstant(method),
+                        String.valueOf(getJournalId(method)),
+                        Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+            }
         }
     }
 
-    private void writeInterface(final SourceFileWriter writer,
-            final Method method, final boolean oldValue) throws IOException {
-        writer.writeInterfaceDeclaration(method.getName().substring(3) + "Listener", getClass(), Modifier.PUBLIC);
-        writer.writeMethodDeclarationStart("void", method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Changed");
-        if (oldValue) {
-            writer.writeMethodParameter("", method.getParameters().get(0).getType(), "oldValue");
+    private void writeSharedConstants(final SourceFileWriter writer,
+            final List<Method> methods) throws IOException {
+        int offset = 0;
+        for (Method method : methods) {
+            if (isShared(method)) {
+                // Every property gets an eight byte slot, which keeps all values aligned.
+                writer.writeDeclarationAndAssignment("int", getSharedConstant(method),
+                        String.valueOf(offset), Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+                offset += 8;
+            }
         }
-        writer.writeMethodParameter("", method.getParameters().get(0).getType(), "newValue");
-        writer.writeInterfaceMethodDeclarationEnd();
-        writer.writeInterfaceBlockEnd();
+        writer.writeDeclarationAndAssignment("int", "SHARED_REGION_SIZE", String.valueOf(offset),
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+    }
+
+    private void writeShareMethod(final SourceFileWriter writer,
+            final List<Method> methods, final List<Method> getters) throws IOException {
+        writer.writeMethodDeclarationStart("void", "shareTo", Modifier.PUBLIC);
+        writer.writeMethodParameter("", RUNTIME_PACKAGE + "SharedRegion", "region",
+                Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("region.beginWrite()");
+        writer.writeTryStart();
+        for (Method method : methods) {
+            if (isShared(method)) {
+                writer.writeStatement(getSharedAccessor(method, "put") + "("
+                        + getSharedConstant(method) + ", "
+                        + getGetterName(method, getters) + "())");
+            }
+        }
+        writer.writeFinallyStart();
+        writer.writeStatement("region.endWrite()");
+        writer.writeTryEnd();
+        writer.writeFieldAssignment("sharedRegion", "region");
+        writer.writeBlockEnd();
+    }
+
+    private void writeSharedView(final SourceFileWriter writer,
+            final List<Method> methods, final List<Method> getters) throws IOException {
+        final String region = RUNTIME_PACKAGE + "SharedRegion";
+        writer.writeClassDeclaration("SharedView", getClass(),
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        writer.writeField(region, "region", Modifier.PRIVATE, Modifier.FINAL);
+        for (Method method : methods) {
+            if (isShared(method)) {
+                writer.writeField(method.getParameters().get(0).getType(),
+                        getAggregateFieldName(method), Modifier.PRIVATE);
+            }
+        }
+
+        writer.writeConstructorDeclarationStart("SharedView", Modifier.PUBLIC);
+        writer.writeMethodParameter("", region, "region", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("region", "region");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("long", "getVersion", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("region.getVersion()").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("long", "refresh", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeWhileLoopStart("true");
+        writer.writeDeclarationAndAssignment("long", "version", "region.beginRead()",
+                Modifier.FINAL);
+        for (Method method : methods) {
+            if (isShared(method)) {
+                writer.writeAssignment(getAggregateFieldName(method),
+                        getSharedAccessor(method, "get") + "(" + getSharedConstant(method) + ")");
+            }
+        }
+        writer.writeIfStart("region.validateRead(version)");
+        writer.writeReturnStart().write("version").writeStatementEnd();
+        writer.writeIfEnd();
+        writer.writeForLoopEnd();
+        writer.writeBlockEnd();
+
+        for (Method method : methods) {
+            if (isShared(method)) {
+                writer.writeMethodDeclarationStart(method.getParameters().get(0).getType(),
+                        getGetterName(method, getters), Modifier.PUBLIC);
+                writer.writeMethodDeclarationEnd();
+                writer.writeReturnStart().write(getAggregateFieldName(method)).writeStatementEnd();
+                writer.writeBlockEnd();
+            }
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeJournalFields(final SourceFileWriter writer) throws IOException {
+        writer.writeField(RUNTIME_PACKAGE + "ChangeJournal", "journal",
+                Modifier.PRIVATE, Modifier.VOLATILE);
+        writer.writeField("int", "journalId", Modifier.PRIVATE, Modifier.VOLATILE);
+    }
+
+    private void writeJournalMethods(final SourceFileWriter writer,
+            final ObservableModel annotation, final List<Method> methods) throws IOException {
+        writer.writeMethodDeclarationStart("void", "setJournal", Modifier.PUBLIC);
+        writer.writeMethodParameter("", RUNTIME_PACKAGE + "ChangeJournal", "journal",
+                Modifier.FINAL);
+        writer.writeMethodParameter("", "int", "modelId", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("journalId", "modelId");
+        writer.writeFieldAssignment("journal", "journal");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "applyJournalRecord", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "propertyId", Modifier.FINAL);
+        writer.writeMethodParameter("", "Object", "value", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        for (Method method : methods) {
+            if (isJournalled(method)) {
+                final String type = method.getParameters().get(0).getType();
+                writer.writeIfStart("propertyId == " + getJournalConstant(method));
+                writer.writeSuperMethodStart(method.getName())
+                        .writeMethodCallParameter("(" + (BOXED_TYPES.containsKey(type)
+                                        ? BOXED_TYPES.get(type) : type) + ") value")
+                        .writeMethodCallEnd();
+                writer.writeIfEnd();
+            }
+        }
+        if (annotation.snapshot()) {
+            writer.writeMethodCallStart("publishSnapshot").writeMethodCallEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeJournalReplayer(final SourceFileWriter writer,
+            final String className) throws IOException {
+        writer.writeClassDeclarationStart("JournalReplayer", getClass(),
+                Modifier.PUBLIC, Modifier.STATIC);
+        writer.writeClassImplementsDeclaration(
+                RUNTIME_PACKAGE + "ChangeJournal.Handler");
+        writer.writeClassDeclarationEnd();
+        writer.writeField("java.util.Map<Integer, " + className + ">", "models",
+                Modifier.PRIVATE, Modifier.FINAL);
+
+        writer.writeConstructorDeclarationStart("JournalReplayer", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "java.util.Map<Integer, " + className + ">", "models",
+                Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("models", "models");
+        writer.writeBlockEnd();
+
+        writer.writeAnnotation("@Override");
+        writer.writeMethodDeclarationStart("void", "record", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "modelId", Modifier.FINAL);
+        writer.writeMethodParameter("", "int", "propertyId", Modifier.FINAL);
+        writer.writeMethodParameter("", "Object", "value", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment(className, "model", "models.get(modelId)",
+                Modifier.FINAL);
+        writer.writeIfStart("model != null");
+        writer.writeStatement("model.applyJournalRecord(propertyId, value)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+        writer.writeBlockEnd();
+    }
+
+    private void writeDependentNotification(final SourceFileWriter writer,
+            final Method method, final String dependentType, final String fieldName)
+            throws IOException {
+        writeDispatch(writer, dependentType, fieldName, getListenerMethodName(method) + "(this)");
+    }
+
+    private void writeRegistrationMethod(final SourceFileWriter writer,
+            final String dependentType, final String fieldName, final String action)
+            throws IOException {
+        writer.writeMethodDeclarationStart("void", action + fieldName.substring(0, 1).toUpperCase()
+                + fieldName.substring(1));
+        writer.writeMethodParameter("", dependentType, "dependent", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeMethodCallStart(fieldName + "." + action)
+                .writeMethodCallParameter("dependent")
+                .writeMethodCallEnd();
+        writer.writeBlockEnd();
+    }
+
+    private void writeIndex(final SourceFileWriter writer, final String packageName,
+            final String modelName, final List<Method> indexed, final List<Method> getters)
+            throws IOException {
+        final String className = modelName + "Index";
+        writer.writePackageDeclaration(packageName);
+        writer.writeClassDeclaration(className, getClass());
+        for (Method method : indexed) {
+            writer.writeField(getIndexMapType(modelName, method), getIndexFieldName(method),
+                    Modifier.PRIVATE, Modifier.FINAL);
+            // The value each model is currently indexed under. Setters racing on one model may
+            // notify out of order, so this is trusted over the values they pass.
+            writer.writeField(getIndexedValuesType(modelName, method),
+                    getIndexedValuesFieldName(method), Modifier.PRIVATE, Modifier.FINAL);
+        }
+        // Models currently in the index, used to ignore notifications that race with removal.
+        writer.writeField("java.util.Set<" + modelName + ">", "members",
+                Modifier.PRIVATE, Modifier.FINAL);
+
+        writer.writeConstructorDeclarationStart(className);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("members", "java.util.Collections.newSetFromMap("
+                + "new java.util.IdentityHashMap<" + modelName + ", Boolean>())");
+        for (Method method : indexed) {
+            writer.writeFieldAssignment(getIndexFieldName(method),
+                    "new java.util.concurrent.ConcurrentHashMap<>()");
+            writer.writeFieldAssignment(getIndexedValuesFieldName(method),
+                    "new java.util.IdentityHashMap<>()");
+        }
+        writer.writeBlockEnd();
+
+        writeIndexMembershipMethod(writer, modelName, indexed, getters, "add");
+        writeIndexMembershipMethod(writer, modelName, indexed, getters, "remove");
+
+        for (Method method : indexed) {
+            final String type = method.getParameters().get(0).getType();
+            final String suffix = method.getName().substring(3);
+            writer.writeMethodDeclarationStart("java.util.Set<" + modelName + ">",
+                    "getBy" + suffix, Modifier.PUBLIC);
+            writer.writeMethodParameter("", type, "value", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeDeclarationAndAssignment("java.util.Set<" + modelName + ">", "models",
+                    getIndexFieldName(method) + ".get(value)", Modifier.FINAL);
+            writer.writeReturnStart().write("models == null"
+                    + " ? java.util.Collections.<" + modelName + ">emptySet()"
+                    + " : java.util.Collections.unmodifiableSet(models)")
+                    .writeStatementEnd();
+            writer.writeBlockEnd();
+
+            writer.writeMethodDeclarationStart("void", getListenerMethodName(method),
+                    Modifier.SYNCHRONIZED);
+            writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeIfStart("!members.contains(model)");
+            // The model was removed after the setter started notifying its dependents.
+            writer.writeStatement("return");
+            writer.writeIfEnd();
+            // Re-read the property, so whichever notification runs last leaves the current value.
+            writer.writeStatement("remove" + suffix + "(model, "
+                    + getIndexedValuesFieldName(method) + ".get(model))");
+            writer.writeStatement("add" + suffix + "(model, model."
+                    + getGetterName(method, getters) + "())");
+            writer.writeBlockEnd();
+
+            writer.writeMethodDeclarationStart("void", "add" + suffix, Modifier.PRIVATE);
+            writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+            writer.writeMethodParameter("", type, "value", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeStatement(getIndexedValuesFieldName(method) + ".put(model, value)");
+            if (!BOXED_TYPES.containsKey(type)) {
+                // Concurrent maps can't contain null keys, so null values aren't indexed.
+                writer.writeIfStart("value == null");
+                writer.writeStatement("return");
+                writer.writeIfEnd();
+            }
+            writer.writeDeclarationAndAssignment("java.util.Set<" + modelName + ">", "models",
+                    getIndexFieldName(method) + ".get(value)");
+            writer.writeIfStart("models == null");
+            writer.writeAssignment("models", "java.util.Collections.newSetFromMap("
+                    + "new java.util.concurrent.ConcurrentHashMap<" + modelName
+                    + ", Boolean>())");
+            writer.writeStatement(getIndexFieldName(method) + ".put(value, models)");
+            writer.writeIfEnd();
+            writer.writeStatement("models.add(model)");
+            writer.writeBlockEnd();
+
+            writer.writeMethodDeclarationStart("void", "remove" + suffix, Modifier.PRIVATE);
+            writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+            writer.writeMethodParameter("", type, "value", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            if (!BOXED_TYPES.containsKey(type)) {
+                writer.writeIfStart("value == null");
+                writer.writeStatement("return");
+                writer.writeIfEnd();
+            }
+            writer.writeDeclarationAndAssignment("java.util.Set<" + modelName + ">", "models",
+                    getIndexFieldName(method) + ".get(value)", Modifier.FINAL);
+            writer.writeIfStart("models != null && models.remove(model) && models.isEmpty()");
+            writer.writeStatement(getIndexFieldName(method) + ".remove(value)");
+            writer.writeIfEnd();
+            writer.writeBlockEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeIndexMembershipMethod(final SourceFileWriter writer,
+            final String modelName, final List<Method> indexed, final List<Method> getters,
+            final String action) throws IOException {
+        writer.writeMethodDeclarationStart("void", action, Modifier.PUBLIC, Modifier.SYNCHRONIZED);
+        writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("members." + action + "(model)");
+        writer.writeStatement("model." + action + "Indexes(this)");
+        for (Method method : indexed) {
+            // Models are removed under the value they were indexed with, not their current one.
+            writer.writeStatement(action + method.getName().substring(3) + "(model, "
+                    + ("add".equals(action) ? "model." + getGetterName(method, getters) + "()"
+                    : getIndexedValuesFieldName(method) + ".remove(model)") + ")");
+        }
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+    }
+
+    private void writeAggregates(final SourceFileWriter writer, final String packageName,
+            final String modelName, final List<Method> aggregated, final Method groupBy,
+            final List<Method> getters) throws IOException {
+        final String className = modelName + "Aggregates";
+        final String aggregate = RUNTIME_PACKAGE + "Aggregate";
+        final String keyType;
+        final String keyExpression;
+        if (groupBy == null) {
+            keyType = "java.lang.Boolean";
+            keyExpression = "Boolean.TRUE";
+        } else {
+            final String type = groupBy.getParameters().get(0).getType();
+            keyType = BOXED_TYPES.containsKey(type) ? BOXED_TYPES.get(type) : type;
+            keyExpression = "model." + getGetterName(groupBy, getters) + "()";
+        }
+
+        writer.writePackageDeclaration(packageName);
+        writer.writeClassDeclaration(className, getClass());
+        writer.writeField("java.util.Map<" + keyType + ", Group>", "groups",
+                Modifier.PRIVATE, Modifier.FINAL);
+        writer.writeField("java.util.concurrent.ConcurrentMap<" + keyType + ", Totals>",
+                "totals", Modifier.PRIVATE, Modifier.FINAL);
+        // What each model currently contributes. Setters racing on one model may notify out of
+        // order, so deltas are taken from these rather than from the values the setters saw.
+        writer.writeField("java.util.Map<" + modelName + ", Contribution>", "contributions",
+                Modifier.PRIVATE, Modifier.FINAL);
+
+        writer.writeConstructorDeclarationStart(className);
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("groups", "new java.util.HashMap<>()");
+        writer.writeFieldAssignment("totals", "new java.util.concurrent.ConcurrentHashMap<>()");
+        writer.writeFieldAssignment("contributions", "new java.util.IdentityHashMap<>()");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "add", Modifier.PUBLIC, Modifier.SYNCHRONIZED);
+        writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("contributions.containsKey(model)");
+        writer.writeStatement("return");
+        writer.writeIfEnd();
+        writer.writeStatement("model.addAggregates(this)");
+        writer.writeDeclarationAndAssignment("Contribution", "contribution",
+                "new Contribution()", Modifier.FINAL);
+        writer.writeAssignment("contribution.key", keyExpression);
+        for (Method method : aggregated) {
+            writer.writeAssignment("contribution." + getAggregateFieldName(method),
+                    getAggregateValue(method, "model." + getGetterName(method, getters) + "()"));
+        }
+        writer.writeStatement("contributions.put(model, contribution)");
+        writer.writeStatement("addContribution(contribution)");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "remove", Modifier.PUBLIC, Modifier.SYNCHRONIZED);
+        writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment("Contribution", "contribution",
+                "contributions.remove(model)", Modifier.FINAL);
+        writer.writeIfStart("contribution != null");
+        writer.writeStatement("model.removeAggregates(this)");
+        writer.writeStatement("removeContribution(contribution)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+
+        if (groupBy == null) {
+            writer.writeMethodDeclarationStart("Totals", "get", Modifier.PUBLIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write("get(Boolean.TRUE)").writeStatementEnd();
+            writer.writeBlockEnd();
+        }
+
+        writer.writeMethodDeclarationStart("Totals", "get", Modifier.PUBLIC);
+        writer.writeMethodParameter("", keyType, "group", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment("Totals", "result", "totals.get(group)",
+                Modifier.FINAL);
+        writer.writeReturnStart().write("result == null ? Totals.EMPTY : result")
+                .writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("java.util.Map<" + keyType + ", Totals>", "getAll",
+                Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("java.util.Collections.unmodifiableMap(totals)")
+                .writeStatementEnd();
+        writer.writeBlockEnd();
+
+        for (Method method : aggregated) {
+            final String field = getAggregateFieldName(method);
+            writer.writeMethodDeclarationStart("void", getListenerMethodName(method),
+                    Modifier.SYNCHRONIZED);
+            writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeDeclarationAndAssignment("Contribution", "contribution",
+                    "contributions.get(model)", Modifier.FINAL);
+            writer.writeIfStart("contribution == null");
+            // The model was removed after the setter started notifying its dependents.
+            writer.writeStatement("return");
+            writer.writeIfEnd();
+            // Re-read the property, so whichever notification runs last leaves the current value.
+            writer.writeDeclarationAndAssignment(getContributionType(method), "value",
+                    getAggregateValue(method, "model." + getGetterName(method, getters) + "()"),
+                    Modifier.FINAL);
+            writer.writeDeclarationAndAssignment("Group", "group",
+                    "contribution.key == null ? null : groups.get(contribution.key)",
+                    Modifier.FINAL);
+            writer.writeIfStart("group != null");
+            writer.writeStatement("group." + field + ".remove(contribution." + field + ")");
+            writer.writeStatement("group." + field + ".add(value)");
+            writer.writeStatement("publish(contribution.key, group)");
+            writer.writeIfEnd();
+            writer.writeAssignment("contribution." + field, "value");
+            writer.writeBlockEnd();
+        }
+
+        if (groupBy != null) {
+            writer.writeMethodDeclarationStart("void", getListenerMethodName(groupBy),
+                    Modifier.SYNCHRONIZED);
+            writer.writeMethodParameter("", modelName, "model", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeDeclarationAndAssignment("Contribution", "contribution",
+                    "contributions.get(model)", Modifier.FINAL);
+            writer.writeIfStart("contribution == null");
+            writer.writeStatement("return");
+            writer.writeIfEnd();
+            writer.writeStatement("removeContribution(contribution)");
+            writer.writeAssignment("contribution.key", keyExpression);
+            writer.writeStatement("addContribution(contribution)");
+            writer.writeBlockEnd();
+        }
+
+        writer.writeMethodDeclarationStart("void", "addContribution", Modifier.PRIVATE);
+        writer.writeMethodParameter("", "Contribution", "contribution", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("contribution.key == null");
+        writer.writeStatement("return");
+        writer.writeIfEnd();
+        writer.writeDeclarationAndAssignment("Group", "group", "groups.get(contribution.key)");
+        writer.writeIfStart("group == null");
+        writer.writeAssignment("group", "new Group()");
+        writer.writeStatement("groups.put(contribution.key, group)");
+        writer.writeIfEnd();
+        writer.writeStatement("group.count++");
+        for (Method method : aggregated) {
+            writer.writeStatement("group." + getAggregateFieldName(method) + ".add(contribution."
+                    + getAggregateFieldName(method) + ")");
+        }
+        writer.writeStatement("publish(contribution.key, group)");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "removeContribution", Modifier.PRIVATE);
+        writer.writeMethodParameter("", "Contribution", "contribution", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeDeclarationAndAssignment("Group", "group",
+                "contribution.key == null ? null : groups.get(contribution.key)", Modifier.FINAL);
+        writer.writeIfStart("group == null");
+        writer.writeStatement("return");
+        writer.writeIfEnd();
+        writer.writeStatement("group.count--");
+        for (Method method : aggregated) {
+            writer.writeStatement("group." + getAggregateFieldName(method) + ".remove(contribution."
+                    + getAggregateFieldName(method) + ")");
+        }
+        writer.writeIfStart("group.count == 0");
+        writer.writeStatement("groups.remove(contribution.key)");
+        writer.writeStatement("totals.remove(contribution.key)");
+        writer.writeStatement("return");
+        writer.writeIfEnd();
+        writer.writeStatement("publish(contribution.key, group)");
+        writer.writeBlockEnd();
+
+        final StringBuilder snapshots = new StringBuilder("group.count");
+        for (Method method : aggregated) {
+            snapshots.append(", group.").append(getAggregateFieldName(method))
+                    .append(".snapshot()");
+        }
+        writer.writeMethodDeclarationStart("void", "publish", Modifier.PRIVATE);
+        writer.writeMethodParameter("", keyType, "key", Modifier.FINAL);
+        writer.writeMethodParameter("", "Group", "group", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("totals.put(key, new Totals(" + snapshots + "))");
+        writer.writeBlockEnd();
+
+        writer.writeClassDeclaration("Group", getClass(), Modifier.PRIVATE, Modifier.STATIC);
+        writer.writeField("long", "count");
+        for (Method method : aggregated) {
+            final String type = method.getParameters().get(0).getType();
+            // Integral properties are summed as longs, so they stay exact past 2^53.
+            writer.writeDeclarationAndAssignment(aggregate, getAggregateFieldName(method),
+                    "new " + aggregate + "(" + !("float".equals(type) || "double".equals(type))
+                    + ")", Modifier.FINAL);
+        }
+        writer.writeBlockEnd();
+
+        writer.writeClassDeclaration("Contribution", getClass(), Modifier.PRIVATE,
+                Modifier.STATIC);
+        writer.writeField(keyType, "key");
+        for (Method method : aggregated) {
+            writer.writeField(getContributionType(method), getAggregateFieldName(method));
+        }
+        writer.writeBlockEnd();
+
+        writeTotalsClass(writer, aggregated);
+        writer.writeBlockEnd();
+    }
+
+    private void writeTable(final SourceFileWriter writer, final String packageName,
+            final String modelName, final List<Method> methods, final List<Method> getters)
+            throws IOException {
+        final String className = modelName + "Table";
+        writer.writePackageDeclaration(packageName);
+        writer.writeClassDeclaration(className, getClass());
+        for (Method method : methods) {
+            writer.writeField(getColumnType(method), getAggregateFieldName(method),
+                    Modifier.PRIVATE);
+        }
+        writeListenerFields(writer, methods);
+        for (Method method : methods) {
+            // Listeners registered for single rows, indexed by row and grown as rows gain them.
+            writer.writeField(LISTENER_LIST + "<?>[]", getRowListenerFieldName(method),
+                    Modifier.PRIVATE);
+        }
+        writer.writeField("java.util.BitSet", "changedRows", Modifier.PRIVATE, Modifier.FINAL);
+        writer.writeField("int", "size", Modifier.PRIVATE);
+
+        writer.writeConstructorDeclarationStart(className);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("this(16)");
+        writer.writeBlockEnd();
+
+        writer.writeConstructorDeclarationStart(className);
+        writer.writeMethodParameter("", "int", "initialCapacity", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        for (Method method : methods) {
+            writer.writeFieldAssignment(getAggregateFieldName(method),
+                    "new " + getColumnType(method).replace("[]", "[initialCapacity]"));
+            writer.writeFieldAssignment(getListenerFieldName(method),
+                    "new " + LISTENER_LIST + "<>()");
+            writer.writeFieldAssignment(getRowListenerFieldName(method),
+                    "new " + LISTENER_LIST + "<?>[0]");
+        }
+        writer.writeFieldAssignment("changedRows", "new java.util.BitSet(initialCapacity)");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("int", "size", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("size").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("int", "addRow", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("size == " + getAggregateFieldName(methods.get(0)) + ".length");
+        writer.writeDeclarationAndAssignment("int", "capacity", "Math.max(16, size * 2)",
+                Modifier.FINAL);
+        for (Method method : methods) {
+            writer.writeAssignment(getAggregateFieldName(method), "java.util.Arrays.copyOf("
+                    + getAggregateFieldName(method) + ", capacity)");
+        }
+        writer.writeIfEnd();
+        writer.writeReturnStart().write("size++").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("Row", "getRow", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("newCursor().moveTo(row)").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        // A cursor isn't positioned on any row until moveTo is called, and can be moved
+        // repeatedly so that bulk scans only allocate one view.
+        writer.writeMethodDeclarationStart("Row", "newCursor", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("new Row()").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("java.util.BitSet", "getChangedRows", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("(java.util.BitSet) changedRows.clone()")
+                .writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "clearChangedRows", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("changedRows.clear()");
+        writer.writeBlockEnd();
+
+        for (Method method : methods) {
+            final String type = method.getParameters().get(0).getType();
+            final String field = getAggregateFieldName(method);
+            final String suffix = method.getName().substring(3);
+            final String value = BOXED_TYPES.containsKey(type)
+                    ? field + "[row]" : "(" + type + ") " + field + "[row]";
+
+            writer.writeAnnotationIf("@SuppressWarnings(\"unchecked\")", type.contains("<"));
+            writer.writeMethodDeclarationStart(type, getGetterName(method, getters),
+                    Modifier.PUBLIC);
+            writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeStatement("checkRow(row)");
+            writer.writeReturnStart().write(value).writeStatementEnd();
+            writer.writeBlockEnd();
+
+            writer.writeAnnotationIf("@SuppressWarnings(\"unchecked\")", type.contains("<"));
+            writer.writeMethodDeclarationStart("void", method.getName(), Modifier.PUBLIC);
+            writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+            writer.writeMethodParameter("", type, "value", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeStatement("checkRow(row)");
+            writer.writeDeclarationAndAssignment(type, "oldValue", value, Modifier.FINAL);
+            writer.writeAssignment(field + "[row]", "value");
+            writer.writeStatement("changedRows.set(row)");
+            writeDispatch(writer, suffix + "Listener", getListenerFieldName(method),
+                    getListenerMethodName(method) + "(row, oldValue, value)");
+            final String rowListeners = getRowListenerFieldName(method);
+            writer.writeIfStart("row < " + rowListeners + ".length && " + rowListeners
+                    + "[row] != null");
+            writeDispatch(writer, suffix + "Listener", rowListeners + "[row]",
+                    "currentRowListeners", getListenerMethodName(method)
+                    + "(row, oldValue, value)");
+            writer.writeIfEnd();
+            writer.writeBlockEnd();
+
+            writeListenerManagement(writer, method);
+            writeRowListenerManagement(writer, method);
+        }
+
+        writer.writeMethodDeclarationStart("void", "checkRow", Modifier.PRIVATE);
+        writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("row < 0 || row >= size");
+        writer.writeStatement("throw new IndexOutOfBoundsException(\"Row \" + row + \" of \" + size)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+
+        writeTableRowClass(writer, className, methods, getters);
+
+        for (Method method : methods) {
+            writer.writeInterfaceDeclaration(method.getName().substring(3) + "Listener",
+                    getClass(), Modifier.PUBLIC);
+            writer.writeMethodDeclarationStart("void", getListenerMethodName(method));
+            writer.writeMethodParameter("", "int", "row");
+            writer.writeMethodParameter("", method.getParameters().get(0).getType(), "oldValue");
+            writer.writeMethodParameter("", method.getParameters().get(0).getType(), "newValue");
+            writer.writeInterfaceMethodDeclarationEnd();
+            writer.writeInterfaceBlockEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeRowListenerManagement(final SourceFileWriter writer,
+            final Method method) throws IOException {
+        final String listenerType = method.getName().substring(3) + "Listener";
+        final String field = getRowListenerFieldName(method);
+
+        writer.writeAnnotation("@SuppressWarnings(\"unchecked\")");
+        writer.writeMethodDeclarationStart("void", "add" + listenerType, Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+        writer.writeMethodParameter("", listenerType, "listener", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("checkRow(row)");
+        writer.writeIfStart("row >= " + field + ".length");
+        writer.writeAssignment(field, "java.util.Arrays.copyOf(" + field + ", size)");
+        writer.writeIfEnd();
+        writer.writeDeclarationAndAssignment(LISTENER_LIST + "<" + listenerType + ">",
+                "listeners", "(" + LISTENER_LIST + "<" + listenerType + ">) " + field + "[row]");
+        writer.writeIfStart("listeners == null");
+        writer.writeAssignment("listeners", "new " + LISTENER_LIST + "<>()");
+        writer.writeAssignment(field + "[row]", "listeners");
+        writer.writeIfEnd();
+        writer.writeStatement("listeners.add(listener)");
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("void", "remove" + listenerType, Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+        writer.writeMethodParameter("", listenerType, "listener", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeIfStart("row >= 0 && row < " + field + ".length && " + field
+                + "[row] != null");
+        writer.writeStatement(field + "[row].remove(listener)");
+        writer.writeIfEnd();
+        writer.writeBlockEnd();
+    }
+
+    private void writeTableRowClass(final SourceFileWriter writer, final String tableName,
+            final List<Method> methods, final List<Method> getters) throws IOException {
+        writer.writeClassDeclaration("Row", getClass(), Modifier.PUBLIC, Modifier.FINAL);
+        writer.writeDeclarationAndAssignment("int", "row", "-1", Modifier.PRIVATE);
+
+        writer.writeMethodDeclarationStart("int", "getIndex", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("row").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("Row", "moveTo", Modifier.PUBLIC);
+        writer.writeMethodParameter("", "int", "row", Modifier.FINAL);
+        writer.writeMethodDeclarationEnd();
+        writer.writeStatement("checkRow(row)");
+        writer.writeFieldAssignment("row", "row");
+        writer.writeReturnStart().write("this").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        for (Method method : methods) {
+            final String type = method.getParameters().get(0).getType();
+            writer.writeMethodDeclarationStart(type, getGetterName(method, getters),
+                    Modifier.PUBLIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write(tableName + ".this." + getGetterName(method, getters)
+                    + "(row)").writeStatementEnd();
+            writer.writeBlockEnd();
+
+            writer.writeMethodDeclarationStart("void", method.getName(), Modifier.PUBLIC);
+            writer.writeMethodParameter("", type, "value", Modifier.FINAL);
+            writer.writeMethodDeclarationEnd();
+            writer.writeStatement(tableName + ".this." + method.getName() + "(row, value)");
+            writer.writeBlockEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeTotalsClass(final SourceFileWriter writer,
+            final List<Method> aggregated) throws IOException {
+        final String snapshot = RUNTIME_PACKAGE + "Aggregate.Snapshot";
+        writer.writeClassDeclaration("Totals", getClass(),
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        final StringBuilder empty = new StringBuilder("0");
+        for (Method method : aggregated) {
+            empty.append(", ").append(snapshot).append(".EMPTY");
+        }
+        writer.writeDeclarationAndAssignment("Totals", "EMPTY", "new Totals(" + empty + ")",
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        writer.writeField("long", "count", Modifier.PRIVATE, Modifier.FINAL);
+        for (Method method : aggregated) {
+            writer.writeField(snapshot, getAggregateFieldName(method),
+                    Modifier.PRIVATE, Modifier.FINAL);
+        }
+
+        writer.writeConstructorDeclarationStart("Totals");
+        writer.writeMethodParameter("", "long", "count", Modifier.FINAL);
+        for (Method method : aggregated) {
+            writer.writeMethodParameter("", snapshot, getAggregateFieldName(method),
+                    Modifier.FINAL);
+        }
+        writer.writeMethodDeclarationEnd();
+        writer.writeFieldAssignment("count", "count");
+        for (Method method : aggregated) {
+            writer.writeFieldAssignment(getAggregateFieldName(method),
+                    getAggregateFieldName(method));
+        }
+        writer.writeBlockEnd();
+
+        writer.writeMethodDeclarationStart("long", "getCount", Modifier.PUBLIC);
+        writer.writeMethodDeclarationEnd();
+        writer.writeReturnStart().write("count").writeStatementEnd();
+        writer.writeBlockEnd();
+
+        for (Method method : aggregated) {
+            writer.writeMethodDeclarationStart(snapshot, "get" + method.getName().substring(3),
+                    Modifier.PUBLIC);
+            writer.writeMethodDeclarationEnd();
+            writer.writeReturnStart().write(getAggregateFieldName(method)).writeStatementEnd();
+            writer.writeBlockEnd();
+        }
+        writer.writeBlockEnd();
+    }
+
+    private void writeInterfaces(final SourceFileWriter writer,
+            final List<Method> methods, final boolean oldValue) throws IOException {
+        for (Method method : methods) {
+            writeInterface(writer, method, oldValue);
+        }
+    }
+
+    private void writeInterface(final SourceFileWriter writer,
+            final Method method, final boolean oldValue) throws IOException {
+        writer.writeInterfaceDeclaration(method.getName().substring(3) + "Listener", getClass(), Modifier.PUBLIC);
+        writer.writeMethodDeclarationStart("void", method.getName().substring(3, 4).toLowerCase() + method.getName().substring(4) + "Changed");
+        if (oldValue) {
+            writer.writeMethodParameter("", method.getParameters().get(0).getType(), "oldValue");
+        }
+        writer.writeMethodParameter("", method.getParameters().get(0).getType(), "newValue");
+        writer.writeInterfaceMethodDeclarationEnd();
+        writer.writeInterfaceBlockEnd();
+    }
+
+    /**
+     * Determines whether the given method is a getter which should be included in snapshots.
+     *
+     * @param method The method to be checked.
+     * @return True if the method is a non-static, non-private, parameterless getter.
+     */
+    private boolean isGetter(final ExecutableElement method) {
+        final String name = method.getSimpleName().toString();
+        return method.getParameters().isEmpty()
+                && method.getReturnType().getKind() != TypeKind.VOID
+                && !method.getModifiers().contains(Modifier.STATIC)
+                && !method.getModifiers().contains(Modifier.PRIVATE)
+                && (name.startsWith("get") && name.length() > 3
+                || name.startsWith("is") && name.length() > 2);
+    }
+
+    /**
+     * Gets the name of the method called on listeners when the given setter's property changes.
+     *
+     * @param setter The setter to get the method name for.
+     * @return The property name with a lower case first letter, suffixed with 'Changed'.
+     */
+    private String getListenerMethodName(final Method setter) {
+        return setter.getName().substring(3, 4).toLowerCase() + setter.getName().substring(4)
+                + "Changed";
+    }
+
+    /**
+     * Gets the name of the table field holding the listeners registered for single rows of the
+     * given setter's property.
+     *
+     * @param setter The setter to get the field name for.
+     * @return The property name with a lower case first letter, suffixed with 'RowListeners'.
+     */
+    private String getRowListenerFieldName(final Method setter) {
+        return setter.getName().substring(3, 4).toLowerCase() + setter.getName().substring(4)
+                + "RowListeners";
+    }
+
+    /**
+     * Gets the name of the field holding the listeners for the given setter's property.
+     *
+     * @param setter The setter to get the field name for.
+     * @return The property name with a lower case first letter, suffixed with 'Listeners'.
+     */
+    private String getListenerFieldName(final Method setter) {
+        return setter.getName().substring(3, 4).toLowerCase() + setter.getName().substring(4)
+                + "Listeners";
+    }
+
+    /**
+     * Gets the name of the field holding the index for the given setter's property.
+     *
+     * @param setter The setter to get the index field name for.
+     * @return The property name prefixed with 'by'.
+     */
+    private String getIndexFieldName(final Method setter) {
+        return "by" + setter.getName().substring(3);
+    }
+
+    /**
+     * Gets the name of the field recording the value each model is indexed under for the given
+     * setter's property.
+     *
+     * @param setter The setter to get the field name for.
+     * @return The name of the field.
+     */
+    private String getIndexedValuesFieldName(final Method setter) {
+        return "indexed" + setter.getName().substring(3);
+    }
+
+    /**
+     * Gets the type of the map recording the value each model is indexed under for the given
+     * setter's property.
+     *
+     * @param modelName The name of the observable model class.
+     * @param setter The setter to get the map type for.
+     * @return The type of the map.
+     */
+    private String getIndexedValuesType(final String modelName, final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return "java.util.Map<" + modelName + ", "
+                + (BOXED_TYPES.containsKey(type) ? BOXED_TYPES.get(type) : type) + ">";
+    }
+
+    /**
+     * Gets the type of the map used to index models by the given setter's property.
+     *
+     * @param modelName The name of the observable model class.
+     * @param setter The setter to get the index type for.
+     * @return A concurrent map from property value to a set of models.
+     */
+    private String getIndexMapType(final String modelName, final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return "java.util.concurrent.ConcurrentMap<"
+                + (BOXED_TYPES.containsKey(type) ? BOXED_TYPES.get(type) : type)
+                + ", java.util.Set<" + modelName + ">>";
+    }
+
+    /**
+     * Gets the name of the field holding the aggregate for the given setter's property.
+     *
+     * @param setter The setter to get the aggregate field name for.
+     * @return The property name with a lower case first letter.
+     */
+    private String getAggregateFieldName(final Method setter) {
+        final String property = setter.getName().substring(3, 4).toLowerCase()
+                + setter.getName().substring(4);
+        return SourceVersion.isKeyword(property) ? property + "Value" : property;
+    }
+
+    /**
+     * Gets the name of the field holding the sampler for the given setter's property.
+     *
+     * @param setter The setter to get the sampler field name for.
+     * @return The property name with a lower case first letter, suffixed with 'Sampler'.
+     */
+    private String getSamplerFieldName(final Method setter) {
+        return setter.getName().substring(3, 4).toLowerCase() + setter.getName().substring(4)
+                + "Sampler";
+    }
+
+    /**
+     * Gets an expression converting a value of the given setter's property to a double.
+     *
+     * @param setter The setter whose property is being aggregated.
+     * @param value The expression giving the property value.
+     * @return An expression evaluating to the value as a double.
+     */
+    private String getAggregateValue(final Method setter, final String value) {
+        if ("boolean".equals(setter.getParameters().get(0).getType())) {
+            return "(" + value + " ? 1 : 0)";
+        }
+        return value;
+    }
+
+    /**
+     * Gets the type used to record a model's contribution to the aggregate of the given setter's
+     * property.
+     *
+     * @param setter The setter to get the type for.
+     * @return The property's type, or {@code int} for boolean properties.
+     */
+    private String getContributionType(final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return "boolean".equals(type) ? "int" : type;
+    }
+
+    /**
+     * Determines whether the given setter's property can be aggregated.
+     *
+     * @param setter The setter to be checked.
+     * @return True if the setter's value is a numeric primitive or a boolean, false otherwise.
+     */
+    private boolean isAggregatable(final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return BOXED_TYPES.containsKey(type) && !"char".equals(type);
+    }
+
+    /**
+     * Gets the type of the array used to store the given setter's property in a table.
+     *
+     * @param setter The setter to get the column type for.
+     * @return A primitive array type for primitive properties, otherwise an object array type.
+     */
+    private String getColumnType(final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return BOXED_TYPES.containsKey(type) ? type + "[]" : "Object[]";
+    }
+
+    /**
+     * Determines whether the given setter's property can be stored in a shared region.
+     *
+     * @param setter The setter to be checked.
+     * @return True if the setter's value is a primitive, false otherwise.
+     */
+    private boolean isShared(final Method setter) {
+        return BOXED_TYPES.containsKey(setter.getParameters().get(0).getType());
+    }
+
+    /**
+     * Gets the name of the constant holding the offset of the given setter's property in a
+     * shared region.
+     *
+     * @param setter The setter to get the constant name of.
+     * @return The property name in upper case with underscores, prefixed with 'SHARED_'.
+     */
+    private String getSharedConstant(final Method setter) {
+        return "SHARED_" + setter.getName().substring(3)
+                .replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * Gets the name of the shared region method used to access the given setter's property.
+     *
+     * @param setter The setter to get the accessor for.
+     * @param action The action to perform, either 'get' or 'put'.
+     * @return The name of the region method, qualified with 'region.'.
+     */
+    private String getSharedAccessor(final Method setter, final String action) {
+        final String type = setter.getParameters().get(0).getType();
+        return "region." + action + type.substring(0, 1).toUpperCase() + type.substring(1);
+    }
+
+    /**
+     * Determines whether changes made by the given setter can be recorded in a journal.
+     *
+     * @param setter The setter to be checked.
+     * @return True if the setter's value is a primitive or a string, false otherwise.
+     */
+    private boolean isJournalled(final Method setter) {
+        final String type = setter.getParameters().get(0).getType();
+        return BOXED_TYPES.containsKey(type) || "java.lang.String".equals(type);
+    }
+
+    /**
+     * Gets the name of the constant holding the journal ID of the given setter's property.
+     *
+     * @param setter The setter to get the constant name of.
+     * @return The property name in upper case with underscores, prefixed with 'PROPERTY_'.
+     */
+    private String getJournalConstant(final Method setter) {
+        return "PROPERTY_" + setter.getName().substring(3)
+                .replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * Gets the journal ID of the given setter's property. IDs are derived from the property name
+     * so they remain stable when setters are added, removed or reordered, but must be checked for
+     * collisions as they are only 15 bits wide.
+     *
+     * @param setter The setter to get the ID of.
+     * @return The ID used for the setter's property in journal records.
+     */
+    private int getJournalId(final Method setter) {
+        return getJournalConstant(setter).hashCode() & Short.MAX_VALUE;
+    }
+
+    /**
+     * Gets the name of the getter corresponding to the given setter.
+     *
+     * @param setter The setter to find a getter for.
+     * @param getters The getters declared by the model.
+     * @return The name of the 'is' getter for the setter's property if one is declared,
+     * otherwise the name of its 'get' getter.
+     */
+    private String getGetterName(final Method setter, final List<Method> getters) {
+        for (Method getter : getters) {
+            if (getter.getName().equals("is" + setter.getName().substring(3))) {
+                return getter.getName();
+            }
+        }
+        return "get" + setter.getName().substring(3);
+    }
+
+    /**
+     * Gets the getters to include in snapshots. Where a property has both an {@code isXxx} and a
+     * {@code getXxx} getter, only the former is included, matching {@link #getGetterName}.
+     *
+     * @param getters All getters of the model.
+     * @return The getters with at most one for each property.
+     */
+    private List<Method> getSnapshotGetters(final List<Method> getters) {
+        final Set<String> names = new HashSet<>();
+        for (Method getter : getters) {
+            names.add(getter.getName());
+        }
+        final List<Method> result = new ArrayList<>(getters.size());
+        for (Method getter : getters) {
+            if (!getter.getName().startsWith("get")
+                    || !names.contains("is" + getter.getName().substring(3))) {
+                result.add(getter);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the name of the property exposed by the given getter.
+     *
+     * @param getter The getter to get the property name of.
+     * @return The getter's name without its prefix, and with a lower case first letter.
+     */
+    private String getPropertyName(final Method getter) {
+        final String name = getter.getName().substring(getter.getName().startsWith("is") ? 2 : 3);
+        final String property = name.substring(0, 1).toLowerCase() + name.substring(1);
+        return SourceVersion.isKeyword(property) ? property + "Value" : property;
     }
 
     /**
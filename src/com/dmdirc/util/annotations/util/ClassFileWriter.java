@@ -0,0 +1,637 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for Java class files, supporting just enough of the format to emit simple
+ * generated classes: fields, methods made up of straight-line code, generic signatures, thrown
+ * exceptions, and runtime-visible marker annotations. Classes are written in the Java 7 format.
+ *
+ * <p>Names are given in internal form (for example {@code java/lang/String}), and types as
+ * descriptors (for example {@code Ljava/lang/String;}).
+ */
+public class ClassFileWriter {
+
+    /** Access flag for public members. */
+    public static final int ACC_PUBLIC = 0x0001;
+
+    /** Access flag for private members. */
+    public static final int ACC_PRIVATE = 0x0002;
+
+    /** Access flag for protected members. */
+    public static final int ACC_PROTECTED = 0x0004;
+
+    /** Access flag for final classes and members. */
+    public static final int ACC_FINAL = 0x0010;
+
+    /** Access flag for synchronized methods. */
+    public static final int ACC_SYNCHRONIZED = 0x0020;
+
+    /** Access flag which must be set on all classes. */
+    private static final int ACC_SUPER = 0x0020;
+
+    /** The major version of the class file format for Java 7. */
+    private static final int MAJOR_VERSION = 51;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int FLOAD = 0x17;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ILOAD_0 = 0x1a;
+    private static final int DUP = 0x59;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+
+    /** The constant pool, written as it is built. */
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+
+    /** Output stream used to write to the constant pool. */
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+
+    /** Indices of the constants written so far, keyed on a description of their contents. */
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+
+    /** The number of entries used in the constant pool, plus one. */
+    private int constantCount = 1;
+
+    /** The access flags of the class. */
+    private final int access;
+
+    /** The constant pool index of the class. */
+    private final int thisClass;
+
+    /** The constant pool index of the superclass. */
+    private final int superClass;
+
+    /** The serialised fields of the class. */
+    private final List<byte[]> fields = new ArrayList<>();
+
+    /** The serialised methods of the class. */
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /** The descriptors of the runtime-visible annotations of the class. */
+    private final List<String> annotations = new ArrayList<>();
+
+    /**
+     * Creates a new instance of {@link ClassFileWriter}.
+     *
+     * @param access The access flags of the class.
+     * @param name The internal name of the class.
+     * @param superName The internal name of the superclass.
+     * @throws IOException If the constant pool couldn't be written.
+     */
+    public ClassFileWriter(final int access, final String name, final String superName)
+            throws IOException {
+        this.access = access | ACC_SUPER;
+        this.thisClass = classConstant(name);
+        this.superClass = classConstant(superName);
+    }
+
+    /**
+     * Adds a runtime-visible annotation without any values to the class.
+     *
+     * @param descriptor The descriptor of the annotation type.
+     * @throws IOException If the constant pool couldn't be written.
+     */
+    public void addAnnotation(final String descriptor) throws IOException {
+        utf8Constant(descriptor);
+        annotations.add(descriptor);
+    }
+
+    /**
+     * Adds a field to the class.
+     *
+     * @param fieldAccess The access flags of the field.
+     * @param name The name of the field.
+     * @param descriptor The descriptor of the field's type.
+     * @param signature The generic signature of the field's type, or {@code null} if it is not
+     * generic.
+     * @throws IOException If the field couldn't be written.
+     */
+    public void addField(final int fieldAccess, final String name, final String descriptor,
+            final String signature) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(fieldAccess);
+        out.writeShort(utf8Constant(name));
+        out.writeShort(utf8Constant(descriptor));
+        if (signature == null) {
+            out.writeShort(0);
+        } else {
+            out.writeShort(1);
+            writeSignature(out, signature);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Starts a new method. The method is added to the class when
+     * {@link MethodWriter#end()} is called.
+     *
+     * @param methodAccess The access flags of the method.
+     * @param name The name of the method.
+     * @param descriptor The descriptor of the method.
+     * @param signature The generic signature of the method, or {@code null} if it is not generic.
+     * @param exceptions The internal names of the checked exceptions thrown by the method.
+     * @return A writer for the method's code.
+     */
+    public MethodWriter addMethod(final int methodAccess, final String name,
+            final String descriptor, final String signature, final List<String> exceptions) {
+        return new MethodWriter(methodAccess, name, descriptor, signature, exceptions);
+    }
+
+    /**
+     * Gets the bytes of the complete class file.
+     *
+     * @return The class file.
+     * @throws IOException If the class couldn't be serialised.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (!annotations.isEmpty()) {
+            utf8Constant("RuntimeVisibleAnnotations");
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(MAJOR_VERSION);
+        out.writeShort(constantCount);
+        constants.flush();
+        constantPool.writeTo(out);
+        out.writeShort(access);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+        out.writeShort(fields.size());
+        for (byte[] field : fields) {
+            out.write(field);
+        }
+        out.writeShort(methods.size());
+        for (byte[] method : methods) {
+            out.write(method);
+        }
+        if (annotations.isEmpty()) {
+            out.writeShort(0);
+        } else {
+            out.writeShort(1);
+            writeAnnotations(out, annotations);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a signature attribute.
+     *
+     * @param out The stream to write to.
+     * @param signature The signature to be written.
+     * @throws IOException If the attribute couldn't be written.
+     */
+    private void writeSignature(final DataOutputStream out, final String signature)
+            throws IOException {
+        out.writeShort(utf8Constant("Signature"));
+        out.writeInt(2);
+        out.writeShort(utf8Constant(signature));
+    }
+
+    /**
+     * Writes a runtime-visible annotations attribute, for annotations without any values.
+     *
+     * @param out The stream to write to.
+     * @param descriptors The descriptors of the annotation types.
+     * @throws IOException If the attribute couldn't be written.
+     */
+    private void writeAnnotations(final DataOutputStream out, final List<String> descriptors)
+            throws IOException {
+        out.writeShort(utf8Constant("RuntimeVisibleAnnotations"));
+        out.writeInt(2 + 4 * descriptors.size());
+        out.writeShort(descriptors.size());
+        for (String descriptor : descriptors) {
+            out.writeShort(utf8Constant(descriptor));
+            out.writeShort(0);
+        }
+    }
+
+    /**
+     * Gets the index of a UTF-8 constant, adding it to the pool if needed.
+     *
+     * @param value The value of the constant.
+     * @return The index of the constant.
+     * @throws IOException If the constant couldn't be written.
+     */
+    private int utf8Constant(final String value) throws IOException {
+        final String key = "U" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            constants.writeByte(CONSTANT_UTF8);
+            constants.writeUTF(value);
+            index = constantCount++;
+            constantIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a class constant, adding it to the pool if needed.
+     *
+     * @param name The internal name of the class.
+     * @return The index of the constant.
+     * @throws IOException If the constant couldn't be written.
+     */
+    private int classConstant(final String name) throws IOException {
+        final String key = "C" + name;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            final int nameIndex = utf8Constant(name);
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(nameIndex);
+            index = constantCount++;
+            constantIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a field or method reference constant, adding it to the pool if needed.
+     *
+     * @param tag The tag of the constant.
+     * @param owner The internal name of the class which declares the member.
+     * @param name The name of the member.
+     * @param descriptor The descriptor of the member.
+     * @return The index of the constant.
+     * @throws IOException If the constant couldn't be written.
+     */
+    private int memberConstant(final int tag, final String owner, final String name,
+            final String descriptor) throws IOException {
+        final String key = tag + owner + '.' + name + ':' + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            final int classIndex = classConstant(owner);
+            final String nameAndTypeKey = "N" + name + ':' + descriptor;
+            Integer nameAndTypeIndex = constantIndices.get(nameAndTypeKey);
+            if (nameAndTypeIndex == null) {
+                final int nameIndex = utf8Constant(name);
+                final int descriptorIndex = utf8Constant(descriptor);
+                constants.writeByte(CONSTANT_NAME_AND_TYPE);
+                constants.writeShort(nameIndex);
+                constants.writeShort(descriptorIndex);
+                nameAndTypeIndex = constantCount++;
+                constantIndices.put(nameAndTypeKey, nameAndTypeIndex);
+            }
+            constants.writeByte(tag);
+            constants.writeShort(classIndex);
+            constants.writeShort(nameAndTypeIndex);
+            index = constantCount++;
+            constantIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the number of local variable or operand stack slots used by a value of the given type.
+     *
+     * @param descriptor The descriptor of the type.
+     * @return The number of slots used.
+     */
+    public static int getSize(final String descriptor) {
+        return descriptor.equals("J") || descriptor.equals("D") ? 2 : 1;
+    }
+
+    /**
+     * Writes the straight-line code of a single method, keeping track of the stack depth.
+     */
+    public class MethodWriter {
+
+        private final int methodAccess;
+        private final String name;
+        private final String descriptor;
+        private final String signature;
+        private final List<String> exceptions;
+        private final List<String> methodAnnotations = new ArrayList<>();
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(code);
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        /**
+         * Creates a new method writer.
+         *
+         * @param methodAccess The access flags of the method.
+         * @param name The name of the method.
+         * @param descriptor The descriptor of the method.
+         * @param signature The generic signature of the method, or {@code null}.
+         * @param exceptions The internal names of the checked exceptions thrown by the method.
+         */
+        private MethodWriter(final int methodAccess, final String name, final String descriptor,
+                final String signature, final List<String> exceptions) {
+            this.methodAccess = methodAccess;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.exceptions = exceptions;
+        }
+
+        /**
+         * Adds a runtime-visible annotation without any values to the method.
+         *
+         * @param annotationDescriptor The descriptor of the annotation type.
+         */
+        public void addAnnotation(final String annotationDescriptor) {
+            methodAnnotations.add(annotationDescriptor);
+        }
+
+        /**
+         * Loads a local variable (including {@code this} and parameters) onto the stack.
+         *
+         * @param slot The index of the local variable.
+         * @param type The descriptor of the variable's type.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter load(final int slot, final String type) throws IOException {
+            final int opcode;
+            switch (type.charAt(0)) {
+                case 'J':
+                    opcode = LLOAD;
+                    break;
+                case 'F':
+                    opcode = FLOAD;
+                    break;
+                case 'D':
+                    opcode = DLOAD;
+                    break;
+                case 'L':
+                case '[':
+                    opcode = ALOAD;
+                    break;
+                default:
+                    opcode = ILOAD;
+                    break;
+            }
+            if (slot <= 3) {
+                out.writeByte(ILOAD_0 + (opcode - ILOAD) * 4 + slot);
+            } else if (slot <= 0xff) {
+                out.writeByte(opcode);
+                out.writeByte(slot);
+            } else {
+                out.writeByte(WIDE);
+                out.writeByte(opcode);
+                out.writeShort(slot);
+            }
+            maxLocals = Math.max(maxLocals, slot + getSize(type));
+            return push(getSize(type));
+        }
+
+        /**
+         * Reads a field of the object on top of the stack.
+         *
+         * @param owner The internal name of the class declaring the field.
+         * @param field The name of the field.
+         * @param type The descriptor of the field's type.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter getField(final String owner, final String field, final String type)
+                throws IOException {
+            out.writeByte(GETFIELD);
+            out.writeShort(memberConstant(CONSTANT_FIELDREF, owner, field, type));
+            return push(getSize(type) - 1);
+        }
+
+        /**
+         * Writes the value on top of the stack to a field of the object beneath it.
+         *
+         * @param owner The internal name of the class declaring the field.
+         * @param field The name of the field.
+         * @param type The descriptor of the field's type.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter putField(final String owner, final String field, final String type)
+                throws IOException {
+            out.writeByte(PUTFIELD);
+            out.writeShort(memberConstant(CONSTANT_FIELDREF, owner, field, type));
+            return push(-1 - getSize(type));
+        }
+
+        /**
+         * Creates a new, uninitialised instance of a class and pushes two references to it.
+         *
+         * @param type The internal name of the class.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter newInstance(final String type) throws IOException {
+            out.writeByte(NEW);
+            out.writeShort(classConstant(type));
+            push(1);
+            out.writeByte(DUP);
+            return push(1);
+        }
+
+        /**
+         * Invokes a constructor or superclass method.
+         *
+         * @param owner The internal name of the class declaring the method.
+         * @param method The name of the method.
+         * @param methodDescriptor The descriptor of the method.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter invokeSpecial(final String owner, final String method,
+                final String methodDescriptor) throws IOException {
+            out.writeByte(INVOKESPECIAL);
+            out.writeShort(memberConstant(CONSTANT_METHODREF, owner, method, methodDescriptor));
+            return push(getReturnSize(methodDescriptor) - 1 - getArgumentsSize(methodDescriptor));
+        }
+
+        /**
+         * Invokes an interface method.
+         *
+         * @param owner The internal name of the interface declaring the method.
+         * @param method The name of the method.
+         * @param methodDescriptor The descriptor of the method.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter invokeInterface(final String owner, final String method,
+                final String methodDescriptor) throws IOException {
+            final int arguments = getArgumentsSize(methodDescriptor);
+            out.writeByte(INVOKEINTERFACE);
+            out.writeShort(memberConstant(CONSTANT_INTERFACE_METHODREF, owner, method,
+                    methodDescriptor));
+            out.writeByte(arguments + 1);
+            out.writeByte(0);
+            return push(getReturnSize(methodDescriptor) - 1 - arguments);
+        }
+
+        /**
+         * Checks that the reference on top of the stack is of the given type.
+         *
+         * @param type The internal name of the class, or the descriptor of an array type.
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter checkCast(final String type) throws IOException {
+            out.writeByte(CHECKCAST);
+            out.writeShort(classConstant(type));
+            return this;
+        }
+
+        /**
+         * Returns the reference on top of the stack.
+         *
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter returnReference() throws IOException {
+            out.writeByte(ARETURN);
+            return push(-1);
+        }
+
+        /**
+         * Returns from a void method.
+         *
+         * @return This writer, for convenient chaining.
+         * @throws IOException If the instruction couldn't be written.
+         */
+        public MethodWriter returnVoid() throws IOException {
+            out.writeByte(RETURN);
+            return this;
+        }
+
+        /**
+         * Finishes the method and adds it to the class.
+         *
+         * @throws IOException If the method couldn't be written.
+         */
+        public void end() throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream method = new DataOutputStream(bytes);
+            method.writeShort(methodAccess);
+            method.writeShort(utf8Constant(name));
+            method.writeShort(utf8Constant(descriptor));
+            method.writeShort(1 + (exceptions.isEmpty() ? 0 : 1) + (signature == null ? 0 : 1)
+                    + (methodAnnotations.isEmpty() ? 0 : 1));
+
+            out.flush();
+            method.writeShort(utf8Constant("Code"));
+            method.writeInt(12 + code.size());
+            method.writeShort(maxStack);
+            method.writeShort(Math.max(maxLocals, 1 + getArgumentsSize(descriptor)));
+            method.writeInt(code.size());
+            code.writeTo(method);
+            method.writeShort(0);
+            method.writeShort(0);
+
+            if (!exceptions.isEmpty()) {
+                method.writeShort(utf8Constant("Exceptions"));
+                method.writeInt(2 + 2 * exceptions.size());
+                method.writeShort(exceptions.size());
+                for (String exception : exceptions) {
+                    method.writeShort(classConstant(exception));
+                }
+            }
+            if (signature != null) {
+                writeSignature(method, signature);
+            }
+            if (!methodAnnotations.isEmpty()) {
+                writeAnnotations(method, methodAnnotations);
+            }
+            methods.add(bytes.toByteArray());
+        }
+
+        /**
+         * Records a change in the depth of the operand stack.
+         *
+         * @param slots The number of slots pushed, or negative if slots were popped.
+         * @return This writer, for convenient chaining.
+         */
+        private MethodWriter push(final int slots) {
+            stack += slots;
+            maxStack = Math.max(maxStack, stack);
+            return this;
+        }
+
+    }
+
+    /**
+     * Gets the number of stack slots taken by the arguments of a method.
+     *
+     * @param descriptor The descriptor of the method.
+     * @return The number of slots used by the arguments.
+     */
+    private static int getArgumentsSize(final String descriptor) {
+        int size = 0;
+        int index = 1;
+        while (descriptor.charAt(index) != ')') {
+            final int start = index;
+            while (descriptor.charAt(index) == '[') {
+                index++;
+            }
+            if (descriptor.charAt(index) == 'L') {
+                index = descriptor.indexOf(';', index);
+            }
+            index++;
+            size += getSize(descriptor.substring(start, index));
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of stack slots taken by the return value of a method.
+     *
+     * @param descriptor The descriptor of the method.
+     * @return The number of slots used by the return value.
+     */
+    private static int getReturnSize(final String descriptor) {
+        final String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+        return returnType.equals("V") ? 0 : getSize(returnType);
+    }
+
+}
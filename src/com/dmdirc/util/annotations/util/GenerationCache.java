@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Persistent cache of the signatures of annotated elements, used to skip regenerating sources
+ * whose inputs have not changed since the last build. An element's signature covers its own
+ * annotations, supertypes and members (including their annotations, parameters and thrown
+ * types). Each signature is seeded with a digest of every class file making up the processors
+ * (the whole jar, or every class file in the directory they were loaded from) and of every
+ * processor option passed to the compiler, so upgrading the processors or changing an option
+ * such as the line ending causes all sources to be regenerated. If the processors' own classes
+ * can't be located, sources are always regenerated.
+ *
+ * <p>Skipping generation relies on the build tool putting the previous compiler output on the
+ * class path, as Ant's {@code javac} task does by default.
+ */
+public class GenerationCache {
+
+    /**
+     * Processor option giving the directory to store the cache in, normally somewhere under the
+     * build directory. If unset, sources are always regenerated.
+     */
+    public static final String OPTION = "com.dmdirc.annotations.cache";
+
+    /**
+     * The character set used to hash signatures.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The file the cache is stored in.
+     */
+    private final File file;
+
+    /**
+     * The simple name of the processor, used when reporting.
+     */
+    private final String generatorName;
+
+    /**
+     * The cached signature hashes, keyed on the name of the primary generated type.
+     */
+    private final Properties hashes = new Properties();
+
+    /**
+     * The digest of the processors' bytecode and options, used to seed each signature hash, or
+     * {@code null} if the bytecode couldn't be located.
+     */
+    private final byte[] generatorDigest;
+
+    /**
+     * The number of elements whose sources were reused.
+     */
+    private int hits;
+
+    /**
+     * The number of elements whose sources had to be generated.
+     */
+    private int misses;
+
+    /**
+     * Creates a new instance of {@link GenerationCache}, loading any existing cache from disk.
+     *
+     * @param directory The directory given by the {@link #OPTION} option.
+     * @param generator The processor which generates the sources.
+     * @param options All processor options passed to the compiler.
+     * @throws IOException If an existing cache couldn't be read.
+     */
+    public GenerationCache(final String directory, final Class<?> generator,
+            final Map<String, String> options) throws IOException {
+        this.file = new File(directory, generator.getName() + ".properties");
+        this.generatorName = generator.getSimpleName();
+        if (file.isFile()) {
+            try (InputStream stream = new FileInputStream(file)) {
+                hashes.load(stream);
+            }
+        }
+
+        final File codeSource = getCodeSource(generator);
+        if (codeSource == null) {
+            generatorDigest = null;
+        } else {
+            final MessageDigest digest = getDigest();
+            updateDigest(digest, codeSource);
+            for (Map.Entry<String, String> option
+                    : new TreeMap<String, String>(options).entrySet()) {
+                digest.update((option.getKey() + '=' + option.getValue() + '\n').getBytes(UTF_8));
+            }
+            generatorDigest = digest.digest();
+        }
+    }
+
+    /**
+     * Gets the jar or directory the given class was loaded from.
+     *
+     * @param type The class to locate.
+     * @return The class's code source, or {@code null} if it can't be located on disk.
+     */
+    private static File getCodeSource(final Class<?> type) {
+        final CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+        final URL location = codeSource == null ? null : codeSource.getLocation();
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return null;
+        }
+        try {
+            final File file = new File(location.toURI());
+            return file.exists() ? file : null;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a jar to a digest or, for a directory, the path and contents of every class file
+     * beneath it in a stable order.
+     *
+     * @param digest The digest to update.
+     * @param file The jar or directory to add.
+     * @throws IOException If a file couldn't be read.
+     */
+    private static void updateDigest(final MessageDigest digest, final File file)
+            throws IOException {
+        if (file.isDirectory()) {
+            final File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isDirectory() || child.getName().endsWith(".class")) {
+                        digest.update(child.getName().getBytes(UTF_8));
+                        updateDigest(digest, child);
+                    }
+                }
+            }
+            return;
+        }
+
+        try (InputStream stream = new FileInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Determines whether the sources generated for an element are up to date. This is the case
+     * if the element's signature matches the one cached by an earlier build, and the compiled
+     * classes of every generated type are still present. In either case, the element's current
+     * signature is recorded to be written out by {@link #write(Messager)}.
+     *
+     * @param filer The filer to use to look up compiled classes.
+     * @param element The annotated element.
+     * @param typeNames The fully-qualified names of the types generated for the element. The
+     * first is used as the key of the cache entry.
+     * @return True if generation can be skipped; false if the sources must be written.
+     */
+    public boolean isCurrent(final Filer filer, final Element element, final String... typeNames) {
+        if (generatorDigest == null) {
+            misses++;
+            return false;
+        }
+
+        final MessageDigest digest = getDigest();
+        digest.update(generatorDigest);
+        digest.update(getSignature(element).getBytes(UTF_8));
+        final String hash = toHex(digest.digest());
+        final boolean current = hash.equals(hashes.getProperty(typeNames[0]))
+                && classesExist(filer, typeNames);
+        hashes.setProperty(typeNames[0], hash);
+        if (current) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return current;
+    }
+
+    /**
+     * Gets the number of elements whose sources were reused.
+     *
+     * @return The number of cache hits.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of elements whose sources were regenerated.
+     *
+     * @return The number of cache misses.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Writes the cache back to disk, including entries for elements which were not seen in this
+     * compilation, and reports how many elements' sources were reused.
+     *
+     * @param messager The messager to report to.
+     */
+    public void write(final Messager messager) {
+        final File directory = file.getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        try (OutputStream stream = new FileOutputStream(file)) {
+            hashes.store(stream, null);
+        } catch (IOException ex) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to write generation cache: " + ex.getMessage());
+        }
+
+        if (hits > 0) {
+            messager.printMessage(Diagnostic.Kind.NOTE, generatorName + " reused the sources "
+                    + "generated for " + hits + " of " + (hits + misses)
+                    + " unchanged elements");
+        }
+    }
+
+    /**
+     * Checks whether the compiled classes of each of the given types exist.
+     *
+     * @param filer The filer to use to look up compiled classes.
+     * @param typeNames The fully-qualified names of the types to look for.
+     * @return True if every class exists; false otherwise.
+     */
+    private boolean classesExist(final Filer filer, final String... typeNames) {
+        for (String typeName : typeNames) {
+            final int index = typeName.lastIndexOf('.');
+            try {
+                final FileObject fileObject = filer.getResource(StandardLocation.CLASS_OUTPUT,
+                        index == -1 ? "" : typeName.substring(0, index),
+                        typeName.substring(index + 1) + ".class");
+                // Throws an exception if the class doesn't exist.
+                fileObject.openInputStream().close();
+            } catch (IOException | IllegalArgumentException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a string describing everything about an element which may affect the sources
+     * generated for it.
+     *
+     * @param element The element to describe.
+     * @return The element's signature.
+     */
+    private static String getSignature(final Element element) {
+        final StringBuilder builder = new StringBuilder();
+        appendSignature(builder, element);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the signature of an element, and of everything it encloses, to a builder.
+     *
+     * @param builder The builder to append to.
+     * @param element The element to describe.
+     */
+    private static void appendSignature(final StringBuilder builder, final Element element) {
+        builder.append(element.getKind()).append(' ')
+                .append(element.getModifiers()).append(' ')
+                .append(element.getAnnotationMirrors()).append(' ')
+                .append(element.getSimpleName()).append(' ')
+                .append(element.asType());
+
+        if (element instanceof TypeElement) {
+            final TypeElement type = (TypeElement) element;
+            builder.append(" extends ").append(type.getSuperclass())
+                    .append(" implements ").append(type.getInterfaces());
+        }
+
+        if (element instanceof ExecutableElement) {
+            final ExecutableElement method = (ExecutableElement) element;
+            builder.append('\n');
+            for (Element parameter : method.getParameters()) {
+                appendSignature(builder, parameter);
+            }
+            for (TypeMirror thrown : method.getThrownTypes()) {
+                builder.append(" throws ").append(thrown);
+            }
+        }
+
+        builder.append('\n');
+        for (Element child : element.getEnclosedElements()) {
+            appendSignature(builder, child);
+        }
+    }
+
+    /**
+     * Gets a new digest to hash signatures with.
+     *
+     * @return A new SHA-1 digest.
+     */
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Converts the given bytes to a lower-case hexadecimal string.
+     *
+     * @param bytes The bytes to convert.
+     * @return A hexadecimal representation of the bytes.
+     */
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            builder.append(Character.forDigit((value >> 4) & 0xF, 16))
+                    .append(Character.forDigit(value & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.util.Locale;
+
+/**
+ * The line endings which can be used in generated source files.
+ */
+public enum LineEnding {
+
+    /** A carriage return followed by a line feed. */
+    CRLF("\r\n"),
+    /** A single line feed. */
+    LF("\n");
+
+    /**
+     * Processor option giving the line ending to use in generated sources, either {@code crlf}
+     * (the default) or {@code lf}.
+     */
+    public static final String OPTION = "com.dmdirc.annotations.lineEnding";
+
+    /** The characters which end a line. */
+    private final String separator;
+
+    /**
+     * Creates a new line ending.
+     *
+     * @param separator The characters which end a line.
+     */
+    LineEnding(final String separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Gets the characters which end a line.
+     *
+     * @return The line separator.
+     */
+    public String getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Gets the line ending named by the value of the {@link #OPTION} option.
+     *
+     * @param value The value of the option, or {@code null} if it was not given.
+     * @return The corresponding line ending, or {@code null} if the value is not recognised.
+     */
+    public static LineEnding fromOption(final String value) {
+        if (value == null) {
+            return CRLF;
+        }
+
+        for (LineEnding lineEnding : values()) {
+            if (lineEnding.name().equals(value.toUpperCase(Locale.ROOT))) {
+                return lineEnding;
+            }
+        }
+        return null;
+    }
+
+}
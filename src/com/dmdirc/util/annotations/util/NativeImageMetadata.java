@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.Filer;
+import javax.tools.StandardLocation;
+
+/**
+ * Collects the types and resources generated by a processor, and writes GraalVM native-image
+ * metadata describing them so that native builds do not need hand-maintained configuration.
+ */
+public class NativeImageMetadata {
+
+    /**
+     * Processor option giving the directory (conventionally {@code groupId/artifactId}) beneath
+     * {@code META-INF/native-image} to write metadata to. If unset, no metadata is written.
+     */
+    public static final String OPTION = "com.dmdirc.annotations.nativeImage";
+
+    /**
+     * The root directory that native-image reads metadata from.
+     */
+    private static final String ROOT = "META-INF/native-image/";
+
+    /**
+     * The directory to write metadata to, relative to {@link #ROOT}, with a trailing slash.
+     */
+    private final String directory;
+
+    /**
+     * The fully-qualified names of types which need to be reflectively constructible.
+     */
+    private final Set<String> types = new TreeSet<>();
+
+    /**
+     * The names of resources which need to be included in the image.
+     */
+    private final Set<String> resources = new TreeSet<>();
+
+    /**
+     * Creates a new instance of {@link NativeImageMetadata}. Each processor should use a distinct
+     * name, as native-image merges every {@code reflect-config.json} beneath the root but the
+     * filer will only create each file once.
+     *
+     * @param directory The directory given by the {@link #OPTION} option.
+     * @param name The name of the subdirectory to write this processor's metadata to.
+     */
+    public NativeImageMetadata(final String directory, final String name) {
+        this.directory = (directory.endsWith("/") ? directory : directory + "/") + name + "/";
+    }
+
+    /**
+     * Adds a generated type, whose constructors and public methods will be registered for
+     * reflection.
+     *
+     * @param typeName The fully-qualified name of the type.
+     */
+    public void addType(final String typeName) {
+        types.add(typeName);
+    }
+
+    /**
+     * Adds a generated resource, which will be included in the image.
+     *
+     * @param resourceName The name of the resource, relative to the root of the class path.
+     */
+    public void addResource(final String resourceName) {
+        resources.add(resourceName);
+    }
+
+    /**
+     * Writes out {@code reflect-config.json} and, if any resources were added,
+     * {@code resource-config.json}.
+     *
+     * @param filer The filer to use to create the files.
+     * @throws IOException If the files couldn't be written.
+     */
+    public void write(final Filer filer) throws IOException {
+        if (!types.isEmpty()) {
+            try (Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                    ROOT + directory + "reflect-config.json").openWriter()) {
+                writer.write("[\n");
+                final Iterator<String> iterator = types.iterator();
+                while (iterator.hasNext()) {
+                    writer.write("  {\n");
+                    writer.write("    \"name\": " + getStringLiteral(iterator.next()) + ",\n");
+                    writer.write("    \"allDeclaredConstructors\": true,\n");
+                    writer.write("    \"allPublicMethods\": true\n");
+                    writer.write(iterator.hasNext() ? "  },\n" : "  }\n");
+                }
+                writer.write("]\n");
+            }
+        }
+
+        if (!resources.isEmpty()) {
+            try (Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                    ROOT + directory + "resource-config.json").openWriter()) {
+                writer.write("{\n");
+                writer.write("  \"resources\": {\n");
+                writer.write("    \"includes\": [\n");
+                final Iterator<String> iterator = resources.iterator();
+                while (iterator.hasNext()) {
+                    writer.write("      {\"pattern\": "
+                            + getStringLiteral("\\Q" + iterator.next() + "\\E") + "}");
+                    writer.write(iterator.hasNext() ? ",\n" : "\n");
+                }
+                writer.write("    ]\n");
+                writer.write("  }\n");
+                writer.write("}\n");
+            }
+        }
+    }
+
+    /**
+     * Gets a JSON string literal representing the given value.
+     *
+     * @param value The value to be represented.
+     * @return A quoted and escaped string literal.
+     */
+    private static String getStringLiteral(final String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+/**
+ * Records how long a processor spends on each round and each annotated type, and how much it
+ * generates, so the cost of annotation processing can be seen in a build. A summary is reported
+ * as a note once processing is over, and a full report can be written alongside the compiled
+ * classes in properties format.
+ *
+ * <p>Types are recorded on the compiler's thread, while generated sources may be recorded from
+ * any thread as they are rendered.
+ */
+public class ProcessorStats {
+
+    /**
+     * Processor option which, if set to {@code true}, records and reports statistics.
+     */
+    public static final String OPTION = "com.dmdirc.annotations.stats";
+
+    /**
+     * Processor option which, if set to {@code true} along with {@link #OPTION}, also writes a
+     * report to {@code META-INF/dmdirc/stats/} in the class output.
+     */
+    public static final String REPORT_OPTION = "com.dmdirc.annotations.statsReport";
+
+    /**
+     * The directory under the class output which reports are written to.
+     */
+    private static final String REPORT_DIRECTORY = "META-INF/dmdirc/stats/";
+
+    /**
+     * The fully-qualified name of the processor.
+     */
+    private final String generatorName;
+
+    /**
+     * The simple name of the processor, used when reporting.
+     */
+    private final String generatorSimpleName;
+
+    /**
+     * Whether or not to write a report file.
+     */
+    private final boolean report;
+
+    /**
+     * The duration, elements scanned, elements deferred and files generated in each round.
+     */
+    private final List<long[]> rounds = new ArrayList<>();
+
+    /**
+     * The time spent processing each annotated type, across all rounds.
+     */
+    private final Map<String, Long> types = new LinkedHashMap<>();
+
+    /**
+     * The time spent rendering, the number of characters, and the number of methods of each
+     * generated source; or the size of each generated class file.
+     */
+    private final Map<String, long[]> generated = new LinkedHashMap<>();
+
+    /**
+     * The start time of the current round, or zero if not in a round.
+     */
+    private long roundStart;
+
+    /**
+     * The number of elements scanned in the current round.
+     */
+    private int scanned;
+
+    /**
+     * The number of elements deferred to a later round in the current round.
+     */
+    private int deferred;
+
+    /**
+     * The number of files generated in the current round.
+     */
+    private int generatedInRound;
+
+    /**
+     * Creates a new instance of {@link ProcessorStats}.
+     *
+     * @param generator The processor whose work is being recorded.
+     * @param report Whether or not to write a report file as well as a summary.
+     */
+    public ProcessorStats(final Class<?> generator, final boolean report) {
+        this.generatorName = generator.getName();
+        this.generatorSimpleName = generator.getSimpleName();
+        this.report = report;
+    }
+
+    /**
+     * Records the start of a processing round.
+     */
+    public void startRound() {
+        roundStart = System.nanoTime();
+        scanned = 0;
+        deferred = 0;
+        synchronized (this) {
+            generatedInRound = 0;
+        }
+    }
+
+    /**
+     * Records the end of the current processing round.
+     */
+    public void endRound() {
+        final long duration = System.nanoTime() - roundStart;
+        synchronized (this) {
+            rounds.add(new long[]{duration, scanned, deferred, generatedInRound});
+        }
+    }
+
+    /**
+     * Records the start of processing an annotated type.
+     *
+     * @return The start time, to be passed to {@link #endType}.
+     */
+    public long startType() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of processing an annotated type. Types processed in several rounds have
+     * the time from each round added together.
+     *
+     * @param typeName The fully-qualified name of the type.
+     * @param start The time returned by {@link #startType()}.
+     */
+    public void endType(final String typeName, final long start) {
+        final long duration = System.nanoTime() - start;
+        final Long previous = types.get(typeName);
+        types.put(typeName, previous == null ? duration : previous + duration);
+    }
+
+    /**
+     * Records elements scanned in the current round.
+     *
+     * @param count The number of elements scanned.
+     */
+    public void addScanned(final int count) {
+        scanned += count;
+    }
+
+    /**
+     * Records elements deferred from the current round to a later one.
+     *
+     * @param count The number of elements deferred.
+     */
+    public void addDeferred(final int count) {
+        deferred += count;
+    }
+
+    /**
+     * Records a generated source file.
+     *
+     * @param typeName The fully-qualified name of the generated type.
+     * @param start The time at which rendering the source started.
+     * @param writer The writer which rendered the source.
+     */
+    public synchronized void addSource(final String typeName, final long start,
+            final SourceFileWriter writer) {
+        generated.put(typeName, new long[]{System.nanoTime() - start, writer.getLength(),
+            writer.getMethodCount(), 0});
+        generatedInRound++;
+    }
+
+    /**
+     * Records a generated class file.
+     *
+     * @param typeName The fully-qualified name of the generated type.
+     * @param start The time at which generating the class started.
+     * @param size The size of the class file, in bytes.
+     */
+    public synchronized void addClassFile(final String typeName, final long start,
+            final int size) {
+        generated.put(typeName, new long[]{System.nanoTime() - start, 0, 0, size});
+        generatedInRound++;
+    }
+
+    /**
+     * Reports a summary of the recorded statistics, and writes the report file if enabled. This
+     * should be called in the final round, after {@link #endRound()}.
+     *
+     * @param filer The filer to use to create the report.
+     * @param messager The messager to report to.
+     */
+    public synchronized void write(final Filer filer, final Messager messager) {
+        final long[] totals = getTotals();
+        final StringBuilder summary = new StringBuilder(generatorSimpleName)
+                .append(" took ").append(toMillis(totals[0])).append(" ms over ")
+                .append(rounds.size()).append(" rounds: scanned ").append(totals[1])
+                .append(" elements, deferred ").append(totals[2])
+                .append(", generated ").append(generated.size())
+                .append(" files (").append(totals[4]).append(" characters, ")
+                .append(totals[5]).append(" methods)");
+        String slowest = null;
+        for (Map.Entry<String, Long> entry : types.entrySet()) {
+            if (slowest == null || entry.getValue() > types.get(slowest)) {
+                slowest = entry.getKey();
+            }
+        }
+        if (slowest != null) {
+            summary.append("; slowest type ").append(slowest).append(" (")
+                    .append(toMillis(types.get(slowest))).append(" ms)");
+        }
+        messager.printMessage(Diagnostic.Kind.NOTE, summary);
+
+        if (report) {
+            try (Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                    REPORT_DIRECTORY + generatorName + ".properties").openWriter()) {
+                writeReport(writer, totals);
+            } catch (IOException ex) {
+                messager.printMessage(Diagnostic.Kind.WARNING,
+                        "Unable to write processor statistics: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the full report, one property per line. Durations are given in nanoseconds.
+     *
+     * @param writer The writer to write to.
+     * @param totals The totals across all rounds, as returned by {@link #getTotals()}.
+     * @throws IOException If the report couldn't be written.
+     */
+    private void writeReport(final Writer writer, final long[] totals) throws IOException {
+        writer.write("processor=" + generatorName + "\n");
+        writer.write("rounds=" + rounds.size() + "\n");
+        writer.write("nanos=" + totals[0] + "\n");
+        writer.write("scanned=" + totals[1] + "\n");
+        writer.write("deferred=" + totals[2] + "\n");
+        writer.write("generated=" + generated.size() + "\n");
+        writer.write("characters=" + totals[4] + "\n");
+        writer.write("methods=" + totals[5] + "\n");
+        writer.write("bytes=" + totals[6] + "\n");
+        for (int i = 0; i < rounds.size(); i++) {
+            final String prefix = "round." + (i + 1) + ".";
+            writer.write(prefix + "nanos=" + rounds.get(i)[0] + "\n");
+            writer.write(prefix + "scanned=" + rounds.get(i)[1] + "\n");
+            writer.write(prefix + "deferred=" + rounds.get(i)[2] + "\n");
+            writer.write(prefix + "generated=" + rounds.get(i)[3] + "\n");
+        }
+        for (Map.Entry<String, Long> entry : types.entrySet()) {
+            writer.write("type." + entry.getKey() + ".nanos=" + entry.getValue() + "\n");
+        }
+        for (Map.Entry<String, long[]> entry : generated.entrySet()) {
+            final String prefix = "generated." + entry.getKey() + ".";
+            writer.write(prefix + "nanos=" + entry.getValue()[0] + "\n");
+            if (entry.getValue()[3] == 0) {
+                writer.write(prefix + "characters=" + entry.getValue()[1] + "\n");
+                writer.write(prefix + "methods=" + entry.getValue()[2] + "\n");
+            } else {
+                writer.write(prefix + "bytes=" + entry.getValue()[3] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Gets the totals across all rounds.
+     *
+     * @return The total duration, elements scanned, elements deferred, files generated,
+     * characters, methods, and class file bytes.
+     */
+    private long[] getTotals() {
+        final long[] totals = new long[7];
+        for (long[] round : rounds) {
+            for (int i = 0; i < round.length; i++) {
+                totals[i] += round[i];
+            }
+        }
+        for (long[] file : generated.values()) {
+            totals[4] += file[1];
+            totals[5] += file[2];
+            totals[6] += file[3];
+        }
+        return totals;
+    }
+
+    /**
+     * Converts a duration to milliseconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in whole milliseconds.
+     */
+    private long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2006-2013 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.util.annotations.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+
+/**
+ * Collects the source files generated in a round, renders them in parallel, and then writes them
+ * out one at a time. Sources must be rendered purely from models extracted beforehand, as the
+ * javax.lang.model API may only be used from the compiler's thread; only the final writes use the
+ * {@link Filer}.
+ */
+public class SourceFileBatch {
+
+    /**
+     * The pool used to render sources. Its threads are daemons, so it is shared between
+     * processors and compilations rather than shut down.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Renders the contents of a source file.
+     */
+    public interface Source {
+
+        /**
+         * Renders the source file to the given writer. This may be called from any thread.
+         *
+         * @param writer The writer to write to.
+         * @throws IOException If the operation failed.
+         */
+        void render(SourceFileWriter writer) throws IOException;
+
+    }
+
+    /**
+     * The filer to use to create source files.
+     */
+    private final Filer filer;
+
+    /**
+     * The messager to report errors to.
+     */
+    private final Messager messager;
+
+    /**
+     * The line ending to use in rendered sources.
+     */
+    private final LineEnding lineEnding;
+
+    /**
+     * The statistics to record rendered sources in, or {@code null} if disabled.
+     */
+    private final ProcessorStats stats;
+
+    /**
+     * The names of the files to create.
+     */
+    private final List<String> fileNames = new ArrayList<>();
+
+    /**
+     * Descriptions of the files to create, used when reporting errors.
+     */
+    private final List<String> descriptions = new ArrayList<>();
+
+    /**
+     * The sources to render.
+     */
+    private final List<Source> sources = new ArrayList<>();
+
+    /**
+     * The element(s) responsible for each file being written.
+     */
+    private final List<Element[]> elements = new ArrayList<>();
+
+    /**
+     * Creates a new instance of {@link SourceFileBatch}.
+     *
+     * @param filer The filer to use to create source files.
+     * @param messager The messager to report errors to.
+     * @param lineEnding The line ending to use in rendered sources.
+     */
+    public SourceFileBatch(final Filer filer, final Messager messager,
+            final LineEnding lineEnding) {
+        this(filer, messager, lineEnding, null);
+    }
+
+    /**
+     * Creates a new instance of {@link SourceFileBatch}.
+     *
+     * @param filer The filer to use to create source files.
+     * @param messager The messager to report errors to.
+     * @param lineEnding The line ending to use in rendered sources.
+     * @param stats The statistics to record rendered sources in, or {@code null}.
+     */
+    public SourceFileBatch(final Filer filer, final Messager messager,
+            final LineEnding lineEnding, final ProcessorStats stats) {
+        this.filer = filer;
+        this.messager = messager;
+        this.lineEnding = lineEnding;
+        this.stats = stats;
+    }
+
+    /**
+     * Adds a source file to be written.
+     *
+     * @param fileName The name of the file to create.
+     * @param description A description of the file, used when reporting errors.
+     * @param source The source which renders the file's contents.
+     * @param originatingElements The element(s) responsible for this file being written.
+     */
+    public void add(final String fileName, final String description, final Source source,
+            final Element... originatingElements) {
+        fileNames.add(fileName);
+        descriptions.add(description);
+        sources.add(source);
+        elements.add(originatingElements);
+    }
+
+    /**
+     * Renders every source added since the last call, and writes each one out in the order they
+     * were added. Any failures are reported as errors.
+     */
+    public void write() {
+        final List<String> contents = render();
+        for (int i = 0; i < contents.size(); i++) {
+            if (contents.get(i) == null) {
+                continue;
+            }
+
+            try (Writer writer = filer.createSourceFile(fileNames.get(i), elements.get(i))
+                    .openWriter()) {
+                writer.write(contents.get(i));
+            } catch (IOException ex) {
+                reportError(i, ex);
+            }
+        }
+
+        fileNames.clear();
+        descriptions.clear();
+        sources.clear();
+        elements.clear();
+    }
+
+    /**
+     * Renders every source, in parallel if there is more than one.
+     *
+     * @return The contents of each file, or {@code null} for those which failed to render.
+     */
+    private List<String> render() {
+        final List<String> contents = new ArrayList<>(sources.size());
+        if (sources.size() == 1) {
+            try {
+                contents.add(render(0));
+            } catch (IOException | RuntimeException ex) {
+                contents.add(null);
+                reportError(0, ex);
+            }
+            return contents;
+        }
+
+        final List<Callable<String>> tasks = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return render(index);
+                }
+            });
+        }
+
+        final List<Future<String>> futures = POOL.invokeAll(tasks);
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                contents.add(futures.get(i).get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                messager.printMessage(Diagnostic.Kind.ERROR,
+                        "Interrupted while generating sources");
+                break;
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                contents.add(null);
+                reportError(i, ex.getCause());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Renders a single source into a string.
+     *
+     * @param index The index of the source to render.
+     * @return The contents of the file.
+     * @throws IOException If the source couldn't be rendered.
+     */
+    private String render(final int index) throws IOException {
+        final long start = System.nanoTime();
+        try (SourceFileWriter writer = new SourceFileWriter(lineEnding)) {
+            sources.get(index).render(writer);
+            if (stats != null) {
+                stats.addSource(fileNames.get(index), start, writer);
+            }
+            return writer.getContents();
+        }
+    }
+
+    /**
+     * Reports that a file couldn't be written.
+     *
+     * @param index The index of the file.
+     * @param cause The reason the file couldn't be written.
+     */
+    private void reportError(final int index, final Throwable cause) {
+        messager.printMessage(Diagnostic.Kind.ERROR,
+                "Unable to write " + descriptions.get(index) + " file: " + cause.getMessage());
+    }
+
+}
@@ -22,33 +22,81 @@
 
 package com.dmdirc.util.annotations.util;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
 import javax.annotation.processing.Filer;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
-import javax.tools.JavaFileObject;
 
 /**
- * Utility class for writing Java source files.
+ * Utility class for writing Java source files. Files are built up in memory and written out in a
+ * single operation when the writer is closed.
  */
 public class SourceFileWriter implements Closeable {
 
     /**
-     * Constant for inserting a carriage return and line feed.
+     * Number of columns to indent by.
      */
-    private static final String CRLF = "\r\n";
+    private static final int INDENT_WIDTH = 4;
 
     /**
-     * Number of columns to indent by.
+     * Pre-computed indentation strings for commonly used indentation levels.
      */
-    private static final int INDENT_WIDTH = 4;
+    private static final String[] INDENTS = new String[16];
+
+    /**
+     * Each modifier followed by a space, to avoid converting them to strings repeatedly.
+     */
+    private static final Map<Modifier, String> MODIFIERS = new EnumMap<>(Modifier.class);
+
+    /**
+     * The initial capacity of the buffer, which is enough for most generated files.
+     */
+    private static final int BUFFER_CAPACITY = 16 * 1024;
+
+    /**
+     * The largest buffer that will be kept for reuse, so one very large file doesn't keep its
+     * buffer alive indefinitely.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    /**
+     * Buffers which aren't currently in use by a writer on each thread.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<>();
+
+    static {
+        final StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < INDENTS.length; i++) {
+            INDENTS[i] = indent.toString();
+            for (int j = 0; j < INDENT_WIDTH; j++) {
+                indent.append(' ');
+            }
+        }
+
+        for (Modifier modifier : Modifier.values()) {
+            MODIFIERS.put(modifier, modifier + " ");
+        }
+    }
+
+    /**
+     * The writer the file will be written to when closed, or {@code null} if the contents will be
+     * retrieved with {@link #getContents()}.
+     */
+    private final Writer target;
+
+    /**
+     * The line ending to use.
+     */
+    private final String newline;
 
     /**
-     * The writer to actually write to.
+     * The buffer holding the contents of the file.
      */
-    private final BufferedWriter writer;
+    private final StringBuilder writer;
 
     /**
      * The indentation level to write at.
@@ -60,6 +108,11 @@ public class SourceFileWriter implements Closeable {
      */
     private boolean firstParameter;
 
+    /**
+     * The number of constructors and methods declared so far.
+     */
+    private int methodCount;
+
     /**
      * Creates a new instance of {@link SourceFileWriter}.
      *
@@ -70,8 +123,49 @@ public class SourceFileWriter implements Closeable {
      */
     public SourceFileWriter(final Filer filer, final String fileName,
             final Element... elements) throws IOException {
-        final JavaFileObject fileObject = filer.createSourceFile(fileName, elements);
-        writer = new BufferedWriter(fileObject.openWriter());
+        this(filer, LineEnding.CRLF, fileName, elements);
+    }
+
+    /**
+     * Creates a new instance of {@link SourceFileWriter}.
+     *
+     * @param filer The filer to use to create the source file.
+     * @param lineEnding The line ending to use.
+     * @param fileName The name of the file to create.
+     * @param elements The element(s) responsible for this file being written.
+     * @throws IOException If the file couldn't be created.
+     */
+    public SourceFileWriter(final Filer filer, final LineEnding lineEnding,
+            final String fileName, final Element... elements) throws IOException {
+        this(filer.createSourceFile(fileName, elements).openWriter(), lineEnding);
+    }
+
+    /**
+     * Creates a new instance of {@link SourceFileWriter} which only writes to memory. The
+     * contents can be retrieved with {@link #getContents()}.
+     *
+     * @param lineEnding The line ending to use.
+     */
+    public SourceFileWriter(final LineEnding lineEnding) {
+        this(null, lineEnding);
+    }
+
+    /**
+     * Creates a new instance of {@link SourceFileWriter}.
+     *
+     * @param target The writer to write the file to when closed, or {@code null}.
+     * @param lineEnding The line ending to use.
+     */
+    private SourceFileWriter(final Writer target, final LineEnding lineEnding) {
+        this.target = target;
+        this.newline = lineEnding.getSeparator();
+        final StringBuilder buffer = BUFFERS.get();
+        if (buffer == null) {
+            writer = new StringBuilder(BUFFER_CAPACITY);
+        } else {
+            BUFFERS.remove();
+            writer = buffer;
+        }
     }
 
     /**
@@ -88,8 +182,8 @@ public class SourceFileWriter implements Closeable {
                     .append("package ")
                     .append(packageName)
                     .append(';')
-                    .append(CRLF)
-                    .append(CRLF);
+                    .append(newline)
+                    .append(newline);
         }
         return this;
     }
@@ -183,7 +277,7 @@ public class SourceFileWriter implements Closeable {
                 .append("@javax.annotation.Generated(\"")
                 .append(generator.getCanonicalName())
                 .append("\")")
-                .append(CRLF);
+                .append(newline);
         writeIndent();
         writeModifiers(modifiers)
                 .append("class ")
@@ -211,7 +305,7 @@ public class SourceFileWriter implements Closeable {
                 .append("@javax.annotation.Generated(\"")
                 .append(generator.getCanonicalName())
                 .append("\")")
-                .append(CRLF);
+                .append(newline);
         writeIndent();
         writeModifiers(modifiers)
                 .append("interface ")
@@ -229,8 +323,8 @@ public class SourceFileWriter implements Closeable {
      */
     public SourceFileWriter writeClassDeclarationEnd() throws IOException {
         writer.append(" {")
-                .append(CRLF)
-                .append(CRLF);
+                .append(newline)
+                .append(newline);
         firstParameter = false;
         return this;
     }
@@ -264,7 +358,7 @@ public class SourceFileWriter implements Closeable {
     public SourceFileWriter writeAnnotation(final String annotation) throws IOException {
         writeIndent()
                 .append(annotation)
-                .append(CRLF);
+                .append(newline);
         return this;
     }
 
@@ -288,8 +382,8 @@ public class SourceFileWriter implements Closeable {
                 .write(" ")
                 .write(name)
                 .write(";")
-                .write(CRLF)
-                .write(CRLF);
+                .write(newline)
+                .write(newline);
 
         return this;
     }
@@ -316,6 +410,7 @@ public class SourceFileWriter implements Closeable {
                 .append("(");
         indent += 2;
         firstParameter = true;
+        methodCount++;
         return this;
     }
 
@@ -345,6 +440,7 @@ public class SourceFileWriter implements Closeable {
                 .append("(");
         indent += 2;
         firstParameter = true;
+        methodCount++;
         return this;
     }
 
@@ -432,7 +528,7 @@ public class SourceFileWriter implements Closeable {
      */
     public SourceFileWriter writeMethodCallEnd() throws IOException {
         write(");");
-        write(CRLF);
+        write(newline);
         return this;
     }
 
@@ -456,7 +552,7 @@ public class SourceFileWriter implements Closeable {
         }
         firstParameter = false;
 
-        write(CRLF);
+        write(newline);
         writeIndent();
         writeModifiers(modifiers)
                 .append(annotations)
@@ -478,17 +574,17 @@ public class SourceFileWriter implements Closeable {
         write(")");
 
         if (throwTypes.length > 0) {
-            write(" throws").write(CRLF);
+            write(" throws").write(newline);
             for (int i = 0; i < throwTypes.length; i++) {
                 if (i > 0) {
-                    write(",").write(CRLF);
+                    write(",").write(newline);
                 }
-                writeIndent().write(throwTypes[i]);
+                writeIndent().append(throwTypes[i]);
             }
         }
 
         write(" {")
-                .write(CRLF);
+                .write(newline);
         indent--;
         return this;
     }
@@ -504,17 +600,17 @@ public class SourceFileWriter implements Closeable {
         write(")");
 
         if (throwTypes.length > 0) {
-            write(" throws").write(CRLF);
+            write(" throws").write(newline);
             for (int i = 0; i < throwTypes.length; i++) {
                 if (i > 0) {
-                    write(",").write(CRLF);
+                    write(",").write(newline);
                 }
-                writeIndent().write(throwTypes[i]);
+                writeIndent().append(throwTypes[i]);
             }
         }
 
         write(";")
-                .write(CRLF);
+                .write(newline);
         indent--;
         return this;
     }
@@ -535,7 +631,7 @@ public class SourceFileWriter implements Closeable {
                 .append(" = ")
                 .append(value)
                 .append(";")
-                .append(CRLF);
+                .append(newline);
         return this;
     }
 
@@ -563,7 +659,7 @@ public class SourceFileWriter implements Closeable {
                 .append(" = ")
                 .append(value)
                 .append(";")
-                .append(CRLF);
+                .append(newline);
         return this;
     }
 
@@ -591,8 +687,8 @@ public class SourceFileWriter implements Closeable {
         indent--;
         writeIndent()
                 .append("}")
-                .append(CRLF)
-                .append(CRLF);
+                .append(newline)
+                .append(newline);
         return this;
     }
 
@@ -606,8 +702,8 @@ public class SourceFileWriter implements Closeable {
         indent -= 2;
         writeIndent()
                 .append("}")
-                .append(CRLF)
-                .append(CRLF);
+                .append(newline)
+                .append(newline);
         return this;
     }
 
@@ -641,7 +737,7 @@ public class SourceFileWriter implements Closeable {
             if (i > 0) {
                 write(",");
             }
-            write(CRLF);
+            write(newline);
             writeIndent().append(parameters[i]);
         }
         indent -= 2;
@@ -679,7 +775,37 @@ public class SourceFileWriter implements Closeable {
         if (!collectionMethod.isEmpty()) {
             write(".").write(collectionMethod);
         }
-        write(") {").write(CRLF);
+        write(") {").write(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the start of a for loop which counts from zero up to (but excluding) a limit.
+     *
+     * This should be followed by 0 or more statements and then a single call to
+     * {@link #writeForLoopEnd()}.
+     *
+     * @param counterName Name of the int counter variable
+     * @param limit Expression giving the number of iterations
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeCountingForLoopStart(
+            final String counterName,
+            final String limit) throws IOException {
+        writeIndent()
+                .append("for (int ")
+                .append(counterName)
+                .append(" = 0; ")
+                .append(counterName)
+                .append(" < ")
+                .append(limit)
+                .append("; ")
+                .append(counterName)
+                .append("++) {")
+                .append(newline);
         indent += 2;
         return this;
     }
@@ -694,7 +820,160 @@ public class SourceFileWriter implements Closeable {
         indent -= 2;
         writeIndent()
                 .append("}")
-                .append(CRLF);
+                .append(newline);
+        return this;
+    }
+
+    /**
+     * Writes the start of a while loop.
+     *
+     * This should be followed by 0 or more statements and then a single call to
+     * {@link #writeForLoopEnd()}.
+     *
+     * @param condition The condition to test before each iteration.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeWhileLoopStart(final String condition) throws IOException {
+        writeIndent()
+                .append("while (")
+                .append(condition)
+                .append(") {")
+                .append(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the start of an if statement.
+     *
+     * This should be followed by 0 or more statements and then a single call to
+     * {@link #writeIfEnd()}.
+     *
+     * @param condition The condition to test.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeIfStart(final String condition) throws IOException {
+        writeIndent()
+                .append("if (")
+                .append(condition)
+                .append(") {")
+                .append(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the end of an if statement.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeIfEnd() throws IOException {
+        indent -= 2;
+        writeIndent()
+                .append("}")
+                .append(newline);
+        return this;
+    }
+
+    /**
+     * Writes the start of a synchronized block.
+     *
+     * This should be followed by 0 or more statements and then a single call to
+     * {@link #writeSynchronizedEnd()}.
+     *
+     * @param lock The object to synchronize on.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeSynchronizedStart(final String lock) throws IOException {
+        writeIndent()
+                .append("synchronized (")
+                .append(lock)
+                .append(") {")
+                .append(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the end of a synchronized block.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeSynchronizedEnd() throws IOException {
+        indent -= 2;
+        writeIndent()
+                .append("}")
+                .append(newline);
+        return this;
+    }
+
+    /**
+     * Writes the start of a try block.
+     *
+     * This should be followed by 0 or more statements, a single call to
+     * {@link #writeFinallyStart()}, 0 or more further statements, and then a single call to
+     * {@link #writeTryEnd()}.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeTryStart() throws IOException {
+        writeIndent()
+                .append("try {")
+                .append(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the end of a try block and the start of its finally block.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeFinallyStart() throws IOException {
+        indent -= 2;
+        writeIndent()
+                .append("} finally {")
+                .append(newline);
+        indent += 2;
+        return this;
+    }
+
+    /**
+     * Writes the end of a try statement.
+     *
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeTryEnd() throws IOException {
+        indent -= 2;
+        writeIndent()
+                .append("}")
+                .append(newline);
+        return this;
+    }
+
+    /**
+     * Writes a complete statement on its own line.
+     *
+     * @param statement The statement to write, without the trailing semicolon.
+     * @return A reference to this writer, for convenience.
+     * @throws IOException If the operation failed.
+     */
+    public SourceFileWriter writeStatement(final String statement) throws IOException {
+        writeIndent()
+                .append(statement)
+                .append(";")
+                .append(newline);
         return this;
     }
 
@@ -705,7 +984,7 @@ public class SourceFileWriter implements Closeable {
      * @throws IOException If the operation failed.
      */
     public SourceFileWriter writeStatementEnd() throws IOException {
-        write(";").write(CRLF);
+        write(";").write(newline);
         return this;
     }
 
@@ -728,9 +1007,9 @@ public class SourceFileWriter implements Closeable {
      * @return The writer used, for convenient chaining.
      * @throws IOException If the operation failed.
      */
-    private BufferedWriter writeModifiers(final Modifier[] modifiers) throws IOException {
+    private StringBuilder writeModifiers(final Modifier[] modifiers) throws IOException {
         for (Modifier modifier : modifiers) {
-            write(modifier.toString()).write(" ");
+            writer.append(MODIFIERS.get(modifier));
         }
         return writer;
     }
@@ -741,21 +1020,64 @@ public class SourceFileWriter implements Closeable {
      * @return The writer used, for convenient chaining.
      * @throws IOException If the write operation failed.
      */
-    private BufferedWriter writeIndent() throws IOException {
-        for (int i = 0; i < indent * INDENT_WIDTH; i++) {
-            writer.append(' ');
+    private StringBuilder writeIndent() throws IOException {
+        if (indent < INDENTS.length) {
+            writer.append(INDENTS[indent]);
+        } else {
+            for (int i = 0; i < indent * INDENT_WIDTH; i++) {
+                writer.append(' ');
+            }
         }
         return writer;
     }
 
     /**
-     * {@inheritDoc}
+     * Gets the contents written so far.
+     *
+     * @return The contents of the file.
+     */
+    public String getContents() {
+        return writer.toString();
+    }
+
+    /**
+     * Gets the number of characters written so far.
+     *
+     * @return The length of the file.
+     */
+    public int getLength() {
+        return writer.length();
+    }
+
+    /**
+     * Gets the number of constructors and methods declared so far.
+     *
+     * @return The number of constructors and methods in the file.
+     */
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * Writes the contents of the file to its target, if it has one, and releases the buffer for
+     * reuse.
      *
-     * @throws IOException If the writer couldn't be closed successfully.
+     * @throws IOException If the file couldn't be written.
      */
     @Override
     public void close() throws IOException {
-        writer.close();
+        try {
+            if (target != null) {
+                try (Writer output = target) {
+                    output.append(writer);
+                }
+            }
+        } finally {
+            if (writer.capacity() <= MAX_RETAINED_CAPACITY) {
+                writer.setLength(0);
+                BUFFERS.set(writer);
+            }
+        }
     }
 
 }
@@ -0,0 +1,21 @@
+package com.dmdirc.util.annotations.factory;
+
+import java.io.IOException;
+
+@Factory(async = true)
+public class AsyncTestType {
+
+    private final String theme;
+
+    public AsyncTestType(final String directory, @Unbound final String name) throws IOException {
+        if (name.isEmpty()) {
+            throw new IOException("No theme name");
+        }
+        this.theme = directory + "/" + name;
+    }
+
+    public String getTheme() {
+        return theme;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(providers = true, batch = true, metrics = true)
+public class BatchTestType {
+
+    private final String server;
+    private final String nickname;
+    private final int modes;
+
+    // The bound parameter shares its name with a local of the generated batch method.
+    public BatchTestType(final String batch, @Unbound final String nickname,
+            @Unbound final int modes) {
+        this.server = batch;
+        this.nickname = nickname;
+        this.modes = modes;
+    }
+
+    public String getText() {
+        return nickname + "@" + server + "+" + modes;
+    }
+
+}
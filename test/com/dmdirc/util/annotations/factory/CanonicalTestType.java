@@ -0,0 +1,21 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(canonical = true, cacheSize = 16)
+public class CanonicalTestType {
+
+    private final String server;
+    private final String nickname;
+    private final int port;
+
+    public CanonicalTestType(final String server, @Unbound final String nickname,
+            @Unbound final int port) {
+        this.server = server;
+        this.nickname = nickname;
+        this.port = port;
+    }
+
+    public String getText() {
+        return nickname + "@" + server + ":" + port;
+    }
+
+}
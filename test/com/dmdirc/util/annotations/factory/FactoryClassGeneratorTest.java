@@ -0,0 +1,204 @@
+package com.dmdirc.util.annotations.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Provider;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class FactoryClassGeneratorTest {
+
+    private static final String PROVIDED_TYPE = "package bytecode;\n"
+            + "import com.dmdirc.util.annotations.factory.Unbound;\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "import javax.inject.Provider;\n"
+            + "import javax.lang.model.element.Modifier;\n"
+            + "@com.dmdirc.util.annotations.factory.Factory(inject = true, singleton = true,\n"
+            + "        providers = true, modifiers = {Modifier.PUBLIC, Modifier.FINAL},\n"
+            + "        methodModifiers = {Modifier.PUBLIC, Modifier.SYNCHRONIZED})\n"
+            + "public class ProvidedType {\n"
+            + "    public final String value;\n"
+            + "    public ProvidedType(String prefix, List<? extends Number> numbers,\n"
+            + "            Provider<Map<String, int[]>> table, @Unbound long count,\n"
+            + "            @Unbound double[] weights) {\n"
+            + "        value = prefix + numbers + table.get().keySet() + count\n"
+            + "                + java.util.Arrays.toString(weights);\n"
+            + "    }\n"
+            + "    ProvidedType(String prefix, @Unbound Map<String, ? super Integer> extra,\n"
+            + "            @Unbound int size) throws java.io.IOException {\n"
+            + "        value = prefix + extra + size;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String PLAIN_TYPE = "package bytecode;\n"
+            + "@com.dmdirc.util.annotations.factory.Factory\n"
+            + "public class PlainType {\n"
+            + "    public final String value;\n"
+            + "    public PlainType(int port, long timeout, String[][] hosts,\n"
+            + "            @com.dmdirc.util.annotations.factory.Unbound char mode) {\n"
+            + "        value = port + \"/\" + timeout + \"/\" + hosts[1][0] + \"/\" + mode;\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    public void testBytecodeFactoriesMatchSourceFactories() throws Exception {
+        final Path root = Files.createTempDirectory("factory-bytecode");
+        final List<File> sources = new ArrayList<>();
+        sources.add(write(root.resolve("src/bytecode/ProvidedType.java"), PROVIDED_TYPE));
+        sources.add(write(root.resolve("src/bytecode/PlainType.java"), PLAIN_TYPE));
+
+        final ClassLoader source = compile(root.resolve("source"), sources, false);
+        final ClassLoader bytecode = compile(root.resolve("bytecode"), sources, true);
+        assertTrue(Files.exists(root.resolve("source/generated/bytecode/PlainTypeFactory.java")));
+        assertFalse(Files.exists(root.resolve("bytecode/generated/bytecode/PlainTypeFactory.java")));
+        assertFalse(Files.exists(
+                root.resolve("bytecode/generated/bytecode/ProvidedTypeFactory.java")));
+
+        for (String name : Arrays.asList("bytecode.ProvidedTypeFactory",
+                "bytecode.PlainTypeFactory")) {
+            assertEquals(describe(source.loadClass(name)), describe(bytecode.loadClass(name)));
+        }
+
+        assertEquals(createProvided(source), createProvided(bytecode));
+        assertEquals("[x[1, 2.5][key]7[0.5, 1.0], x{a=1}3]", createProvided(bytecode).toString());
+        assertEquals(createPlain(source), createPlain(bytecode));
+        assertEquals("6667/30000/irc/q", createPlain(bytecode));
+    }
+
+    @Test
+    public void testUnsupportedFactoriesFallBackToSource() throws Exception {
+        final Path root = Files.createTempDirectory("factory-bytecode");
+        final File source = write(root.resolve("src/bytecode/PooledType.java"),
+                "package bytecode;\n"
+                + "@com.dmdirc.util.annotations.factory.Factory(batch = true)\n"
+                + "public class PooledType {\n"
+                + "    public PooledType(String name) {}\n"
+                + "}\n");
+
+        compile(root, Collections.singletonList(source), true);
+        assertTrue(Files.exists(root.resolve("generated/bytecode/PooledTypeFactory.java")));
+    }
+
+    private List<String> createProvided(final ClassLoader loader) throws Exception {
+        final Class<?> factory = loader.loadClass("bytecode.ProvidedTypeFactory");
+        final Object instance = factory.getConstructors()[0].newInstance(
+                new Provider<String>() {
+                    @Override
+                    public String get() {
+                        return "x";
+                    }
+                },
+                new Provider<List<Number>>() {
+                    @Override
+                    public List<Number> get() {
+                        return Arrays.<Number>asList(1, 2.5);
+                    }
+                },
+                new Provider<Map<String, int[]>>() {
+                    @Override
+                    public Map<String, int[]> get() {
+                        return Collections.singletonMap("key", new int[0]);
+                    }
+                });
+
+        final Map<String, Object> extra = new HashMap<>();
+        extra.put("a", 1);
+        final List<String> values = new ArrayList<>();
+        values.add(getValue(factory.getMethod("getProvidedType", long.class, double[].class)
+                .invoke(instance, 7L, new double[]{0.5, 1.0})));
+        values.add(getValue(factory.getMethod("getProvidedType", Map.class, int.class)
+                .invoke(instance, extra, 3)));
+        return values;
+    }
+
+    private String createPlain(final ClassLoader loader) throws Exception {
+        final Class<?> factory = loader.loadClass("bytecode.PlainTypeFactory");
+        final Object instance = factory.getConstructors()[0].newInstance(6667, 30000L,
+                new String[][]{{"unused"}, {"irc"}});
+        return getValue(factory.getMethod("getPlainType", char.class).invoke(instance, 'q'));
+    }
+
+    private String getValue(final Object instance) throws Exception {
+        return (String) instance.getClass().getField("value").get(instance);
+    }
+
+    private List<String> describe(final Class<?> type) {
+        final List<String> members = new ArrayList<>();
+        final List<AccessibleObject> objects = new ArrayList<>();
+        objects.addAll(Arrays.asList(type.getDeclaredFields()));
+        objects.addAll(Arrays.asList(type.getDeclaredConstructors()));
+        objects.addAll(Arrays.asList(type.getDeclaredMethods()));
+        for (AccessibleObject object : objects) {
+            final String description = object instanceof Field
+                    ? ((Field) object).toGenericString()
+                    : object instanceof Method
+                    ? ((Method) object).toGenericString()
+                    : ((java.lang.reflect.Constructor<?>) object).toGenericString();
+            members.add(description + " " + ((Member) object).getModifiers() + " "
+                    + Arrays.toString(object.getAnnotations()));
+        }
+        Collections.sort(members);
+        members.add(0, type.getModifiers() + " " + Arrays.toString(type.getAnnotations()));
+        return members;
+    }
+
+    private File write(final Path path, final String contents) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    private ClassLoader compile(final Path root, final List<File> sources,
+            final boolean bytecode) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", FactoryProcessor.class.getName(),
+                "-A" + FactoryProcessor.BYTECODE_OPTION + "=" + bytecode,
+                "-d", classes.toString(),
+                "-s", generated.toString()));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final boolean success = compiler.getTask(null, fileManager, diagnostics, options,
+                    null, fileManager.getJavaFileObjects(sources.toArray(new File[0]))).call();
+            assertTrue(diagnostics.getDiagnostics().toString(), success);
+        }
+
+        return new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.dmdirc.util.annotations.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.dmdirc.util.annotations.util.NativeImageMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class FactoryIncrementalTest {
+
+    private static final String FIRST_TYPE = "package incremental;\n"
+            + "@com.dmdirc.util.annotations.factory.Factory(dependencies = \"Shared\")\n"
+            + "public class FirstType {\n"
+            + "    public FirstType(String greeting,\n"
+            + "            @com.dmdirc.util.annotations.factory.Unbound String name) { }\n"
+            + "}\n";
+
+    private static final String SECOND_TYPE = "package incremental;\n"
+            + "@com.dmdirc.util.annotations.factory.Factory(dependencies = \"Shared\")\n"
+            + "public class SecondType {\n"
+            + "    public SecondType(Integer count,\n"
+            + "            @com.dmdirc.util.annotations.factory.Unbound String name) { }\n"
+            + "}\n";
+
+    @Test
+    public void testRecompilingOneFactoryKeepsTheOthers() throws IOException {
+        final Path root = Files.createTempDirectory("factory-incremental");
+        final Path first = write(root, "FirstType", FIRST_TYPE);
+        final Path second = write(root, "SecondType", SECOND_TYPE);
+        assertEquals(new ArrayList<String>(), compile(root, Diagnostic.Kind.ERROR, first, second));
+
+        assertEquals(new ArrayList<String>(), compile(root, Diagnostic.Kind.ERROR, second));
+        final String holder = read(root.resolve("generated/incremental/Shared.java"));
+        assertTrue(holder.contains("greeting"));
+        assertTrue(holder.contains("count"));
+        assertTrue(read(root.resolve("classes/" + FactoryProcessor.REGISTRY_INDEX))
+                .contains("incremental.FirstType"));
+        assertTrue(read(root.resolve("generated/incremental/Registry.java"))
+                .contains("incremental.FirstTypeFactory"));
+        assertTrue(read(root.resolve("generated/incremental/Component.java"))
+                .contains("incremental.FirstTypeFactory"));
+        final String config = read(root.resolve(
+                "classes/META-INF/native-image/incremental/test/factory/reflect-config.json"));
+        assertTrue(config.contains("\"incremental.FirstTypeFactory\""));
+        assertTrue(config.contains("\"incremental.SecondTypeFactory\""));
+        assertTrue(config.contains("\"incremental.Shared\""));
+    }
+
+    @Test
+    public void testUnknownHolderMemberIsReported() throws IOException {
+        final Path root = Files.createTempDirectory("factory-incremental");
+        final Path first = write(root, "FirstType", FIRST_TYPE);
+        final Path second = write(root, "SecondType", SECOND_TYPE);
+        compile(root, Diagnostic.Kind.ERROR, first, second);
+        Files.delete(root.resolve("classes/META-INF/dmdirc/factory-models"));
+
+        final List<String> errors = compile(root, Diagnostic.Kind.ERROR, second);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith(
+                "Factory shares the dependency holder incremental.Shared"));
+    }
+
+    private Path write(final Path root, final String name, final String source)
+            throws IOException {
+        final Path file = root.resolve("src/incremental/" + name + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String read(final Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private List<String> compile(final Path root, final Diagnostic.Kind kind,
+            final Path... files) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path") + File.pathSeparator + classes,
+                "-processor", FactoryProcessor.class.getName(),
+                "-d", classes.toString(),
+                "-s", generated.toString(),
+                "-A" + FactoryProcessor.REGISTRY_OPTION + "=incremental.Registry",
+                "-A" + FactoryProcessor.COMPONENT_OPTION + "=incremental.Component",
+                "-A" + NativeImageMetadata.OPTION + "=incremental/test"));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7", "-Xlint:-options"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final List<File> sources = new ArrayList<>();
+            for (Path file : files) {
+                sources.add(file.toFile());
+            }
+            compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(sources)).call();
+        }
+
+        final List<String> messages = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == kind) {
+                messages.add(diagnostic.getMessage(null));
+            }
+        }
+        return messages;
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.dmdirc.util.annotations.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.inject.Provider;
+import org.junit.Test;
+
+public class FactoryTest {
+
+    @Test
+    public void testMemoizedProviderResolvedOnce() {
+        final CountingProvider<String> names = new CountingProvider<>("Foo");
+        final CountingProvider<Integer> counts = new CountingProvider<>(5);
+        final MemoizedTestTypeFactory factory = new MemoizedTestTypeFactory(names, counts);
+        assertEquals("Foo", factory.getMemoizedTestType(1).getName());
+        assertEquals(2, factory.getMemoizedTestType(2).getId());
+        assertEquals(Integer.valueOf(5), factory.getMemoizedTestType(3).getCount());
+        assertEquals(1, names.calls);
+        assertEquals(3, counts.calls);
+    }
+
+    @Test
+    public void testPooledInstancesReused() {
+        final PooledTestTypeFactory factory = new PooledTestTypeFactory("> ");
+        final PooledTestType first = factory.getPooledTestType("Foo");
+        assertEquals("> Foo", first.getText());
+        factory.release(first);
+        final PooledTestType second = factory.getPooledTestType("Bar");
+        assertSame(first, second);
+        assertEquals("> Bar", second.getText());
+        assertNotSame(second, factory.getPooledTestType("Baz"));
+        assertEquals(1, factory.getPoolHits());
+        assertEquals(2, factory.getPoolMisses());
+    }
+
+    @Test
+    public void testPooledInstancesReusedAcrossThreads() throws InterruptedException {
+        final PooledTestTypeFactory factory = new PooledTestTypeFactory("> ");
+        final PooledTestType[] instances = new PooledTestType[4];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = factory.getPooledTestType("Foo");
+        }
+
+        // Instances created on this thread are released on another, then reused here.
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (PooledTestType instance : instances) {
+                    factory.release(instance);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        for (int i = 0; i < instances.length; i++) {
+            assertTrue(Arrays.asList(instances).contains(factory.getPooledTestType("Bar")));
+        }
+        assertEquals(4, factory.getPoolHits());
+    }
+
+    @Test
+    public void testCanonicalInstancesShared() {
+        final CanonicalTestTypeFactory factory = new CanonicalTestTypeFactory("irc.example.com");
+        final CanonicalTestType first = factory.getCanonicalTestType("Foo", 6667);
+        assertEquals("Foo@irc.example.com:6667", first.getText());
+        assertSame(first, factory.getCanonicalTestType(new String("Foo"), 6667));
+        assertNotSame(first, factory.getCanonicalTestType("Foo", 6697));
+        assertNotSame(first, factory.getCanonicalTestType("Bar", 6667));
+    }
+
+    @Test
+    public void testBatchResolvesProvidersOnce() {
+        final CountingProvider<String> servers = new CountingProvider<>("irc.example.com");
+        final BatchTestTypeFactory factory = new BatchTestTypeFactory(servers);
+        final List<BatchTestType> batch = factory.getBatchTestTypeBatch(
+                new String[]{"Foo", "Bar", "Baz"}, new int[]{1, 2, 3});
+        assertEquals(3, batch.size());
+        assertEquals("Foo@irc.example.com+1", batch.get(0).getText());
+        assertEquals("Baz@irc.example.com+3", batch.get(2).getText());
+        assertEquals(1, servers.calls);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchRejectsMismatchedArrays() {
+        final BatchTestTypeFactory factory = new BatchTestTypeFactory(
+                new CountingProvider<>("irc.example.com"));
+        factory.getBatchTestTypeBatch(new String[]{"Foo", "Bar"}, new int[]{1});
+    }
+
+    @Test
+    public void testAsyncCreatesOnExecutor() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AsyncTestTypeFactory factory = new AsyncTestTypeFactory("themes");
+            assertEquals("themes/dark",
+                    factory.getAsyncTestTypeAsync(executor, "dark").get().getTheme());
+            try {
+                factory.getAsyncTestTypeAsync(executor, "").get();
+                fail("Expected an ExecutionException");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMetricsCountInstances() {
+        final long before = BatchTestTypeFactory.getMetrics().getInvocations();
+        final BatchTestTypeFactory factory = new BatchTestTypeFactory(
+                new CountingProvider<>("irc.example.com"));
+        factory.getBatchTestType("Foo", 1);
+        factory.getBatchTestTypeBatch(new String[]{"Bar", "Baz"}, new int[]{2, 3});
+        assertEquals(before + 3, BatchTestTypeFactory.getMetrics().getInvocations());
+        assertEquals("com.dmdirc.util.annotations.factory.BatchTestTypeFactory",
+                BatchTestTypeFactory.getMetrics().getName());
+    }
+
+    @Test
+    public void testRegistryCreatesFactories() {
+        final Map<Class<?>, Class<?>> factories = TestFactoryRegistry.getFactoryTypes();
+        assertEquals(PooledTestTypeFactory.class, factories.get(PooledTestType.class));
+        final Object factory = TestFactoryRegistry.createFactory(MemoizedTestType.class,
+                new TestFactoryRegistry.Resolver() {
+                    @Override
+                    public Object resolve(final String type, final String qualifier) {
+                        return type.contains("String") ? new CountingProvider<>("Foo")
+                                : new CountingProvider<>(5);
+                    }
+                });
+        assertEquals("Foo", ((MemoizedTestTypeFactory) factory).getMemoizedTestType(1).getName());
+    }
+
+    @Test
+    public void testComponentWiresFactories() {
+        final TestFactoryComponent component = new TestFactoryComponent("irc.example.com",
+                new CountingProvider<>("Foo"), new CountingProvider<>(5),
+                new SharedDependencies(new CountingProvider<>("Hi"), new CountingProvider<>(2)));
+        assertEquals("irc.example.com Bar@irc.example.com:6667",
+                component.getWiredClientTypeFactory().getWiredClientType("Bar").getText());
+        assertSame(component.getCanonicalTestTypeFactory().getCanonicalTestType("Bar", 6667),
+                component.getCanonicalTestTypeFactory().getCanonicalTestType("Bar", 6667));
+    }
+
+    @Test
+    public void testDependencyHolderSharedByFactories() {
+        final CountingProvider<String> greeting = new CountingProvider<>("Hello");
+        final CountingProvider<Integer> count = new CountingProvider<>(3);
+        final SharedDependencies dependencies = new SharedDependencies(greeting, count);
+        final SharedGreetingTypeFactory greetings = new SharedGreetingTypeFactory(dependencies);
+        final SharedFarewellTypeFactory farewells = new SharedFarewellTypeFactory(dependencies);
+
+        assertEquals("Hello, Foo", greetings.getSharedGreetingType("Foo").getText());
+        assertEquals("Hello, Bar", greetings.getSharedGreetingType("Bar").getText());
+        assertEquals("Hello and goodbye x3, Foo", farewells.getSharedFarewellType("Foo").getText());
+        assertEquals("Hello and goodbye x3, Bar", farewells.getSharedFarewellType("Bar").getText());
+        assertEquals(3, greeting.calls);
+        assertEquals(1, count.calls);
+    }
+
+    @Test
+    public void testNativeImageMetadataListsGeneratedTypes() throws IOException {
+        final String root = "META-INF/native-image/com.dmdirc/annotations-test/factory/";
+        final String reflection = readResource(root + "reflect-config.json");
+        assertTrue(reflection.contains(
+                "\"com.dmdirc.util.annotations.factory.PooledTestTypeFactory\""));
+        assertTrue(reflection.contains(
+                "\"com.dmdirc.util.annotations.factory.TestFactoryComponent\""));
+        assertTrue(readResource(root + "resource-config.json").contains(
+                FactoryProcessor.REGISTRY_INDEX));
+    }
+
+    @Test
+    public void testThreadScopedInstancesReusedPerThread() throws Exception {
+        final ThreadScopedTestTypeFactory factory = new ThreadScopedTestTypeFactory(", ");
+        final ThreadScopedTestType instance = factory.getThreadScopedTestType();
+        assertEquals("a, b", instance.join("a", "b"));
+        assertSame(instance, factory.getThreadScopedTestType());
+
+        final ThreadScopedTestType[] other = new ThreadScopedTestType[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = factory.getThreadScopedTestType();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(instance, other[0]);
+    }
+
+    private String readResource(final String name) throws IOException {
+        try (InputStream stream = getClass().getClassLoader().getResourceAsStream(name);
+                Scanner scanner = new Scanner(stream, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    private static class CountingProvider<T> implements Provider<T> {
+
+        private final T value;
+        private int calls;
+
+        CountingProvider(final T value) {
+            this.value = value;
+        }
+
+        @Override
+        public T get() {
+            calls++;
+            return value;
+        }
+
+    }
+
+}
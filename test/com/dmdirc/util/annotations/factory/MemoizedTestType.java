@@ -0,0 +1,29 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(providers = true)
+public class MemoizedTestType {
+
+    private final String name;
+    private final Integer count;
+    private final int id;
+
+    public MemoizedTestType(@Memoized final String name, final Integer count,
+            @Unbound final int id) {
+        this.name = name;
+        this.count = count;
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(pooled = true, poolSize = 32)
+public class PooledTestType {
+
+    private final String prefix;
+    private String message;
+
+    public PooledTestType(final String prefix, @Unbound final String message) {
+        this.prefix = prefix;
+        this.message = message;
+    }
+
+    @Reset
+    void reset(final String message) {
+        this.message = message;
+    }
+
+    public String getText() {
+        return prefix + message;
+    }
+
+}
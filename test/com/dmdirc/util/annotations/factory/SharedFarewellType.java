@@ -0,0 +1,17 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(providers = true, memoizeProviders = true, dependencies = "SharedDependencies")
+public class SharedFarewellType {
+
+    private final String text;
+
+    public SharedFarewellType(final String greeting, final Integer count,
+            @Unbound final String name) {
+        this.text = greeting + " and goodbye x" + count + ", " + name;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(providers = true, dependencies = "SharedDependencies")
+public class SharedGreetingType {
+
+    private final String text;
+
+    public SharedGreetingType(final String greeting, @Unbound final String name) {
+        this.text = greeting + ", " + name;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+}
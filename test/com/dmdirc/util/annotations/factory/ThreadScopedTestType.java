@@ -0,0 +1,21 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory(threadScoped = true)
+public class ThreadScopedTestType {
+
+    private final StringBuilder builder = new StringBuilder();
+    private final String separator;
+
+    public ThreadScopedTestType(final String separator) {
+        this.separator = separator;
+    }
+
+    public String join(final String... parts) {
+        builder.setLength(0);
+        for (String part : parts) {
+            builder.append(builder.length() == 0 ? "" : separator).append(part);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory
+public class WiredClientType {
+
+    private final WiredServiceType service;
+    private final CanonicalTestTypeFactory hosts;
+    private final String nickname;
+
+    public WiredClientType(final WiredServiceType service, final CanonicalTestTypeFactory hosts,
+            @Unbound final String nickname) {
+        this.service = service;
+        this.hosts = hosts;
+        this.nickname = nickname;
+    }
+
+    public String getText() {
+        return service.getServer() + " " + hosts.getCanonicalTestType(nickname, 6667).getText();
+    }
+
+}
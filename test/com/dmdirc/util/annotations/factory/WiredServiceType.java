@@ -0,0 +1,16 @@
+package com.dmdirc.util.annotations.factory;
+
+@Factory
+public class WiredServiceType {
+
+    private final String server;
+
+    public WiredServiceType(final String server) {
+        this.server = server;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel
+public class AggregatedTestModel {
+
+    private String network;
+    private boolean away;
+    private int unread;
+
+    public AggregatedTestModel(final String network) {
+        this.network = network;
+    }
+
+    public String getNetwork() {
+        return network;
+    }
+
+    @GroupBy
+    public void setNetwork(final String network) {
+        this.network = network;
+    }
+
+    public boolean isAway() {
+        return away;
+    }
+
+    @Aggregated
+    public void setAway(final boolean away) {
+        this.away = away;
+    }
+
+    public int getUnread() {
+        return unread;
+    }
+
+    @Aggregated
+    public void setUnread(final int unread) {
+        this.unread = unread;
+    }
+
+}
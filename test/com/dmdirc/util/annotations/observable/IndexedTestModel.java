@@ -0,0 +1,21 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(oldValue = false)
+public class IndexedTestModel {
+
+    private String host;
+
+    public IndexedTestModel(final String host) {
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    @Indexed
+    public void setHost(final String host) {
+        this.host = host;
+    }
+
+}
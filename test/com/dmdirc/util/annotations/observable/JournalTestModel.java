@@ -0,0 +1,29 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(journal = true)
+public class JournalTestModel {
+
+    private String nickname;
+    private int lag;
+
+    public JournalTestModel(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public void setNickname(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    public int getLag() {
+        return lag;
+    }
+
+    public void setLag(final int lag) {
+        this.lag = lag;
+    }
+
+}
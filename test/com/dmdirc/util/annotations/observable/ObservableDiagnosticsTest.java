@@ -0,0 +1,111 @@
+package com.dmdirc.util.annotations.observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class ObservableDiagnosticsTest {
+
+    @Test
+    public void testInvalidSingleWriterModelIsNotGenerated() throws IOException {
+        final Path root = Files.createTempDirectory("observable-diagnostics");
+        final List<String> errors = compile(root, Diagnostic.Kind.ERROR, "package models;\n"
+                + "@com.dmdirc.util.annotations.observable.ObservableModel(singleWriter = true)\n"
+                + "public class InvalidModel {\n"
+                + "    private String topic;\n"
+                + "    public String getTopic() { return topic; }\n"
+                + "    public String setTopic(String topic) { return this.topic = topic; }\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Single writer models may only wrap void methods"), errors);
+        assertFalse(Files.exists(root.resolve("generated/models/ObservableInvalidModel.java")));
+    }
+
+    @Test
+    public void testCollidingJournalIdsAreReported() throws IOException {
+        final Path root = Files.createTempDirectory("observable-diagnostics");
+        // "PROPERTY_AAAA" and "PROPERTY_BDDB" share the low 15 bits of their hash codes.
+        final List<String> errors = compile(root, Diagnostic.Kind.ERROR, "package models;\n"
+                + "@com.dmdirc.util.annotations.observable.ObservableModel(journal = true)\n"
+                + "public class CollidingModel {\n"
+                + "    private int aaaa;\n"
+                + "    private int bddb;\n"
+                + "    public int getAaaa() { return aaaa; }\n"
+                + "    public void setAaaa(int aaaa) { this.aaaa = aaaa; }\n"
+                + "    public int getBddb() { return bddb; }\n"
+                + "    public void setBddb(int bddb) { this.bddb = bddb; }\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Journal property IDs of PROPERTY_AAAA and PROPERTY_BDDB "
+                + "collide; rename one of the properties"), errors);
+        assertFalse(Files.exists(root.resolve("generated/models/ObservableCollidingModel.java")));
+    }
+
+    @Test
+    public void testIndexedUnwrappedMethodIsReported() throws IOException {
+        final Path root = Files.createTempDirectory("observable-diagnostics");
+        final List<String> warnings = compile(root, Diagnostic.Kind.WARNING, "package models;\n"
+                + "@com.dmdirc.util.annotations.observable.ObservableModel\n"
+                + "public class UnwrappedModel {\n"
+                + "    private String host;\n"
+                + "    public String getHost() { return host; }\n"
+                + "    @com.dmdirc.util.annotations.observable.Indexed\n"
+                + "    public void updateHost(String host) { this.host = host; }\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Indexed only applies to methods that the model wraps"),
+                warnings);
+    }
+
+    private List<String> compile(final Path root, final Diagnostic.Kind kind,
+            final String source) throws IOException {
+        final String name = source.substring(source.indexOf("class ") + 6,
+                source.indexOf(' ', source.indexOf("class ") + 6));
+        final Path file = root.resolve("src/models/" + name + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", ObservableProcessor.class.getName(),
+                "-d", classes.toString(),
+                "-s", generated.toString()));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7", "-Xlint:-options"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjects(file.toFile())).call();
+        }
+
+        final List<String> messages = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == kind) {
+                messages.add(diagnostic.getMessage(null));
+            }
+        }
+        return messages;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.dmdirc.util.annotations.observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.dmdirc.util.annotations.util.NativeImageMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class ObservableIncrementalTest {
+
+    private static final String FIRST_MODEL = "package incremental;\n"
+            + "@com.dmdirc.util.annotations.observable.ObservableModel(table = true)\n"
+            + "public class FirstModel {\n"
+            + "    private String topic;\n"
+            + "    public String getTopic() { return topic; }\n"
+            + "    public void setTopic(String topic) { this.topic = topic; }\n"
+            + "}\n";
+
+    private static final String SECOND_MODEL = "package incremental;\n"
+            + "@com.dmdirc.util.annotations.observable.ObservableModel\n"
+            + "public class SecondModel {\n"
+            + "    private int count;\n"
+            + "    public int getCount() { return count; }\n"
+            + "    public void setCount(int count) { this.count = count; }\n"
+            + "}\n";
+
+    @Test
+    public void testRecompilingOneModelKeepsTheOthersMetadata() throws IOException {
+        final Path root = Files.createTempDirectory("observable-incremental");
+        final Path first = write(root, "FirstModel", FIRST_MODEL);
+        final Path second = write(root, "SecondModel", SECOND_MODEL);
+        assertEquals(new ArrayList<String>(), compile(root, first, second));
+
+        assertEquals(new ArrayList<String>(), compile(root, second));
+        final String config = read(root.resolve(
+                "classes/META-INF/native-image/incremental/test/observable/reflect-config.json"));
+        assertTrue(config.contains("\"incremental.ObservableFirstModel\""));
+        assertTrue(config.contains("\"incremental.ObservableFirstModelTable\""));
+        assertTrue(config.contains("\"incremental.ObservableSecondModel\""));
+        assertTrue(read(root.resolve("classes/" + ObservableProcessor.TYPE_INDEX))
+                .contains("incremental.FirstModel"));
+    }
+
+    private Path write(final Path root, final String name, final String source)
+            throws IOException {
+        final Path file = root.resolve("src/incremental/" + name + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String read(final Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private List<String> compile(final Path root, final Path... files) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path") + File.pathSeparator + classes,
+                "-processor", ObservableProcessor.class.getName(),
+                "-d", classes.toString(),
+                "-s", generated.toString(),
+                "-A" + NativeImageMetadata.OPTION + "=incremental/test"));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7", "-Xlint:-options"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final List<File> sources = new ArrayList<>();
+            for (Path file : files) {
+                sources.add(file.toFile());
+            }
+            compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(sources)).call();
+        }
+
+        final List<String> messages = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                messages.add(diagnostic.getMessage(null));
+            }
+        }
+        return messages;
+    }
+
+}
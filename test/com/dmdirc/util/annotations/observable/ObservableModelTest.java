@@ -7,6 +7,22 @@
 package com.dmdirc.util.annotations.observable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import com.dmdirc.util.annotations.runtime.ChangeJournal;
+import com.dmdirc.util.annotations.runtime.PropertySampler;
+import com.dmdirc.util.annotations.runtime.SharedRegion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.Test;
 
 public class ObservableModelTest {
@@ -37,4 +53,290 @@ public class ObservableModelTest {
         });
         model.setString(newValue);
     }
+
+    @Test
+    public void testListenerCanRemoveItselfWhileNotified() {
+        final ObservableNewValueTestModel model = new ObservableNewValueTestModel("Foo");
+        final int[] calls = new int[1];
+        model.addStringListener(new ObservableNewValueTestModel.StringListener() {
+            public void stringChanged(String testNewValue) {
+                calls[0]++;
+                model.removeStringListener(this);
+            }
+        });
+        model.setString("Bar");
+        model.setString("Baz");
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testSnapshotPublishedAfterSetter() {
+        ObservableSnapshotTestModel model = new ObservableSnapshotTestModel("Foo", false);
+        ObservableSnapshotTestModel.Snapshot snapshot = model.getSnapshot();
+        model.setNickname("Bar");
+        assertEquals("Foo", snapshot.getNickname());
+        assertEquals("Bar", model.getSnapshot().getNickname());
+        assertFalse(model.getSnapshot().isAway());
+    }
+
+    @Test
+    public void testSnapshotBatchPublishedOnCommit() {
+        ObservableSnapshotTestModel model = new ObservableSnapshotTestModel("Foo", false);
+        ObservableSnapshotTestModel.Snapshot snapshot = model.getSnapshot();
+        model.beginSnapshotBatch();
+        model.setNickname("Bar");
+        model.setAway(true);
+        assertSame(snapshot, model.getSnapshot());
+        model.commitSnapshotBatch();
+        assertEquals("Bar", model.getSnapshot().getNickname());
+        assertTrue(model.getSnapshot().isAway());
+    }
+
+    @Test
+    public void testSnapshotMatchesModelAfterConcurrentSetters() throws InterruptedException {
+        final ObservableSnapshotTestModel model = new ObservableSnapshotTestModel("Foo", false);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String prefix = "Thread" + i + "-";
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        model.setNickname(prefix + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(model.getNickname(), model.getSnapshot().getNickname());
+    }
+
+    @Test
+    public void testSingleWriterQueuesForeignChanges() throws InterruptedException {
+        final ObservableSingleWriterTestModel model = new ObservableSingleWriterTestModel("Foo");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                model.setTopic("Bar");
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals("Foo", model.getTopic());
+        model.applyPendingChanges();
+        assertEquals("Bar", model.getTopic());
+    }
+
+    @Test
+    public void testSingleWriterAppliesOwnerChangesDirectly() {
+        ObservableSingleWriterTestModel model = new ObservableSingleWriterTestModel("Foo");
+        model.setTopic("Bar");
+        assertEquals("Bar", model.getTopic());
+    }
+
+    @Test
+    public void testJournalReplayRestoresState() throws IOException {
+        final File directory = Files.createTempDirectory("journal").toFile();
+        final ObservableJournalTestModel model = new ObservableJournalTestModel("Foo");
+        try (ChangeJournal journal = new ChangeJournal(directory, 64, 8)) {
+            model.setJournal(journal, 1);
+            for (int i = 0; i < 10; i++) {
+                model.setLag(i);
+            }
+            model.setNickname("Bar");
+        }
+
+        final ObservableJournalTestModel restored = new ObservableJournalTestModel("Foo");
+        final Map<Integer, ObservableJournalTestModel> models = new HashMap<>();
+        models.put(1, restored);
+        try (ChangeJournal journal = new ChangeJournal(directory, 64, 8)) {
+            journal.replay(new ObservableJournalTestModel.JournalReplayer(models));
+        }
+        assertEquals("Bar", restored.getNickname());
+        assertEquals(9, restored.getLag());
+    }
+
+    @Test
+    public void testJournalReplayStopsAtTornRecord() throws IOException {
+        final File directory = Files.createTempDirectory("journal").toFile();
+        final ObservableJournalTestModel model = new ObservableJournalTestModel("Foo");
+        try (ChangeJournal journal = new ChangeJournal(directory, 4096, 1)) {
+            model.setJournal(journal, 1);
+            for (int i = 1; i <= 3; i++) {
+                model.setLag(i);
+            }
+        }
+
+        // Each int record is 19 bytes long; damage the value of the third.
+        try (RandomAccessFile file = new RandomAccessFile(
+                new File(directory, "00000000.journal"), "rw")) {
+            file.seek(3 * 19 - 1);
+            file.write(0xFF);
+        }
+
+        final ObservableJournalTestModel restored = new ObservableJournalTestModel("Foo");
+        final Map<Integer, ObservableJournalTestModel> models = new HashMap<>();
+        models.put(1, restored);
+        try (ChangeJournal journal = new ChangeJournal(directory, 4096, 1)) {
+            journal.replay(new ObservableJournalTestModel.JournalReplayer(models));
+            assertEquals(2, restored.getLag());
+
+            model.setJournal(journal, 1);
+            model.setLag(4);
+            journal.replay(new ObservableJournalTestModel.JournalReplayer(models));
+            assertEquals(4, restored.getLag());
+        }
+    }
+
+    @Test
+    public void testIndexUpdatedBySetters() {
+        final ObservableIndexedTestModel first = new ObservableIndexedTestModel("example.com");
+        final ObservableIndexedTestModel second = new ObservableIndexedTestModel("example.com");
+        final ObservableIndexedTestModelIndex index = new ObservableIndexedTestModelIndex();
+        index.add(first);
+        index.add(second);
+        assertEquals(2, index.getByHost("example.com").size());
+
+        first.setHost("example.org");
+        assertEquals(1, index.getByHost("example.com").size());
+        assertTrue(index.getByHost("example.org").contains(first));
+
+        // A notification delivered after a newer one must leave the model under its current value.
+        index.hostChanged(first);
+        assertEquals(1, index.getByHost("example.com").size());
+        assertEquals(1, index.getByHost("example.org").size());
+
+        index.remove(second);
+        assertTrue(index.getByHost("example.com").isEmpty());
+
+        // A notification from a setter that raced with the removal must not re-add the model.
+        second.setHost("example.net");
+        index.hostChanged(second);
+        assertTrue(index.getByHost("example.net").isEmpty());
+    }
+
+    @Test
+    public void testAggregatesUpdatedBySetters() {
+        final ObservableAggregatedTestModel first = new ObservableAggregatedTestModel("freenode");
+        final ObservableAggregatedTestModel second = new ObservableAggregatedTestModel("freenode");
+        final ObservableAggregatedTestModelAggregates aggregates =
+                new ObservableAggregatedTestModelAggregates();
+        aggregates.add(first);
+        aggregates.add(second);
+
+        first.setAway(true);
+        first.setUnread(3);
+        second.setUnread(5);
+        assertEquals(2, aggregates.get("freenode").getCount());
+        assertEquals(1, aggregates.get("freenode").getAway().getSum(), 0);
+        assertEquals(8, aggregates.get("freenode").getUnread().getSum(), 0);
+        assertEquals(8, aggregates.get("freenode").getUnread().getLongSum());
+        assertEquals(3, aggregates.get("freenode").getUnread().getMin(), 0);
+        assertEquals(5, aggregates.get("freenode").getUnread().getMax(), 0);
+
+        second.setNetwork("quakenet");
+        assertEquals(1, aggregates.get("freenode").getCount());
+        assertEquals(3, aggregates.get("freenode").getUnread().getMax(), 0);
+        assertEquals(5, aggregates.get("quakenet").getUnread().getSum(), 0);
+
+        // Notifications delivered late, after newer ones, must not apply their deltas twice.
+        aggregates.unreadChanged(first);
+        aggregates.networkChanged(second);
+        assertEquals(3, aggregates.get("freenode").getUnread().getLongSum());
+        assertEquals(1, aggregates.get("quakenet").getCount());
+        assertEquals(5, aggregates.get("quakenet").getUnread().getLongSum());
+    }
+
+    @Test
+    public void testSamplerTracksRollingWindow() {
+        final ObservableSampledTestModel model = new ObservableSampledTestModel();
+        for (long lag : new long[]{50, 10, 40, 20, 30, 60}) {
+            model.setLag(lag);
+        }
+        final PropertySampler sampler = model.getLagSampler();
+        assertEquals(4, sampler.size());
+        assertEquals(20, sampler.getMin(), 0);
+        assertEquals(60, sampler.getMax(), 0);
+        assertEquals(37.5, sampler.getMean(), 0.001);
+        assertEquals(40, sampler.getPercentile(75), 0);
+        assertEquals(60, sampler.getLatest(), 0);
+    }
+
+    @Test
+    public void testSharedViewReadsSharedRegion() throws IOException {
+        final File file = File.createTempFile("shared", ".region");
+        file.deleteOnExit();
+        final ObservableSharedTestModel model = new ObservableSharedTestModel();
+        model.setLag(10);
+        try (SharedRegion writer = new SharedRegion(file,
+                        ObservableSharedTestModel.SHARED_REGION_SIZE, true);
+                SharedRegion reader = new SharedRegion(file,
+                        ObservableSharedTestModel.SHARED_REGION_SIZE, false)) {
+            model.shareTo(writer);
+            model.setAway(true);
+            final ObservableSharedTestModel.SharedView view =
+                    new ObservableSharedTestModel.SharedView(reader);
+            final long version = view.refresh();
+            assertEquals(10, view.getLag());
+            assertTrue(view.isAway());
+            assertEquals(version, view.getVersion());
+            model.setLag(20);
+            assertFalse(version == view.getVersion());
+        }
+    }
+
+    @Test
+    public void testTableTracksChangedRows() {
+        final ObservableTableTestModelTable table = new ObservableTableTestModelTable(1);
+        for (int i = 0; i < 20; i++) {
+            table.setLag(table.addRow(), i);
+        }
+        table.clearChangedRows();
+        table.addLagListener(new ObservableTableTestModelTable.LagListener() {
+            @Override
+            public void lagChanged(final int row, final int oldValue, final int newValue) {
+                assertEquals(7, row);
+                assertEquals(7, oldValue);
+                assertEquals(70, newValue);
+            }
+        });
+
+        final ObservableTableTestModelTable.Row row = table.getRow(7);
+        row.setLag(70);
+        row.moveTo(3).setNickname("Foo");
+        assertEquals(20, table.size());
+        assertEquals(70, table.getLag(7));
+        assertEquals("Foo", table.getNickname(3));
+        assertEquals(2, table.getChangedRows().cardinality());
+    }
+
+    @Test
+    public void testTableRowListenersOnlySeeTheirRow() {
+        final ObservableTableTestModelTable table = new ObservableTableTestModelTable();
+        for (int i = 0; i < 5; i++) {
+            table.addRow();
+        }
+        final List<Integer> changed = new ArrayList<>();
+        final ObservableTableTestModelTable.NicknameListener listener
+                = new ObservableTableTestModelTable.NicknameListener() {
+            @Override
+            public void nicknameChanged(final int row, final String oldValue,
+                    final String newValue) {
+                changed.add(row);
+            }
+        };
+        table.addNicknameListener(2, listener);
+
+        final ObservableTableTestModelTable.Row cursor = table.newCursor();
+        for (int i = 0; i < table.size(); i++) {
+            assertSame(cursor, cursor.moveTo(i));
+            cursor.setNickname("Nick" + i);
+        }
+        table.removeNicknameListener(2, listener);
+        table.setNickname(2, "Other");
+        assertEquals(Arrays.asList(2), changed);
+    }
 }
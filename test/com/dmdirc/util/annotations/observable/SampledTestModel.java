@@ -0,0 +1,17 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(oldValue = false)
+public class SampledTestModel {
+
+    private long lag;
+
+    public long getLag() {
+        return lag;
+    }
+
+    @Sampled(capacity = 4)
+    public void setLag(final long lag) {
+        this.lag = lag;
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(sharedMemory = true)
+public class SharedTestModel {
+
+    private int lag;
+    private boolean away;
+
+    public int getLag() {
+        return lag;
+    }
+
+    public void setLag(final int lag) {
+        this.lag = lag;
+    }
+
+    public boolean isAway() {
+        return away;
+    }
+
+    public void setAway(final boolean away) {
+        this.away = away;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(singleWriter = true)
+public class SingleWriterTestModel {
+
+    private String topic;
+
+    public SingleWriterTestModel(final String topic) {
+        this.topic = topic;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(final String topic) {
+        this.topic = topic;
+    }
+
+}
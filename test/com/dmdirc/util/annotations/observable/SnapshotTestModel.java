@@ -0,0 +1,30 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(snapshot = true)
+public class SnapshotTestModel {
+
+    private String nickname;
+    private boolean away;
+
+    public SnapshotTestModel(final String nickname, final boolean away) {
+        this.nickname = nickname;
+        this.away = away;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public void setNickname(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    public boolean isAway() {
+        return away;
+    }
+
+    public void setAway(final boolean away) {
+        this.away = away;
+    }
+
+}
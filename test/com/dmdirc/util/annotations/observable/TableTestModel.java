@@ -0,0 +1,25 @@
+package com.dmdirc.util.annotations.observable;
+
+@ObservableModel(table = true)
+public class TableTestModel {
+
+    private String nickname;
+    private int lag;
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public void setNickname(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    public int getLag() {
+        return lag;
+    }
+
+    public void setLag(final int lag) {
+        this.lag = lag;
+    }
+
+}
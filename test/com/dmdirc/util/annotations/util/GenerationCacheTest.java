@@ -0,0 +1,112 @@
+package com.dmdirc.util.annotations.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class GenerationCacheTest {
+
+    @Test
+    public void testUnchangedFactoryIsNotRegenerated() throws IOException {
+        final Path root = Files.createTempDirectory("generation-cache");
+        final Path source = root.resolve("src/cache/CachedType.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package cache;\n"
+                + "@com.dmdirc.util.annotations.factory.Factory\n"
+                + "public class CachedType {\n"
+                + "    public CachedType(String name) {}\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        final Path generated = root.resolve("generated/cache/CachedTypeFactory.java");
+
+        assertTrue(compile(root, source).isEmpty());
+        assertTrue(Files.exists(generated));
+        assertTrue(Files.exists(root.resolve("classes/cache/CachedTypeFactory.class")));
+
+        Files.delete(generated);
+        final List<String> notes = compile(root, source);
+        assertFalse(Files.exists(generated));
+        assertEquals(1, notes.size());
+        assertTrue(notes.get(0).contains("1 of 1"));
+
+        Files.write(source, ("package cache;\n"
+                + "@com.dmdirc.util.annotations.factory.Factory\n"
+                + "public class CachedType {\n"
+                + "    public CachedType(String name, int port) {}\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(compile(root, source).isEmpty());
+        assertTrue(Files.exists(generated));
+    }
+
+    @Test
+    public void testChangedOptionRegeneratesSources() throws IOException {
+        final Path root = Files.createTempDirectory("generation-cache");
+        final Path source = root.resolve("src/cache/CachedType.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package cache;\n"
+                + "@com.dmdirc.util.annotations.factory.Factory\n"
+                + "public class CachedType {\n"
+                + "    public CachedType(String name) {}\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        final Path generated = root.resolve("generated/cache/CachedTypeFactory.java");
+
+        assertTrue(compile(root, source).isEmpty());
+        Files.delete(generated);
+        assertTrue(compile(root, source, "-A" + LineEnding.OPTION + "=lf").isEmpty());
+        assertTrue(Files.exists(generated));
+        assertFalse(new String(Files.readAllBytes(generated), StandardCharsets.UTF_8)
+                .contains("\r\n"));
+    }
+
+    private List<String> compile(final Path root, final Path source,
+            final String... extraOptions) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", classes + File.pathSeparator + System.getProperty("java.class.path"),
+                "-processor", "com.dmdirc.util.annotations.factory.FactoryProcessor",
+                "-A" + GenerationCache.OPTION + "=" + root.resolve("cache"),
+                "-d", classes.toString(),
+                "-s", generated.toString()));
+        options.addAll(Arrays.asList(extraOptions));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final boolean success = compiler.getTask(null, fileManager, diagnostics, options,
+                    null, fileManager.getJavaFileObjects(source.toFile())).call();
+            assertTrue(diagnostics.getDiagnostics().toString(), success);
+        }
+
+        final List<String> notes = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.NOTE) {
+                notes.add(diagnostic.getMessage(null));
+            }
+        }
+        return notes;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.dmdirc.util.annotations.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class ProcessorStatsTest {
+
+    @Test
+    public void testStatsReportedForGeneratedFactories() throws IOException {
+        final Path root = Files.createTempDirectory("processor-stats");
+        final Path source = root.resolve("src/stats/CountedType.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package stats;\n"
+                + "@com.dmdirc.util.annotations.factory.Factory\n"
+                + "public class CountedType {\n"
+                + "    public CountedType(String name) {}\n"
+                + "    public CountedType(String name,\n"
+                + "            @com.dmdirc.util.annotations.factory.Unbound int port) {}\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+
+        final List<String> notes = compile(root, source);
+        assertEquals(1, notes.size());
+        assertTrue(notes.get(0), notes.get(0).startsWith("FactoryProcessor took "));
+        assertTrue(notes.get(0), notes.get(0).contains("scanned 1 elements, deferred 0, "
+                + "generated 1 files ("));
+        assertTrue(notes.get(0), notes.get(0).contains(" 3 methods)"));
+
+        final Properties report = new Properties();
+        try (InputStream stream = Files.newInputStream(root.resolve("classes/META-INF/dmdirc/"
+                + "stats/com.dmdirc.util.annotations.factory.FactoryProcessor.properties"))) {
+            report.load(stream);
+        }
+        final String contents = new String(Files.readAllBytes(
+                root.resolve("generated/stats/CountedTypeFactory.java")), StandardCharsets.UTF_8);
+        assertEquals("1", report.getProperty("scanned"));
+        assertEquals("1", report.getProperty("round.1.generated"));
+        assertEquals("3", report.getProperty("generated.stats.CountedTypeFactory.methods"));
+        assertEquals(String.valueOf(contents.length()),
+                report.getProperty("generated.stats.CountedTypeFactory.characters"));
+        assertTrue(report.containsKey("type.stats.CountedType.nanos"));
+    }
+
+    private List<String> compile(final Path root, final Path source) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final File classes = root.resolve("classes").toFile();
+        final File generated = root.resolve("generated").toFile();
+        classes.mkdirs();
+        generated.mkdirs();
+
+        final List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", "com.dmdirc.util.annotations.factory.FactoryProcessor",
+                "-A" + ProcessorStats.OPTION + "=true",
+                "-A" + ProcessorStats.REPORT_OPTION + "=true",
+                "-d", classes.toString(),
+                "-s", generated.toString()));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Newer platforms no longer include the @Generated annotation used by the output.
+            options.addAll(Arrays.asList("--release", "7"));
+        }
+
+        try (StandardJavaFileManager fileManager
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final boolean success = compiler.getTask(null, fileManager, diagnostics, options,
+                    null, fileManager.getJavaFileObjects(source.toFile())).call();
+            assertTrue(diagnostics.getDiagnostics().toString(), success);
+        }
+
+        final List<String> notes = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.NOTE) {
+                notes.add(diagnostic.getMessage(null));
+            }
+        }
+        return notes;
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.dmdirc.util.annotations.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import javax.lang.model.element.Modifier;
+import org.junit.Test;
+
+public class SourceFileWriterTest {
+
+    @Test
+    public void testLineEndings() throws IOException {
+        assertEquals("package foo;\r\n\r\n", render(LineEnding.CRLF));
+        assertEquals("package foo;\n\n", render(LineEnding.LF));
+    }
+
+    @Test
+    public void testDeepIndentation() throws IOException {
+        try (SourceFileWriter writer = new SourceFileWriter(LineEnding.LF)) {
+            for (int i = 0; i < 10; i++) {
+                writer.writeIfStart("true");
+            }
+            writer.writeField("int", "x", Modifier.PRIVATE);
+
+            final StringBuilder indent = new StringBuilder();
+            for (int i = 0; i < 80; i++) {
+                indent.append(' ');
+            }
+            assertTrue(writer.getContents().contains("\n" + indent + "private int x;\n"));
+        }
+    }
+
+    private String render(final LineEnding lineEnding) throws IOException {
+        try (SourceFileWriter writer = new SourceFileWriter(lineEnding)) {
+            return writer.writePackageDeclaration("foo").getContents();
+        }
+    }
+
+}